@@ -22,11 +22,11 @@ import org.jawk.ext.JawkExtension;
 import org.jawk.frontend.AwkParser;
 import org.jawk.frontend.AwkSyntaxTree;
 import org.jawk.intermediate.AwkTuples;
+import org.jawk.jrt.AppendablePrintStream;
 import org.jawk.util.AwkSettings;
 import org.jawk.util.DestDirClassLoader;
+import org.jawk.util.LazyLogger;
 import org.jawk.util.ScriptSource;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Entry point into the parsing, analysis, and execution/compilation
@@ -89,7 +89,7 @@ public class Awk {
 			= org.jawk.ext.CoreExtension.class.getName()
 			+ "#" + org.jawk.ext.SocketExtension.class.getName()
 			+ "#" + org.jawk.ext.StdinExtension.class.getName();
-	private static final Logger LOG = LoggerFactory.getLogger(Awk.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(Awk.class);
 
 	public Awk() {}
 
@@ -118,73 +118,12 @@ public class Awk {
 		AVM avm = null;
 		try {
 			// key = Keyword, value = JawkExtension
-			Map<String, JawkExtension> extensions;
-			if (settings.isUserExtensions()) {
-				extensions = getJawkExtensions();
-				LOG.trace("user extensions = {}", extensions.keySet());
-			} else {
-				extensions = Collections.emptyMap();
-				LOG.trace("user extensions not enabled");
-			}
-
-			AwkTuples tuples = new AwkTuples();
-			// to be defined below
-
-			List<ScriptSource> notIntermediateScriptSources = new ArrayList<ScriptSource>(settings.getScriptSources().size());
-			for (ScriptSource scriptSource : settings.getScriptSources()) {
-				if (scriptSource.isIntermediate()) {
-					// read the intermediate file, bypassing frontend processing
-					tuples = (AwkTuples) readObjectFromInputStream(scriptSource.getInputStream()); // FIXME only the last intermediate file is used!
-				} else {
-					notIntermediateScriptSources.add(scriptSource);
-				}
-			}
-			if (!notIntermediateScriptSources.isEmpty()) {
-				AwkParser parser = new AwkParser(
-						settings.isAdditionalFunctions(),
-						settings.isAdditionalTypeFunctions(),
-						settings.isUseStdIn(),
-						extensions);
-				// parse the script
-				AwkSyntaxTree ast = parser.parse(notIntermediateScriptSources);
+			Map<String, JawkExtension> extensions = getExtensions(settings);
 
-				if (settings.isDumpSyntaxTree()) {
-					// dump the syntax tree of the script to a file
-					String filename = settings.getOutputFilename("syntax_tree.lst");
-					LOG.info("writing to '{}'", filename);
-					PrintStream ps = new PrintStream(new FileOutputStream(filename));
-					if (ast != null) {
-						ast.dump(ps);
-					}
-					ps.close();
-					return;
-				}
-				// otherwise, attempt to traverse the syntax tree and build
-				// the intermediate code
-				if (ast != null) {
-					// 1st pass to tie actual parameters to back-referenced formal parameters
-					ast.semanticAnalysis();
-					// 2nd pass to tie actual parameters to forward-referenced formal parameters
-					ast.semanticAnalysis();
-					// build tuples
-					int result = ast.populateTuples(tuples);
-					// ASSERTION: NOTHING should be left on the operand stack ...
-					assert result == 0;
-					// Assign queue.next to the next element in the queue.
-					// Calls touch(...) per Tuple so that addresses can be normalized/assigned/allocated
-					tuples.postProcess();
-					// record global_var -> offset mapping into the tuples
-					// so that the interpreter/compiler can assign variables
-					// on the "file list input" command line
-					parser.populateGlobalVariableNameToOffsetMappings(tuples);
-				}
-				if (settings.isWriteIntermediateFile()) {
-					// dump the intermediate code to an intermediate code file
-					String filename = settings.getOutputFilename("a.ai");
-					LOG.info("writing to '{}'", filename);
-					writeObjectToFile(tuples, filename);
-					return;
-				}
+			AwkTuples tuples = translate(settings, extensions, true);
+			if (tuples == null) {
+				// dumped the syntax tree or the intermediate code
+				return;
 			}
 			if (settings.isDumpIntermediateCode()) {
 				// dump the intermediate code to a human-readable text file
@@ -211,9 +150,145 @@ public class Awk {
 			if (avm != null) {
 				avm.waitForIO();
 			}
+			finishOutput(settings);
 		}
 	}
 
+	/**
+	 * Flushes the output at the end of an execution.
+	 * The output sink may be buffered,
+	 * or hold an unterminated last line (see AwkSettings.setOutput).
+	 */
+	static void finishOutput(AwkSettings settings) {
+		PrintStream output = settings.getOutputStream();
+		if (output instanceof AppendablePrintStream) {
+			((AppendablePrintStream) output).finish();
+		} else {
+			output.flush();
+		}
+	}
+
+	/**
+	 * Parses and translates the script(s) of <code>settings</code>
+	 * into intermediate code once, so it can be interpreted
+	 * multiple times, possibly concurrently.
+	 * Only the settings relevant for parsing and interpretation are
+	 * considered; compilation and dump related settings are ignored.
+	 *
+	 * @param settings Where to take the script sources
+	 *   and the default runtime settings from.
+	 *
+	 * @return The parsed script, ready to be executed.
+	 *
+	 * @throws IOException upon an IO error while reading the script sources.
+	 * @throws ClassNotFoundException if an intermediate file refers
+	 *   to an unknown class.
+	 *
+	 * @see CompiledScript
+	 */
+	public CompiledScript compile(AwkSettings settings)
+			throws IOException, ClassNotFoundException
+	{
+		AwkTuples tuples = translate(settings, getExtensions(settings), false);
+
+		return new CompiledScript(tuples, settings);
+	}
+
+	private static Map<String, JawkExtension> getExtensions(AwkSettings settings) {
+		if (settings.isUserExtensions()) {
+			Map<String, JawkExtension> extensions = getJawkExtensions();
+			LOG.trace("user extensions = {}", extensions.keySet());
+			return extensions;
+		} else {
+			LOG.trace("user extensions not enabled");
+			return Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * Reads the intermediate file, or parses the script(s)
+	 * and translates them into intermediate code.
+	 *
+	 * @param settings Where to take the script sources from.
+	 * @param extensions The extensions the scripts may use.
+	 * @param dump Whether to honor the settings to write the syntax tree
+	 *   or the intermediate code to a file, instead of returning it.
+	 *
+	 * @return The intermediate code, or <code>null</code> if it was
+	 *   written to a file.
+	 */
+	private static AwkTuples translate(AwkSettings settings, Map<String, JawkExtension> extensions, boolean dump)
+			throws IOException, ClassNotFoundException
+	{
+		AwkTuples tuples = new AwkTuples();
+		// to be defined below
+
+		List<ScriptSource> notIntermediateScriptSources = new ArrayList<ScriptSource>(settings.getScriptSources().size());
+		for (ScriptSource scriptSource : settings.getScriptSources()) {
+			if (scriptSource.isIntermediate()) {
+				// read the intermediate file, bypassing frontend processing
+				tuples = (AwkTuples) readObjectFromInputStream(scriptSource.getInputStream()); // FIXME only the last intermediate file is used!
+			} else {
+				notIntermediateScriptSources.add(scriptSource);
+			}
+		}
+		if (!notIntermediateScriptSources.isEmpty()) {
+			AwkParser parser = new AwkParser(
+					settings.isAdditionalFunctions(),
+					settings.isAdditionalTypeFunctions(),
+					settings.isUseStdIn(),
+					extensions);
+			// parse the script
+			AwkSyntaxTree ast = parser.parse(notIntermediateScriptSources);
+
+			if (dump && settings.isDumpSyntaxTree()) {
+				// dump the syntax tree of the script to a file
+				String filename = settings.getOutputFilename("syntax_tree.lst");
+				LOG.info("writing to '{}'", filename);
+				PrintStream ps = new PrintStream(new FileOutputStream(filename));
+				if (ast != null) {
+					ast.dump(ps);
+				}
+				ps.close();
+				return null;
+			}
+			// otherwise, attempt to traverse the syntax tree and build
+			// the intermediate code
+			if (ast != null) {
+				buildTuples(ast, parser, tuples);
+			}
+			if (dump && settings.isWriteIntermediateFile()) {
+				// dump the intermediate code to an intermediate code file
+				String filename = settings.getOutputFilename("a.ai");
+				LOG.info("writing to '{}'", filename);
+				writeObjectToFile(tuples, filename);
+				return null;
+			}
+		}
+		return tuples;
+	}
+
+	/**
+	 * Traverses the syntax tree, building the intermediate code.
+	 */
+	private static void buildTuples(AwkSyntaxTree ast, AwkParser parser, AwkTuples tuples) {
+		// 1st pass to tie actual parameters to back-referenced formal parameters
+		ast.semanticAnalysis();
+		// 2nd pass to tie actual parameters to forward-referenced formal parameters
+		ast.semanticAnalysis();
+		// build tuples
+		int result = ast.populateTuples(tuples);
+		// ASSERTION: NOTHING should be left on the operand stack ...
+		assert result == 0;
+		// Assign queue.next to the next element in the queue.
+		// Calls touch(...) per Tuple so that addresses can be normalized/assigned/allocated
+		tuples.postProcess();
+		// record global_var -> offset mapping into the tuples
+		// so that the interpreter/compiler can assign variables
+		// on the "file list input" command line
+		parser.populateGlobalVariableNameToOffsetMappings(tuples);
+	}
+
 	/**
 	 * Use reflection in attempt to access the compiler.
 	 */
@@ -299,7 +374,7 @@ public class Awk {
 		oos.close();
 	}
 
-	private static Map<String, JawkExtension> getJawkExtensions() {
+	static Map<String, JawkExtension> getJawkExtensions() {
 		String extensionsStr = System.getProperty("jawk.extensions", null);
 		if (extensionsStr == null) {
 			//return Collections.emptyMap();
@@ -0,0 +1,183 @@
+package org.jawk;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jawk.backend.AVM;
+import org.jawk.backend.AVMPool;
+import org.jawk.ext.JawkExtension;
+import org.jawk.intermediate.AwkTuples;
+import org.jawk.jrt.AppendablePrintStream;
+import org.jawk.util.AwkSettings;
+
+/**
+ * A Jawk script which was parsed and translated to intermediate code once,
+ * and may be executed any number of times.
+ * <p>
+ * The script and its default settings are immutable,
+ * and instances may be shared between threads.
+ * Every execution uses its own interpreter, runtime and extension
+ * instances, its own input and output, and its own set of variables.
+ * Neither <code>System.in</code> nor <code>System.out</code>
+ * are touched, unless they are the configured input/output.
+ * </p>
+ * <p>
+ * Interpreters of finished executions are kept in a small pool
+ * (sized by the system property <code>jawk.avmPoolSize</code>,
+ * by default the number of available processors),
+ * and are reset rather than reconstructed for subsequent executions.
+ * Executions with user extensions enabled are not pooled.
+ * </p>
+ * <p>
+ * Example:
+ * <blockquote>
+ * <pre>
+ * AwkSettings settings = new AwkSettings();
+ * settings.addScriptSource(new ScriptSource(
+ *		ScriptSource.DESCRIPTION_COMMAND_LINE_SCRIPT,
+ *		new StringReader("{ print $2 }"), false));
+ * CompiledScript script = new Awk().compile(settings);
+ * // from any number of threads:
+ * int exitCode = script.run(reader, writer, variables);
+ * </pre>
+ * </blockquote>
+ * </p>
+ *
+ * @see Awk#compile(AwkSettings)
+ */
+public final class CompiledScript {
+
+	private static final int POOL_SIZE = Integer.getInteger("jawk.avmPoolSize", Runtime.getRuntime().availableProcessors());
+
+	private final AwkTuples tuples;
+	private final AVMPool pool = new AVMPool(Math.max(1, POOL_SIZE));
+
+	// runtime relevant settings, as given at compile time
+	private final Map<String, Object> variables;
+	private final List<String> nameValueOrFileNames;
+	private final String fieldSeparator;
+	private final boolean additionalFunctions;
+	private final boolean additionalTypeFunctions;
+	private final boolean useSortedArrayKeys;
+	private final boolean catchIllegalFormatExceptions;
+	private final boolean userExtensions;
+	private final boolean useStdIn;
+
+	CompiledScript(AwkTuples tuples, AwkSettings settings) {
+		this.tuples = tuples;
+		this.variables = Collections.unmodifiableMap(new HashMap<String, Object>(settings.getVariables()));
+		this.nameValueOrFileNames = Collections.unmodifiableList(new ArrayList<String>(settings.getNameValueOrFileNames()));
+		this.fieldSeparator = settings.getFieldSeparator();
+		this.additionalFunctions = settings.isAdditionalFunctions();
+		this.additionalTypeFunctions = settings.isAdditionalTypeFunctions();
+		this.useSortedArrayKeys = settings.isUseSortedArrayKeys();
+		this.catchIllegalFormatExceptions = settings.isCatchIllegalFormatExceptions();
+		this.userExtensions = settings.isUserExtensions();
+		this.useStdIn = settings.isUseStdIn();
+	}
+
+	/**
+	 * @return The intermediate code of this script.
+	 */
+	AwkTuples getTuples() {
+		return tuples;
+	}
+
+	/**
+	 * Creates a new set of settings, initialized with the runtime
+	 * relevant values given when this script was compiled.
+	 * The returned object is owned by the caller,
+	 * and may be adjusted before passing it to {@link #execute(AwkSettings)}.
+	 *
+	 * @return Fresh settings for a single execution of this script.
+	 */
+	public AwkSettings createSettings() {
+		AwkSettings settings = new AwkSettings();
+		settings.setVariables(new HashMap<String, Object>(variables));
+		settings.setNameValueOrFileNames(new ArrayList<String>(nameValueOrFileNames));
+		settings.setFieldSeparator(fieldSeparator);
+		settings.setAdditionalFunctions(additionalFunctions);
+		settings.setAdditionalTypeFunctions(additionalTypeFunctions);
+		settings.setUseSortedArrayKeys(useSortedArrayKeys);
+		settings.setCatchIllegalFormatExceptions(catchIllegalFormatExceptions);
+		settings.setUserExtensions(userExtensions);
+		settings.setUseStdIn(useStdIn);
+		return settings;
+	}
+
+	/**
+	 * Executes this script once.
+	 *
+	 * @param input Where to read input from,
+	 *   if no file names are given as operands.
+	 * @param output Where <code>print</code> and <code>printf</code>
+	 *   write to; it is flushed, but not closed, when the script ends.
+	 * @param runVariables Variable assignments applied prior to execution,
+	 *   in addition to (and overriding) the ones given at compile time;
+	 *   may be <code>null</code>.
+	 *
+	 * @return The exit code of the script.
+	 *
+	 * @throws IOException upon an IO error.
+	 */
+	public int run(Reader input, Writer output, Map<String, Object> runVariables)
+			throws IOException
+	{
+		AwkSettings settings = createSettings();
+		settings.setInput(input);
+		settings.setOutputStream(new AppendablePrintStream(output));
+		if (runVariables != null) {
+			settings.getVariables().putAll(runVariables);
+		}
+		return execute(settings);
+	}
+
+	/**
+	 * Executes this script once, using the supplied settings.
+	 * Settings which concern parsing or compilation are ignored.
+	 *
+	 * @param settings The input, output, variables and operands
+	 *   to use for this execution; usually obtained from
+	 *   {@link #createSettings()}. These must not be shared
+	 *   with concurrent executions.
+	 *
+	 * @return The exit code of the script.
+	 *
+	 * @throws IOException upon an IO error.
+	 */
+	public int execute(AwkSettings settings)
+			throws IOException
+	{
+		AVM avm;
+		if (settings.isUserExtensions()) {
+			// extensions keep per-execution state
+			Map<String, JawkExtension> extensions = Awk.getJawkExtensions();
+			avm = new AVM(settings, extensions);
+		} else {
+			avm = pool.acquire(settings);
+		}
+		boolean reusable = false;
+		try {
+			int exitCode;
+			try {
+				avm.interpret(tuples);
+				exitCode = ExitException.EXIT_CODE_OK;
+			} catch (ExitException ee) {
+				exitCode = ee.getCode();
+			}
+			reusable = !settings.isUserExtensions();
+			return exitCode;
+		} finally {
+			avm.waitForIO();
+			Awk.finishOutput(settings);
+			if (reusable) {
+				pool.release(avm);
+			}
+		}
+	}
+}
@@ -5,8 +5,7 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import org.jawk.util.AwkParameters;
 import org.jawk.util.AwkSettings;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.jawk.util.LazyLogger;
 
 /**
  * Entry point into the parsing, analysis, and execution/compilation
@@ -16,7 +15,7 @@ import org.slf4j.LoggerFactory;
  */
 public class Main {
 
-	private static final Logger LOG = LoggerFactory.getLogger(Main.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(Main.class);
 
 	/**
 	 * Prohibit the instantiation of this class, other than the
@@ -37,10 +36,11 @@ public class Main {
 	public Main(String[] args, InputStream is, PrintStream os, PrintStream es)
 			throws Exception
 	{
-		System.setIn(is);
-		System.setOut(os);
-		System.setErr(es);
-		invoke(args);
+		AwkSettings settings = parseSettings(args);
+		settings.setInput(is);
+		settings.setOutputStream(os);
+		settings.setErrorStream(es);
+		new Awk().invoke(settings);
 	}
 
 	/**
@@ -107,12 +107,16 @@ public class Main {
 	private static void invoke(String[] args)
 			throws IOException, ClassNotFoundException, ExitException
 	{
-		AwkParameters parameters = new AwkParameters(Main.class, null); // null = NO extension description ==> require AWK script
-		AwkSettings settings = parameters.parseCommandLineArguments(args);
+		AwkSettings settings = parseSettings(args);
 		Awk awk = new Awk();
 		awk.invoke(settings);
 	}
 
+	private static AwkSettings parseSettings(String[] args) {
+		AwkParameters parameters = new AwkParameters(Main.class, null); // null = NO extension description ==> require AWK script
+		return parameters.parseCommandLineArguments(args);
+	}
+
 	private static boolean isWindows() {
 		return (System.getProperty("os.name").indexOf("Windows") >= 0);
 	}
@@ -1,6 +1,5 @@
 package org.jawk.backend;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringReader;
@@ -9,6 +8,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -31,17 +31,19 @@ import org.jawk.jrt.CharacterTokenizer;
 import org.jawk.jrt.JRT;
 import org.jawk.jrt.KeyList;
 import org.jawk.jrt.KeyListImpl;
+import org.jawk.jrt.LiteralMatcher;
 import org.jawk.jrt.PatternPair;
+import org.jawk.jrt.PrintBuffer;
 import org.jawk.jrt.RegexTokenizer;
+import org.jawk.jrt.RulePrefilter;
+import org.jawk.jrt.RuntimeMetrics;
 import org.jawk.jrt.SingleCharacterTokenizer;
 import org.jawk.jrt.VariableManager;
 import org.jawk.util.ArrayStackImpl;
 import org.jawk.util.AwkSettings;
-import org.jawk.util.LinkedListStackImpl;
+import org.jawk.util.LazyLogger;
 import org.jawk.util.MyStack;
 import org.jawk.util.ScriptSource;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * The Jawk interpreter.
@@ -73,7 +75,7 @@ import org.slf4j.LoggerFactory;
  */
 public class AVM implements AwkInterpreter, VariableManager {
 
-	private static final Logger LOG = LoggerFactory.getLogger(AVM.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(AVM.class);
 	private static final boolean IS_WINDOWS = (System.getProperty("os.name").indexOf("Windows") >= 0);
 
 	private RuntimeStack runtime_stack = new RuntimeStack();
@@ -89,7 +91,15 @@ public class AVM implements AwkInterpreter, VariableManager {
 	private String initial_fs_value;
 	private boolean trap_illegal_format_exceptions;
 	private JRT jrt;
+	private RuntimeMetrics metrics;
 	private Map<String, JawkExtension> extensions;
+	/**
+	 * The extensions used by the interpreted scripts, started until
+	 * {@link #waitForIO()}; all others are never initialized.
+	 */
+	private final Set<JawkExtension> started_extensions = new HashSet<JawkExtension>();
+	/** reused for all block operations of extensions */
+	private final BlockManager block_manager = new BlockManager();
 
 	// stack methods
 	//private Object pop() { return operand_stack.removeFirst(); }
@@ -97,7 +107,39 @@ public class AVM implements AwkInterpreter, VariableManager {
 	private Object pop() { return operand_stack.pop(); }
 	private void push(Object o) { operand_stack.push(o); }
 
-	private final AwkSettings settings;
+	private AwkSettings settings;
+
+	/**
+	 * Where <code>print</code> and <code>printf</code>
+	 * without redirection write to.
+	 */
+	private PrintStream output;
+
+	/**
+	 * Where the standard error of commands is relayed to.
+	 */
+	private PrintStream error;
+
+	/**
+	 * Compiled regular expressions, by their string representation.
+	 * Kept across executions, as patterns are immutable.
+	 */
+	private final Map<String, Pattern> regexps = new HashMap<String, Pattern>();
+	/**
+	 * Range pattern states, by tuple index.
+	 * Cleared upon reset, as range patterns are stateful.
+	 */
+	private final Map<Integer, PatternPair> pattern_pairs = new HashMap<Integer, PatternPair>();
+	/** for the regexps of rule conditions of the last interpreted tuples */
+	private RulePrefilter rule_prefilter = null;
+	private AwkTuples prefiltered_tuples = null;
+
+	/**
+	 * ENVIRON as populated by a previous execution,
+	 * reused as long as it was not modified.
+	 */
+	private AssocArray environ_cache = null;
+	private int environ_cache_modification_count;
 
 	/**
 	 * Construct the interpreter.
@@ -106,14 +148,18 @@ public class AVM implements AwkInterpreter, VariableManager {
 	 * outside of the framework which is used by Jawk.
 	 * </p>
 	 */
+	@SuppressWarnings("UseOfSystemOutOrSystemErr")
 	public AVM() {
 		settings = null;
+		output = System.out;
+		error = System.err;
 		arguments = new ArrayList<String>();
 		sorted_array_keys = false;
 		initial_variables = new HashMap<String, Object>();
 		initial_fs_value = null;
 		trap_illegal_format_exceptions = false;
 		jrt = new JRT(this);	// this = VariableManager
+		initMetrics();
 		this.extensions = Collections.emptyMap();
 	}
 
@@ -128,17 +174,130 @@ public class AVM implements AwkInterpreter, VariableManager {
 		if (parameters == null) {
 			throw new IllegalArgumentException("AwkSettings can not be null");
 		}
+		applySettings(parameters);
+		jrt = new JRT(this);	// this = VariableManager
+		jrt.setOutputStream(output);
+		jrt.setErrorStream(error);
+		jrt.setByteMode(settings.isByteMode());
+		initMetrics();
+		this.extensions = extensions;
+	}
+
+	private void applySettings(AwkSettings parameters) {
+		if (parameters.isUseSortedArrayKeys() != sorted_array_keys) {
+			// the cached ENVIRON uses the wrong map type
+			environ_cache = null;
+		}
 		this.settings = parameters;
+		output = parameters.getOutputStream();
+		error = parameters.getErrorStream();
 		arguments = parameters.getNameValueOrFileNames();
 		sorted_array_keys = parameters.isUseSortedArrayKeys();
 		initial_variables = parameters.getVariables();
 		initial_fs_value = parameters.getFieldSeparator();
 		trap_illegal_format_exceptions = parameters.isCatchIllegalFormatExceptions();
-		jrt = new JRT(this);	// this = VariableManager
-		this.extensions = extensions;
-		for (JawkExtension ext : extensions.values()) {
-			ext.init(this, jrt, settings);	// this = VariableManager
+	}
+
+	/**
+	 * Prepare this interpreter for another execution,
+	 * possibly of different tuples, with new settings.
+	 * <p>
+	 * Rather than allocating a new interpreter and runtime,
+	 * the existing stacks, global variable frame, regular expression
+	 * cache and IO containers are cleared and reused.
+	 * An unmodified ENVIRON array of the previous execution
+	 * is reused instead of copying the process environment again.
+	 * All files and processes left open by the previous execution
+	 * are closed, and extensions are stopped, to be initialized
+	 * and started again if the next execution uses them.
+	 * </p>
+	 *
+	 * @param parameters The parameters affecting the behavior of the
+	 *	next execution.
+	 */
+	public void reset(AwkSettings parameters) {
+		if (parameters == null) {
+			throw new IllegalArgumentException("AwkSettings can not be null");
 		}
+		jrt.reset();
+		runtime_stack.reset();
+		operand_stack.clear();
+		pattern_pairs.clear();
+		applySettings(parameters);
+		jrt.setOutputStream(output);
+		jrt.setErrorStream(error);
+		jrt.setByteMode(settings.isByteMode());
+		random_number_generator = null;
+		oldseed = 0;
+		exit_address = null;
+		within_end_blocks = false;
+		stopExtensions();
+	}
+
+	/**
+	 * Discard the state of the last execution:
+	 * its variables, its input, and its settings along with
+	 * the streams they refer to, so that an idle interpreter
+	 * does not keep any of them reachable.
+	 * The interpreter has to be {@link #reset(AwkSettings) reset}
+	 * before its next execution.
+	 */
+	@SuppressWarnings("UseOfSystemOutOrSystemErr")
+	public void clear() {
+		jrt.reset();
+		runtime_stack.reset();
+		operand_stack.clear();
+		pattern_pairs.clear();
+		stopExtensions();
+		settings = null;
+		output = System.out;
+		error = System.err;
+		arguments = new ArrayList<String>();
+		initial_variables = new HashMap<String, Object>();
+		initial_fs_value = null;
+		jrt.setOutputStream(output);
+		jrt.setErrorStream(error);
+	}
+
+	private void initMetrics() {
+		metrics = jrt.getMetrics();
+		metrics.setStateSource(new RuntimeMetrics.StateSource() {
+			@Override
+			public int getOperandStackDepth() {
+				return operand_stack.size();
+			}
+
+			@Override
+			public Map<String, Integer> getAssocArraySizes() {
+				Map<String, Integer> sizes = new HashMap<String, Integer>();
+				Object[] globals = runtime_stack.getNumGlobals();
+				if (globals == null || global_variable_offsets == null) {
+					return sizes;
+				}
+				for (Map.Entry<String, Integer> entry : global_variable_offsets.entrySet()) {
+					int offset = entry.getValue();
+					if (offset < globals.length && globals[offset] instanceof AssocArray) {
+						sizes.put(entry.getKey(), ((AssocArray) globals[offset]).size());
+					}
+				}
+				return sizes;
+			}
+		});
+	}
+
+	/**
+	 * Retrieve the counters describing the work performed
+	 * by this interpreter.
+	 *
+	 * @return The metrics of this interpreter.
+	 */
+	public RuntimeMetrics getMetrics() {
+		return metrics;
+	}
+
+	private AssocArray newAssocArray() {
+		metrics.assocArrayAllocated();
+		return new AssocArray(sorted_array_keys);
 	}
 
 	private int nf_offset = NULL_OFFSET;
@@ -249,19 +408,22 @@ public class AVM implements AwkInterpreter, VariableManager {
 	 * @return The return code (the value passed into the exit call).
 	 */
 	@Override
-	@SuppressWarnings("UseOfSystemOutOrSystemErr")
 	public void interpret(AwkTuples tuples)
 			throws ExitException
 	{
-		Map<String, Pattern> regexps = new HashMap<String, Pattern>();
-		Map<Integer, PatternPair> pattern_pairs = new HashMap<Integer, PatternPair>();
-
 		global_variable_offsets = tuples.getGlobalVariableOffsetMap();
 		global_variable_aarrays = tuples.getGlobalVariableAarrayMap();
 		function_names = tuples.getFunctionNameSet();
+		if (tuples != prefiltered_tuples) {
+			rule_prefilter = RulePrefilter.create(tuples.getRuleRegexps());
+			prefiltered_tuples = tuples;
+		}
+		jrt.setRulePrefilter(rule_prefilter);
+		startExtensions(tuples.getExtensionKeywords());
 
 		PositionForInterpretation position = (PositionForInterpretation) tuples.top();
 
+		metrics.registerMBean();
 		try {
 			while (!position.isEOF()) {
 				//System_out.println("--> "+position);
@@ -274,7 +436,7 @@ public class AVM implements AwkInterpreter, VariableManager {
 						// stack[1] = item 2
 						// etc.
 						int num_args = position.intArg(0);
-						printTo(System.out, num_args);
+						printTo(output, num_args);
 						position.next();
 						break;
 					}
@@ -288,13 +450,11 @@ public class AVM implements AwkInterpreter, VariableManager {
 						int num_args = position.intArg(0);
 						boolean append = position.boolArg(1);
 						String key = JRT.toAwkString(pop(), getCONVFMT().toString());
-						PrintStream ps = jrt.getOutputFiles().get(key);
-						if (ps == null) {
-							try {
-								jrt.getOutputFiles().put(key, ps = new PrintStream(new FileOutputStream(key, append), true));	// true = autoflush
-							} catch (IOException ioe) {
-								throw new AwkRuntimeException(position.lineNumber(), "Cannot open " + key + " for writing: " + ioe);
-							}
+						PrintStream ps;
+						try {
+							ps = jrt.getOutputFiles().get(key, append);
+						} catch (IOException ioe) {
+							throw new AwkRuntimeException(position.lineNumber(), "Cannot open " + key + " for writing: " + ioe);
 						}
 						printTo(ps, num_args);
 						position.next();
@@ -319,7 +479,7 @@ public class AVM implements AwkInterpreter, VariableManager {
 						// stack[1] = item 1
 						// etc.
 						int num_args = position.intArg(0);
-						printfTo(System.out, num_args);
+						printfTo(output, num_args);
 						position.next();
 						break;
 					}
@@ -333,13 +493,11 @@ public class AVM implements AwkInterpreter, VariableManager {
 						int num_args = position.intArg(0);
 						boolean append = position.boolArg(1);
 						String key = JRT.toAwkString(pop(), getCONVFMT().toString());
-						PrintStream ps = jrt.getOutputFiles().get(key);
-						if (ps == null) {
-							try {
-								jrt.getOutputFiles().put(key, ps = new PrintStream(new FileOutputStream(key, append), true));	// true = autoflush
-							} catch (IOException ioe) {
-								throw new AwkRuntimeException(position.lineNumber(), "Cannot open " + key + " for writing: " + ioe);
-							}
+						PrintStream ps;
+						try {
+							ps = jrt.getOutputFiles().get(key, append);
+						} catch (IOException ioe) {
+							throw new AwkRuntimeException(position.lineNumber(), "Cannot open " + key + " for writing: " + ioe);
 						}
 						printfTo(ps, num_args);
 						position.next();
@@ -507,6 +665,14 @@ public class AVM implements AwkInterpreter, VariableManager {
 						position.next();
 						break;
 					}
+					case AwkTuples._POP_TO_VARIABLE_: {
+						// arg[0] = offset
+						// arg[1] = is_global
+						// stack[0] = value
+						runtime_stack.setVariable(position.intArg(0), pop(), position.boolArg(1));
+						position.next();
+						break;
+					}
 					case AwkTuples._ASSIGN_ARRAY_: {
 						// arg[0] = offset
 						// arg[1] = is_global
@@ -548,7 +714,7 @@ public class AVM implements AwkInterpreter, VariableManager {
 						// stack[1] = array index
 						Object o1 = runtime_stack.getVariable(offset, is_global);	// map
 						if (o1 == null) {
-							runtime_stack.setVariable(offset, o1 = new AssocArray(sorted_array_keys), is_global);
+							runtime_stack.setVariable(offset, o1 = newAssocArray(), is_global);
 						} else {
 							assert o1 instanceof AssocArray;
 						}
@@ -741,7 +907,7 @@ public class AVM implements AwkInterpreter, VariableManager {
 						boolean is_global = position.boolArg(1);
 						Object o1 = runtime_stack.getVariable(position.intArg(0), is_global);
 						if (o1 == null || (o1 instanceof String) && o1.equals(BLANK)) {
-							runtime_stack.setVariable(position.intArg(0), o1 = new AssocArray(sorted_array_keys), is_global);
+							runtime_stack.setVariable(position.intArg(0), o1 = newAssocArray(), is_global);
 						}
 						AssocArray aa = (AssocArray) o1;
 						Object key = pop();
@@ -763,7 +929,7 @@ public class AVM implements AwkInterpreter, VariableManager {
 						boolean is_global = position.boolArg(1);
 						Object o1 = runtime_stack.getVariable(position.intArg(0), is_global);
 						if (o1 == null || (o1 instanceof String) && o1.equals(BLANK)) {
-							runtime_stack.setVariable(position.intArg(0), o1 = new AssocArray(sorted_array_keys), is_global);
+							runtime_stack.setVariable(position.intArg(0), o1 = newAssocArray(), is_global);
 						}
 						AssocArray aa = (AssocArray) o1;
 						Object key = pop();
@@ -812,7 +978,7 @@ public class AVM implements AwkInterpreter, VariableManager {
 						if (o == null) {
 							if (position.boolArg(1)) {
 								// is_array
-								push(runtime_stack.setVariable(position.intArg(0), new AssocArray(sorted_array_keys), is_global));
+								push(runtime_stack.setVariable(position.intArg(0), newAssocArray(), is_global));
 							} else {
 								push(runtime_stack.setVariable(position.intArg(0), BLANK, is_global));
 							}
@@ -942,12 +1108,24 @@ public class AVM implements AwkInterpreter, VariableManager {
 							}
 						}
 
-						Pattern pattern = Pattern.compile(ere, flags);
-						Matcher matcher = pattern.matcher(s);
-						boolean result = matcher.find();
-						if (result) {
-							assign(rstart_offset, matcher.start() + 1, true, position);
-							assign(rlength_offset, matcher.end() - matcher.start(), true, position);
+						String literal = flags == 0 ? LiteralMatcher.toLiteral(ere) : null;
+						int start;
+						int end;
+						if (literal != null) {
+							start = s.indexOf(literal);
+							end = start + literal.length();
+						} else {
+							Matcher matcher = Pattern.compile(ere, flags).matcher(s);
+							if (matcher.find()) {
+								start = matcher.start();
+								end = matcher.end();
+							} else {
+								start = end = -1;
+							}
+						}
+						if (start >= 0) {
+							assign(rstart_offset, start + 1, true, position);
+							assign(rlength_offset, end - start, true, position);
 							pop();
 							// end up with RSTART on the stack
 						} else {
@@ -1140,7 +1318,9 @@ public class AVM implements AwkInterpreter, VariableManager {
 					case AwkTuples._SYSTEM_: {
 						// stack[0] = command string
 						String s = JRT.toAwkString(pop(), getCONVFMT().toString());
-						push(JRT.jrtSystem(s));
+						// the command may read files we wrote to
+						jrt.jrtFlushOutputFiles();
+						push(JRT.jrtSystem(s, output, error));
 						position.next();
 						break;
 					}
@@ -1187,15 +1367,12 @@ public class AVM implements AwkInterpreter, VariableManager {
 						String s = o1.toString();
 						// assume o2 is a regexp
 						if (o2 instanceof Pattern) {
-							Pattern p = (Pattern) o2;
-							Matcher m = p.matcher(s);
-							// m.matches() matches the ENTIRE string
-							// m.find() is more appropriate
-							boolean result = m.find();
+							// like Matcher.find(); matches() would match the ENTIRE string
+							boolean result = jrt.find((Pattern) o2, s);
 							push(result ? 1 : 0);
 						} else {
 							String r = JRT.toAwkString(o2, getCONVFMT().toString());
-							boolean result = Pattern.compile(r).matcher(s).find();
+							boolean result = JRT.containsMatch(s, r);
 							push(result ? 1 : 0);
 						}
 						position.next();
@@ -1427,6 +1604,21 @@ public class AVM implements AwkInterpreter, VariableManager {
 						position.next();
 						break;
 					}
+					case AwkTuples._GETLINE_FILE_TO_VARIABLE_: {
+						// arg[0] = offset
+						// arg[1] = is_global
+						// stack[0] = filename
+						String s = JRT.toAwkString(pop(), getCONVFMT().toString());
+						int offset = position.intArg(0);
+						boolean is_global = position.boolArg(1);
+						if (runtime_stack.getVariable(offset, is_global) instanceof AssocArray) {
+							throw new AwkRuntimeException(position.lineNumber(), "cannot assign anything to an unindexed associative array");
+						}
+						push(jrt.jrtConsumeFileInputForGetline(s));
+						runtime_stack.setVariable(offset, jrt.jrtGetInputString(), is_global);
+						position.next();
+						break;
+					}
 					case AwkTuples._USE_AS_COMMAND_INPUT_: {
 						// stack[0] = command line
 						String s = JRT.toAwkString(pop(), getCONVFMT().toString());
@@ -1552,11 +1744,14 @@ public class AVM implements AwkInterpreter, VariableManager {
 						environ_offset = position.intArg(0);
 						assert environ_offset != NULL_OFFSET;
 						// set the initial variables
-						Map<String, String> env = System.getenv();
-						for (Map.Entry<String, String> var : env.entrySet()) {
-							assignArray(environ_offset, var.getKey(), var.getValue(), true);
-							pop(); // clean up the stack after the assignment
+						// (reusing ENVIRON if still pristine since the previous execution)
+						if (environ_cache == null || environ_cache.getModificationCount() != environ_cache_modification_count) {
+							// populated upon first access only
+							environ_cache = newAssocArray();
+							JRT.assignEnvironmentVariables(environ_cache);
+							environ_cache_modification_count = environ_cache.getModificationCount();
 						}
+						runtime_stack.setVariable(environ_offset, environ_cache, true);
 						position.next();
 						break;
 					}
@@ -1617,6 +1812,7 @@ public class AVM implements AwkInterpreter, VariableManager {
 						int num_actual_params = position.intArg(3);
 						assert num_formal_params >= num_actual_params;
 						runtime_stack.pushFrame(num_formal_params, position.current());
+						metrics.functionCalled();
 						for (int i = 0; i < num_actual_params; i++) {
 							runtime_stack.setVariable(i, pop(), false);	// false = local
 						}
@@ -1646,7 +1842,8 @@ public class AVM implements AwkInterpreter, VariableManager {
 					}
 					case AwkTuples._SET_NUM_GLOBALS_: {
 						// arg[0] = # of globals
-						assert position.intArg(0) == global_variable_offsets.size();
+						// hidden globals (see AwkParser) have no name mapping
+						assert position.intArg(0) >= global_variable_offsets.size();
 						runtime_stack.setNumGlobals(position.intArg(0));
 
 						// now that we have the global variable size,
@@ -1765,13 +1962,33 @@ public class AVM implements AwkInterpreter, VariableManager {
 						String key = JRT.toAwkString(position.arg(0), getCONVFMT().toString());
 						Pattern pattern = regexps.get(key);
 						if (pattern == null) {
+							metrics.regexCacheMiss();
 							regexps.put(key, pattern = Pattern.compile(key));
+						} else {
+							metrics.regexCacheHit();
 						}
 						push(pattern);
 						position.next();
 						break;
 					}
+					case AwkTuples._RULE_REGEXP_: {
+						// arg[0] = string representation of regexp
+						// arg[1] = slot of the regexp in the rule prefilter
+						String key = JRT.toAwkString(position.arg(0), getCONVFMT().toString());
+						Pattern pattern = regexps.get(key);
+						if (pattern == null) {
+							metrics.regexCacheMiss();
+							regexps.put(key, pattern = Pattern.compile(key));
+						} else {
+							metrics.regexCacheHit();
+						}
+						push(jrt.matchesRule(pattern, position.intArg(1)) ? ONE : ZERO);
+						position.next();
+						break;
+					}
 					case AwkTuples._REGEXP_PAIR_: {
+						// arg[0] = rule prefilter slot of the 1st regexp, or -1
+						// arg[1] = rule prefilter slot of the 2nd regexp, or -1
 						// stack[0] = 1st regexp in pair
 						// stack[1] = 2nd regexp in pair
 						PatternPair pp = pattern_pairs.get(position.current());
@@ -1779,7 +1996,8 @@ public class AVM implements AwkInterpreter, VariableManager {
 							String convfmt = getCONVFMT().toString();
 							String s1 = JRT.toAwkString(pop(), convfmt);
 							String s2 = JRT.toAwkString(pop(), convfmt);
-							pattern_pairs.put(position.current(), pp = new PatternPair(s1, s2));
+							pp = new PatternPair(s1, s2, position.intArg(0), position.intArg(1));
+							pattern_pairs.put(position.current(), pp);
 						} else {
 							pop();
 							pop();
@@ -1888,7 +2106,7 @@ public class AVM implements AwkInterpreter, VariableManager {
 						// (convert retval into the return value
 						// from the block operation ...)
 						if (is_initial && retval != null && retval instanceof BlockObject) {
-							retval = new BlockManager().block((BlockObject) retval);
+							retval = block_manager.block((BlockObject) retval);
 						}
 						// (... and proceed)
 
@@ -1943,6 +2161,8 @@ public class AVM implements AwkInterpreter, VariableManager {
 			}
 			throw ae;
 		} finally {
+			metrics.unregisterMBean();
+			LOG.debug("runtime metrics: {}", metrics);
 //			assert operand_stack.size() == 0 : "operand stack is NOT empty upon script termination. operand_stack (size="+operand_stack.size()+") = "+operand_stack;
 //			if (operand_stack.size() != 0) {
 //				throw new Error("operand stack is NOT empty upon script termination. operand_stack (size=" + operand_stack.size() + ") = " + operand_stack);
@@ -1952,6 +2172,30 @@ public class AVM implements AwkInterpreter, VariableManager {
 
 	public void waitForIO() {
 		jrt.jrtCloseAll();
+		stopExtensions();
+	}
+
+	/**
+	 * Initializes and starts the extensions providing the given keywords,
+	 * which the parser found in the script.
+	 * Extensions the script does not use are left untouched.
+	 */
+	private void startExtensions(Set<String> extension_keywords) {
+		for (String keyword : extension_keywords) {
+			JawkExtension extension = extensions.get(keyword);
+			if (extension != null && !started_extensions.contains(extension)) {
+				extension.init(this, jrt, settings);	// this = VariableManager
+				extension.start();
+				started_extensions.add(extension);
+			}
+		}
+	}
+
+	private void stopExtensions() {
+		for (JawkExtension extension : started_extensions) {
+			extension.stop();
+		}
+		started_extensions.clear();
 	}
 
 	private void avmDump(AssocArray[] aa_array) {
@@ -1978,24 +2222,27 @@ public class AVM implements AwkInterpreter, VariableManager {
 	private void printTo(PrintStream ps, int num_args) {
 		// print items from the top of the stack
 		// # of items
+		// the line is assembled in a reusable buffer,
+		// and written to ps at once
+		PrintBuffer buffer = jrt.jrtBeginPrint(ps);
 		if (num_args == 0) {
 			// display $0
-			ps.println(jrt.jrtGetInputField(0));
+			buffer.append(jrt.jrtGetInputField(0).toString());
 		} else {
-			// cache $OFS to separate fields below
+			// cache $OFS and $OFMT to separate and format fields below
 			// (no need to execute getOFS for each field)
 			String ofs_string = getOFS().toString();
+			String ofmt_string = getOFMT().toString();
 			for (int i = 0; i < num_args; i++) {
-				String s = JRT.toAwkStringForOutput(pop(), getOFMT().toString());
-				ps.print(s);
+				buffer.append(pop(), ofmt_string);
 				// if more elements, display $FS
 				if (i < num_args - 1) {
 					// use $OFS to separate fields
-					ps.print(ofs_string);
+					buffer.append(ofs_string);
 				}
 			}
-			ps.println();
 		}
+		buffer.endLine();
 		// for now, since we are not using Process.waitFor()
 		if (IS_WINDOWS) {
 			ps.flush();
@@ -2004,7 +2251,7 @@ public class AVM implements AwkInterpreter, VariableManager {
 
 	private void printfTo(PrintStream ps, int num_args) {
 		assert num_args > 0;
-		ps.print(sprintfFunction(num_args));
+		jrt.jrtBeginPrint(ps).append(sprintfFunction(num_args)).end();
 		// for now, since we are not using Process.waitFor()
 		if (IS_WINDOWS) {
 			ps.flush();
@@ -2072,7 +2319,7 @@ public class AVM implements AwkInterpreter, VariableManager {
 	private void assignArray(int offset, Object arr_idx, Object rhs, boolean is_global) {
 		Object o1 = runtime_stack.getVariable(offset, is_global);
 		if (o1 == null || (o1 instanceof String) && o1.equals(BLANK)) {
-			runtime_stack.setVariable(offset, o1 = new AssocArray(sorted_array_keys), is_global);
+			runtime_stack.setVariable(offset, o1 = newAssocArray(), is_global);
 		}
 		assert o1 != null;
 		// The only (conceivable) way to contradict
@@ -2267,7 +2514,7 @@ public class AVM implements AwkInterpreter, VariableManager {
 	{
 		boolean retval = jrt.jrtConsumeFileInput(filename);
 		if (retval) {
-			push(jrt.getInputLine());
+			push(jrt.jrtGetInputString());
 		}
 		return retval;
 	}
@@ -2285,7 +2532,7 @@ public class AVM implements AwkInterpreter, VariableManager {
 	private boolean avmConsumeInput(boolean for_getline)
 			throws IOException
 	{
-		boolean retval = jrt.jrtConsumeInput(settings.getInput(), for_getline);
+		boolean retval = jrt.jrtConsumeInput(settings.getInputReader(), for_getline);
 		if (retval && for_getline) {
 			push(jrt.getInputLine());
 		}
@@ -2357,15 +2604,30 @@ public class AVM implements AwkInterpreter, VariableManager {
 	private static class RuntimeStack {
 
 		private Object[] globals = null;
-		private Object[] locals = null;
-		private MyStack<Object[]> locals_stack = new ArrayStackImpl<Object[]>();
-		private MyStack<Integer> return_indexes = new LinkedListStackImpl<Integer>();
+		/** globals of the previous execution, kept for reuse */
+		private Object[] spare_globals = null;
+		/**
+		 * The local variables of all active function calls, one frame after
+		 * the other; the current frame spans <code>frame_base</code>
+		 * (inclusive) to <code>frame_top</code> (exclusive).
+		 * Elements beyond <code>frame_top</code> are <code>null</code>,
+		 * so that a new frame starts out with blank variables.
+		 */
+		private Object[] frames = new Object[64];
+		private int frame_base = 0;
+		private int frame_top = 0;
+		/** number of active function calls */
+		private int depth = 0;
+		/** per active call, the base of the caller's frame */
+		private int[] caller_bases = new int[16];
+		/** per active call, the position index of the call */
+		private int[] return_indexes = new int[16];
 
 		public void dump() {
 			LOG.info("globals = " + Arrays.toString(globals));
-			LOG.info("locals = " + Arrays.toString(locals));
-			LOG.info("locals_stack = " + locals_stack);
-			LOG.info("return_indexes = " + return_indexes);
+			LOG.info("locals = " + Arrays.toString(Arrays.copyOfRange(frames, frame_base, frame_top)));
+			LOG.info("frames = " + Arrays.toString(Arrays.copyOf(frames, frame_top)));
+			LOG.info("return_indexes = " + Arrays.toString(Arrays.copyOf(return_indexes, depth)));
 		}
 
 		Object[] getNumGlobals() {
@@ -2378,7 +2640,12 @@ public class AVM implements AwkInterpreter, VariableManager {
 		void setNumGlobals(int num_globals) {
 			assert num_globals >= 0;
 			assert globals == null;
-			globals = new Object[num_globals];
+			if (spare_globals != null && spare_globals.length == num_globals) {
+				globals = spare_globals;
+			} else {
+				globals = new Object[num_globals];
+			}
+			spare_globals = null;
 			// must accept multiple executions
 			//expandFrameIfNecessary(num_globals);
 		}
@@ -2403,7 +2670,8 @@ public class AVM implements AwkInterpreter, VariableManager {
 			if (is_global) {
 				return globals[offset];
 			} else {
-				return locals[offset];
+				assert offset < frame_top - frame_base;
+				return frames[frame_base + offset];
 			}
 		}
 
@@ -2413,7 +2681,8 @@ public class AVM implements AwkInterpreter, VariableManager {
 			if (is_global) {
 				return globals[offset] = val;
 			} else {
-				return locals[offset] = val;
+				assert offset < frame_top - frame_base;
+				return frames[frame_base + offset] = val;
 			}
 		}
 
@@ -2425,8 +2694,8 @@ public class AVM implements AwkInterpreter, VariableManager {
 				assert globals[offset] == null || globals[offset] instanceof AssocArray;
 				globals[offset] = null;
 			} else {
-				assert locals[offset] == null || locals[offset] instanceof AssocArray;
-				locals[offset] = null;
+				assert frames[frame_base + offset] == null || frames[frame_base + offset] instanceof AssocArray;
+				frames[frame_base + offset] = null;
 			}
 		}
 
@@ -2437,23 +2706,49 @@ public class AVM implements AwkInterpreter, VariableManager {
 		}
 
 		void pushFrame(int num_fields, int position_idx) {
-			locals_stack.push(locals);
-			locals = new Object[num_fields];
-			return_indexes.push(position_idx);
+			if (depth == return_indexes.length) {
+				caller_bases = Arrays.copyOf(caller_bases, depth * 2);
+				return_indexes = Arrays.copyOf(return_indexes, depth * 2);
+			}
+			caller_bases[depth] = frame_base;
+			return_indexes[depth] = position_idx;
+			depth++;
+			if (frame_top + num_fields > frames.length) {
+				frames = Arrays.copyOf(frames, Math.max(frames.length * 2, frame_top + num_fields));
+			}
+			frame_base = frame_top;
+			frame_top += num_fields;
 		}
 
 		/** returns the position index */
 		int popFrame() {
-			locals = locals_stack.pop();
-			return return_indexes.pop();
+			assert depth > 0;
+			// blank the variables for the next frame
+			Arrays.fill(frames, frame_base, frame_top, null);
+			frame_top = frame_base;
+			frame_base = caller_bases[--depth];
+			return return_indexes[depth];
 		}
 
-		void popAllFrames() {
-			int sz = locals_stack.size();
-			while (--sz >= 0) {
-				locals = locals_stack.pop();
-				return_indexes.pop();
+		/**
+		 * Discard all variables and frames,
+		 * keeping the (blanked) globals frame for reuse.
+		 */
+		void reset() {
+			popAllFrames();
+			if (globals != null) {
+				Arrays.fill(globals, null);
+				spare_globals = globals;
+				globals = null;
 			}
+			return_value = null;
+		}
+
+		void popAllFrames() {
+			Arrays.fill(frames, 0, frame_top, null);
+			frame_base = 0;
+			frame_top = 0;
+			depth = 0;
 		}
 		private Object return_value;
 
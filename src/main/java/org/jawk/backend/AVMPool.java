@@ -0,0 +1,81 @@
+package org.jawk.backend;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.jawk.ext.JawkExtension;
+import org.jawk.util.AwkSettings;
+
+/**
+ * A bounded pool of idle interpreters.
+ * <p>
+ * Executing a small script on a small input is dominated by the
+ * construction of the interpreter and its runtime
+ * (stacks, maps, the ENVIRON copy, ...).
+ * Interpreters obtained from this pool are instead
+ * {@link AVM#reset(AwkSettings) reset}, which reuses all of these.
+ * </p>
+ * <p>
+ * The pool is thread-safe. Interpreters themselves are not;
+ * an acquired interpreter must be used by one thread at a time,
+ * and be released (at most once) when it is done.
+ * Only interpreters without extensions are pooled.
+ * </p>
+ */
+public class AVMPool {
+
+	private final BlockingQueue<AVM> idle;
+
+	/**
+	 * @param maxIdle The maximum number of idle interpreters kept;
+	 *   additional released interpreters are discarded.
+	 */
+	public AVMPool(int maxIdle) {
+		if (maxIdle < 1) {
+			throw new IllegalArgumentException("maxIdle must be positive: " + maxIdle);
+		}
+		idle = new ArrayBlockingQueue<AVM>(maxIdle);
+	}
+
+	/**
+	 * Obtain an interpreter ready to execute with the given settings,
+	 * reusing an idle one if available.
+	 *
+	 * @param settings The settings for the next execution.
+	 *
+	 * @return An interpreter, owned by the caller until released.
+	 */
+	public AVM acquire(AwkSettings settings) {
+		AVM avm = idle.poll();
+		if (avm == null) {
+			Map<String, JawkExtension> noExtensions = Collections.emptyMap();
+			avm = new AVM(settings, noExtensions);
+		} else {
+			avm.reset(settings);
+		}
+		return avm;
+	}
+
+	/**
+	 * Return an interpreter to the pool.
+	 * Resources of its last execution should already be released
+	 * (see {@link AVM#waitForIO()}).
+	 * The state of the execution is {@link AVM#clear() cleared},
+	 * so that the pool does not keep its variables,
+	 * nor the streams of its settings, reachable.
+	 *
+	 * @param avm An interpreter obtained via {@link #acquire(AwkSettings)}.
+	 */
+	public void release(AVM avm) {
+		avm.clear();
+		idle.offer(avm);
+	}
+
+	/**
+	 * @return The number of idle interpreters currently pooled.
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+}
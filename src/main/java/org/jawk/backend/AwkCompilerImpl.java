@@ -2,9 +2,9 @@ package org.jawk.backend;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.InputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Reader;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -49,12 +49,12 @@ import org.jawk.jrt.JRT;
 import org.jawk.jrt.KeyList;
 import org.jawk.jrt.KeyListImpl;
 import org.jawk.jrt.PatternPair;
+import org.jawk.jrt.PrintBuffer;
 import org.jawk.jrt.VariableManager;
 import org.jawk.util.AwkParameters;
 import org.jawk.util.AwkSettings;
+import org.jawk.util.LazyLogger;
 import org.jawk.util.ScriptSource;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * The reference implementation of the Jawk compiler.
@@ -268,7 +268,7 @@ import org.slf4j.LoggerFactory;
  */
 public class AwkCompilerImpl implements AwkCompiler {
 
-	private static final Logger LOG = LoggerFactory.getLogger(AwkCompilerImpl.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(AwkCompilerImpl.class);
 
 	// These classes should exist in the jrt package because
 	// the jrt.jar file contains the jrt package.
@@ -668,6 +668,16 @@ public class AwkCompilerImpl implements AwkCompiler {
 		il.append(InstructionConstants.ALOAD_1);
 		JVMTools_storeField(AwkSettings.class, "settings");
 
+		JVMTools_getField(JRT_Class, "input_runtime");
+		JVMTools_getOutputStream();
+		JVMTools_invokeVirtual(Void.TYPE, JRT_Class, "setOutputStream", PrintStream.class);
+
+		JVMTools_getField(JRT_Class, "input_runtime");
+		JVMTools_getField(AwkSettings.class, "settings");
+		il.append(factory.createInvoke(AwkSettings.class.getName(), "isByteMode", Type.BOOLEAN,
+				buildArgs(new Class[0]), INVOKEVIRTUAL));
+		JVMTools_invokeVirtual(Void.TYPE, JRT_Class, "setByteMode", Boolean.TYPE);
+
 		// for EXIT
 		JVMTools_allocateField(Integer.TYPE, "exit_code");
 		il.append(new PUSH(cp, 0));
@@ -1558,37 +1568,10 @@ public class AwkCompilerImpl implements AwkCompiler {
 
 				assert num_args >= 1;
 
-				for (int i = 0; i < num_args; i++) {
-					// stack contains objects
-					//JVMTools_DEBUG_TOS();	// TOS = top-of-stack
-					// ..., {args}, arg
-					JVMTools_toAwkStringForOutput();
-					JVMTools_printString();
-					// ..., {args}
-
-					if (i < num_args - 1) {
-						JVMTools_getField(Object.class, ofs_field);
-						JVMTools_invokeVirtual(String.class, Object.class, "toString");
-
-						// if OFS is "", use " "
-
-						JVMTools_DUP();
-						BranchHandle bh = JVMTools_ifStringNotEquals("");
-
-						JVMTools_POP();
-						JVMTools_pushString(" ");
-
-						InstructionHandle ih = JVMTools_NOP();
-						bh.setTarget(ih);
-
-						// ..., {args}, OFS
-						JVMTools_printString();
-						// ..., {args}
-					}
-				}
-
-				// ...
-				JVMTools_println();
+				// ..., {args}, arg
+				JVMTools_getOutputStream();
+				// ..., {args}, arg, ps
+				JVMTools_beginPrint(num_args);
 				// ...
 				break;
 			}
@@ -1632,33 +1615,8 @@ public class AwkCompilerImpl implements AwkCompiler {
 				}
 
 				// ..., argN, ..., arg2, arg1, ps
-
-				for (int i = 0; i < num_args; i++) {
-					// stack contains objects
-					JVMTools_SWAP();
-					JVMTools_toAwkStringForOutput();
-					JVMTools_SWAP();
-					JVMTools_printStringWithPS();
-					if (i < num_args - 1) {
-						JVMTools_getField(Object.class, ofs_field);
-						JVMTools_invokeVirtual(String.class, Object.class, "toString");
-
-						// if OFS is "", use " "
-
-						JVMTools_DUP();
-						BranchHandle bh = JVMTools_ifStringNotEquals("");
-
-						JVMTools_POP();
-						JVMTools_pushString(" ");
-
-						InstructionHandle ih =
-								JVMTools_SWAP();
-						bh.setTarget(ih);
-						JVMTools_printStringWithPS();
-					}
-				}
-				JVMTools_printlnWithPS();
-				JVMTools_POP();
+				JVMTools_beginPrint(num_args);
+				// ...
 				break;
 			}
 			case AwkTuples._PRINTF_:
@@ -1693,9 +1651,20 @@ public class AwkCompilerImpl implements AwkCompiler {
 				il.append(InstructionFactory.createLoad(getObjectType(String.class), fmt_arg.getIndex()));
 				switch (opcode) {
 					case AwkTuples._PRINTF_:
-						JVMTools_invokeStatic(Void.TYPE, JRT_Class,
-								settings.isCatchIllegalFormatExceptions() ? "printfFunction" : "printfFunctionNoCatch",
+						// ..., array, fmt_arg
+						JVMTools_invokeStatic(String.class, JRT_Class,
+								settings.isCatchIllegalFormatExceptions() ? "sprintfFunction" : "sprintfFunctionNoCatch",
 								Object[].class, String.class);
+						// ..., string
+						// written through the print buffer,
+						// to be encoded like the output of print
+						JVMTools_getField(JRT_Class, "input_runtime");
+						JVMTools_getOutputStream();
+						JVMTools_invokeVirtual(PrintBuffer.class, JRT_Class, "jrtBeginPrint", PrintStream.class);
+						JVMTools_SWAP();
+						// ..., buffer, string
+						JVMTools_invokeVirtual(PrintBuffer.class, PrintBuffer.class, "append", String.class);
+						JVMTools_invokeVirtual(Void.TYPE, PrintBuffer.class, "end");
 						break;
 					case AwkTuples._SPRINTF_:
 						JVMTools_invokeStatic(String.class, JRT_Class,
@@ -1818,6 +1787,12 @@ public class AwkCompilerImpl implements AwkCompiler {
 				}*/
 				break;
 			}
+			case AwkTuples._POP_TO_VARIABLE_: {
+				int offset = position.intArg(0);
+				boolean is_global = position.boolArg(1);
+				JVMTools_setVariable(offset, is_global);
+				break;
+			}
 			case AwkTuples._ASSIGN_ARRAY_: {
 				int offset = position.intArg(0);
 				boolean is_global = position.boolArg(1);
@@ -2276,7 +2251,10 @@ public class AwkCompilerImpl implements AwkCompiler {
 
 				break;
 			}
-			case AwkTuples._REGEXP_: {
+			case AwkTuples._REGEXP_:
+			case AwkTuples._RULE_REGEXP_: {
+				// the rule prefilter is not used by compiled scripts;
+				// the Pattern is matched against $0 by toBoolean()
 				il.append(new PUSH(cp, (String) position.arg(0)));
 				JVMTools_toAwkString();
 				JVMTools_DUP();
@@ -2385,6 +2363,13 @@ public class AwkCompilerImpl implements AwkCompiler {
 				// Pattern
 				// ..., (String) arg1, arg2
 				JVMTools_cast(Pattern.class);
+				JVMTools_SWAP();
+				// ..., (Pattern) arg2, (String) arg1
+				JVMTools_getField(JRT_Class, "input_runtime");
+				JVMTools_DUP_X2();
+				JVMTools_POP();
+				// ..., input_runtime, (Pattern) arg2, (String) arg1
+				JVMTools_invokeVirtual(Boolean.TYPE, JRT_Class, "find", Pattern.class, String.class);
 				BranchHandle bh2 = JVMTools_GOTO();	// goto "push ONE or ZERO object" code
 
 
@@ -2392,14 +2377,11 @@ public class AwkCompilerImpl implements AwkCompiler {
 				// ..., (String) arg1, arg2
 				InstructionHandle ih = JVMTools_toAwkString();
 				bh.setTarget(ih);
-				JVMTools_invokeStatic(Pattern.class, Pattern.class, "compile", String.class);
+				// ..., (String) arg1, (String) arg2
+				JVMTools_invokeStatic(Boolean.TYPE, JRT_Class, "containsMatch", String.class, String.class);
 
-				InstructionHandle ih2 = JVMTools_SWAP();
+				InstructionHandle ih2 = JVMTools_NOP();
 				bh2.setTarget(ih2);
-				// ..., (Pattern) arg2, (String) arg1
-				JVMTools_invokeVirtual(Matcher.class, Pattern.class, "matcher", CharSequence.class);
-				JVMTools_invokeVirtual(Boolean.TYPE, Matcher.class, "find");
-
 				BranchHandle bh3 = JVMTools_IFEQ();
 				il.append(factory.createFieldAccess(classname, "ONE", getObjectType(Integer.class), Constants.GETSTATIC));
 				BranchHandle bh4 = JVMTools_GOTO();
@@ -2505,17 +2487,17 @@ public class AwkCompilerImpl implements AwkCompiler {
 			}
 			case AwkTuples._CONSUME_INPUT_: {
 				JVMTools_getField(JRT_Class, "input_runtime");
-				JVMToold_invokeSettings("getInput", InputStream.class);
+				JVMToold_invokeSettings("getInputReader", Reader.class);
 				il.append(new PUSH(cp, false));
-				JVMTools_invokeVirtual(Boolean.TYPE, JRT_Class, "jrtConsumeInput", InputStream.class, Boolean.TYPE);
+				JVMTools_invokeVirtual(Boolean.TYPE, JRT_Class, "jrtConsumeInput", Reader.class, Boolean.TYPE);
 				JVMTools_IFEQ(position.addressArg());
 				break;
 			}
 			case AwkTuples._GETLINE_INPUT_: {
 				JVMTools_getField(JRT_Class, "input_runtime");
-				JVMToold_invokeSettings("getInput", InputStream.class);
+				JVMToold_invokeSettings("getInputReader", Reader.class);
 				il.append(new PUSH(cp, true));
-				JVMTools_invokeVirtual(Boolean.TYPE, JRT_Class, "jrtConsumeInput", InputStream.class, Boolean.TYPE);
+				JVMTools_invokeVirtual(Boolean.TYPE, JRT_Class, "jrtConsumeInput", Reader.class, Boolean.TYPE);
 				JVMTools_DUP();
 				JVMTools_invokeStatic(Integer.class, Integer.class, "valueOf", Integer.TYPE);
 				JVMTools_SWAP();
@@ -2524,7 +2506,7 @@ public class AwkCompilerImpl implements AwkCompiler {
 				BranchHandle bh = JVMTools_IFLE();
 				// 1
 				JVMTools_getField(JRT_Class, "input_runtime");
-				il.append(factory.createFieldAccess(JRT_Class.getName(), "input_line", getObjectType(String.class), Constants.GETFIELD));
+				JVMTools_invokeVirtual(String.class, JRT_Class, "getInputLine");
 				BranchHandle bh2 = JVMTools_GOTO();
 
 				// 0 or -1
@@ -2573,6 +2555,25 @@ public class AwkCompilerImpl implements AwkCompiler {
 				// NOTE: 2 items on the stack !!!
 				break;
 			}
+			case AwkTuples._GETLINE_FILE_TO_VARIABLE_: {
+				int offset = position.intArg(0);
+				boolean is_global = position.boolArg(1);
+				// ..., filename-as-object-type
+				JVMTools_toAwkString();
+				// ..., filename
+				JVMTools_getField(JRT_Class, "input_runtime");
+				// ..., filename, JRT
+				JVMTools_SWAP();
+				// ..., JRT, filename
+				JVMTools_invokeVirtual(Integer.class, JRT_Class, "jrtConsumeFileInputForGetline", String.class);
+				// ..., retcode
+				JVMTools_getField(JRT_Class, "input_runtime");
+				JVMTools_invokeVirtual(String.class, JRT_Class, "jrtGetInputString");
+				// ..., retcode, input-string
+				JVMTools_setVariable(offset, is_global);
+				// ..., retcode
+				break;
+			}
 			case AwkTuples._CLOSE_: {
 				JVMTools_toAwkString();
 				JVMTools_getField(JRT_Class, "input_runtime");
@@ -2581,8 +2582,12 @@ public class AwkCompilerImpl implements AwkCompiler {
 				break;
 			}
 			case AwkTuples._SYSTEM_: {
+				// the command may read files we wrote to
+				JVMTools_getField(JRT_Class, "input_runtime");
+				JVMTools_invokeVirtual(Void.TYPE, JRT_Class, "jrtFlushOutputFiles");
 				JVMTools_toAwkString();
-				JVMTools_invokeStatic(Integer.class, JRT_Class, "jrtSystem", String.class);
+				JVMTools_getOutputStream();
+				JVMTools_invokeStatic(Integer.class, JRT_Class, "jrtSystem", String.class, PrintStream.class);
 				break;
 			}
 			case AwkTuples._ASSIGN_AS_INPUT_: {
@@ -2595,7 +2600,7 @@ public class AwkCompilerImpl implements AwkCompiler {
 				// ..., text, JRT, text, JRT
 				JVMTools_SWAP();
 				// ..., text, JRT, JRT, text
-				il.append(factory.createFieldAccess(JRT_Class.getName(), "input_line", getObjectType(String.class), Constants.PUTFIELD));
+				JVMTools_invokeVirtual(Void.TYPE, JRT_Class, "setInputLine", String.class);
 				// ..., text, JRT
 				JVMTools_invokeVirtual(Void.TYPE, JRT_Class, "jrtParseFields");
 				// ..., text (as string, see toString() prior to DUP)
@@ -3060,7 +3065,7 @@ public class AwkCompilerImpl implements AwkCompiler {
 
 						// ...
 						JVMTools_print(name + " = ");
-						JVMTools_getStaticField(System.class.getName(), "out", PrintStream.class);
+						JVMTools_getOutputStream();
 						JVMTools_getField(Object.class, "global_" + offset);
 						// if it's a map, get its "map" field
 						// for printing
@@ -3081,7 +3086,7 @@ public class AwkCompilerImpl implements AwkCompiler {
 						// ..., arg
 						JVMTools_cast(AssocArrayClass);
 						il.append(factory.createFieldAccess(AssocArrayClass.getName(), "map", getObjectType(Map.class), Constants.GETFIELD));
-						JVMTools_getStaticField(System.class.getName(), "out", PrintStream.class);
+						JVMTools_getOutputStream();
 						JVMTools_SWAP();
 						JVMTools_invokeVirtual(Void.TYPE, PrintStream.class, "println", Object.class);
 					}
@@ -3163,7 +3168,7 @@ public class AwkCompilerImpl implements AwkCompiler {
 		// ..., text, JRT, text, JRT
 		JVMTools_SWAP();
 		// ..., text, JRT, JRT, text
-		il.append(factory.createFieldAccess(JRT_Class.getName(), "input_line", getObjectType(String.class), Constants.PUTFIELD));
+		JVMTools_invokeVirtual(Void.TYPE, JRT_Class, "setInputLine", String.class);
 		// ..., text, JRT
 		JVMTools_invokeVirtual(Void.TYPE, JRT_Class, "jrtParseFields");
 		// ..., text
@@ -3384,6 +3389,17 @@ public class AwkCompilerImpl implements AwkCompiler {
 		return il.append(factory.createInvoke(orig_class.getName(), method_name, getObjectType(return_type), buildArgs(new Class[] {arg_type, arg_type2, arg_type3}), INVOKEVIRTUAL));
 	}
 
+	/**
+	 * Pushes the output stream of the settings
+	 * (where unredirected print/printf write to).
+	 */
+	private InstructionHandle JVMTools_getOutputStream() {
+		InstructionHandle ih = JVMTools_getField(AwkSettings.class, "settings");
+		il.append(factory.createInvoke(AwkSettings.class.getName(), "getOutputStream", getObjectType(PrintStream.class),
+				buildArgs(new Class[0]), INVOKEVIRTUAL));
+		return ih;
+	}
+
 	private InstructionHandle JVMToold_invokeSettings(String methodName, Class<?> returnType, Class... argumentTypes) {
 
 		JVMTools_getField(AwkSettings.class, "settings");
@@ -3430,21 +3446,51 @@ public class AwkCompilerImpl implements AwkCompiler {
 	}
 
 	private void JVMTools_print(String const_str) {
-		JVMTools_getStaticField("java.lang.System", "out", PrintStream.class);
+		JVMTools_getOutputStream();
 		il.append(new PUSH(cp, const_str));
 		JVMTools_invokeVirtual(Void.TYPE, PrintStream.class, "print", String.class);
 	}
 
-	private void JVMTools_println() {
-		JVMTools_getStaticField("java.lang.System", "out", PrintStream.class);
-		JVMTools_invokeVirtual(Void.TYPE, PrintStream.class, "println");
-	}
+	/**
+	 * Prints the arguments of a print statement,
+	 * through the print buffer of the runtime.
+	 * <p>
+	 * Stack before: ..., argN, ..., arg2, arg1, ps<br/>
+	 * Stack after: ...
+	 * </p>
+	 */
+	private void JVMTools_beginPrint(int num_args) {
+		JVMTools_getField(JRT_Class, "input_runtime");
+		JVMTools_SWAP();
+		JVMTools_invokeVirtual(PrintBuffer.class, JRT_Class, "jrtBeginPrint", PrintStream.class);
+		// ..., argN, ..., arg1, buffer
+		for (int i = 0; i < num_args; i++) {
+			JVMTools_SWAP();
+			// ..., buffer, arg
+			JVMTools_getVariable(ofmt_offset, true, false);	// true = is_global, false = NOT an array
+			JVMTools_invokeVirtual(String.class, Object.class, "toString");
+			JVMTools_invokeVirtual(PrintBuffer.class, PrintBuffer.class, "append", Object.class, String.class);
+			// ..., buffer
+			if (i < num_args - 1) {
+				JVMTools_getField(Object.class, ofs_field);
+				JVMTools_invokeVirtual(String.class, Object.class, "toString");
 
-	private void JVMTools_printlnWithPS() {
-		// ..., ps
-		JVMTools_DUP();
-		JVMTools_invokeVirtual(Void.TYPE, PrintStream.class, "println");
-		// ..., ps
+				// if OFS is "", use " "
+
+				JVMTools_DUP();
+				BranchHandle bh = JVMTools_ifStringNotEquals("");
+
+				JVMTools_POP();
+				JVMTools_pushString(" ");
+
+				InstructionHandle ih = JVMTools_NOP();
+				bh.setTarget(ih);
+
+				// ..., buffer, OFS
+				JVMTools_invokeVirtual(PrintBuffer.class, PrintBuffer.class, "append", String.class);
+			}
+		}
+		JVMTools_invokeVirtual(Void.TYPE, PrintBuffer.class, "endLine");
 	}
 
 	private InstructionHandle JVMTools_getStaticField(String classname, String fieldname, Class fieldtype) {
@@ -3467,22 +3513,6 @@ public class AwkCompilerImpl implements AwkCompiler {
 		il.append(factory.createFieldAccess(classname, fieldname, getObjectType(fieldtype), Constants.PUTFIELD));
 	}
 
-	private InstructionHandle JVMTools_printString() {
-		InstructionHandle ih = JVMTools_getStaticField("java.lang.System", "out", PrintStream.class);
-		JVMTools_SWAP();
-		JVMTools_invokeVirtual(Void.TYPE, PrintStream.class, "print", String.class);
-		return ih;
-	}
-
-	private InstructionHandle JVMTools_printStringWithPS() {
-		// ..., string, ps
-		InstructionHandle ih = JVMTools_DUP_X1();
-		JVMTools_SWAP();
-		JVMTools_invokeVirtual(Void.TYPE, PrintStream.class, "print", String.class);
-		// ..., ps
-		return ih;
-	}
-
 	private void JVMTools_new(String newtype) {
 		il.append(factory.createNew(newtype));
 		JVMTools_DUP();
@@ -3531,13 +3561,6 @@ public class AwkCompilerImpl implements AwkCompiler {
 		return ih;
 	}
 
-	private InstructionHandle JVMTools_toAwkStringForOutput() {
-		InstructionHandle ih = JVMTools_getVariable(ofmt_offset, true, false);	// true = is_global, false = NOT an array
-		JVMTools_invokeVirtual(String.class, Object.class, "toString");
-		JVMTools_invokeStatic(String.class, JRT_Class, "toAwkStringForOutput", Object.class, String.class);
-		return ih;
-	}
-
 	private void JVMTools_toDouble() {
 		JVMTools_invokeStatic(Double.TYPE, JRT_Class, "toDouble", Object.class);
 	}
@@ -26,6 +26,22 @@ public abstract class AbstractExtension implements JawkExtension {
 		this.settings = settings;
 	}
 
+	/**
+	 * Allocates nothing; to be overridden by extensions
+	 * with resources like threads or connections.
+	 */
+	@Override
+	public void start() {
+	}
+
+	/**
+	 * Releases nothing; to be overridden by extensions
+	 * which override {@link #start()}.
+	 */
+	@Override
+	public void stop() {
+	}
+
 	/**
 	 * Convert a Jawk variable to a Jawk string
 	 * based on the value of the CONVFMT variable.
@@ -16,8 +16,7 @@ import org.jawk.jrt.BlockObject;
 import org.jawk.jrt.IllegalAwkArgumentException;
 import org.jawk.jrt.JRT;
 import org.jawk.jrt.VariableManager;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.jawk.util.LazyLogger;
 
 /**
  * Extensions which make developing in Jawk and
@@ -84,6 +83,23 @@ import org.slf4j.LoggerFactory;
  * Similar to the Java equivalent : str = new Date().toString();
  * <li><strong>FileExists</strong> - <code><font size=+1>b = FileExists("/a/b/c")</font></code><br>
  * Returns 0 if the file doesn't exist, 1 otherwise.
+ * <li><strong>LoadRecords</strong> - <code><font size=+1>cnt = LoadRecords(array, "/a/b/c", 2)</font></code><br>
+ * Reads all the records of a file into the associative array,
+ * keyed by the given field (the first one if omitted, 0 for the whole record),
+ * split according to FS: <code>array[$2] = $0</code>.
+ * Unlike a <code>getline</code> loop, it affects neither $0 nor NR.
+ * Returns the number of records loaded, -1 if the file can not be read.
+ * <li><strong>LoadMap</strong> - <code><font size=+1>cnt = LoadMap(map, "/a/b/c", 1, 2)</font></code><br>
+ * Reads a lookup table from the given key and value fields
+ * (the first two if omitted) of the records of a file:
+ * <code>map[$1] = $2</code>, like <code>NR == FNR { map[$1] = $2; next }</code>
+ * but without interpreting a rule per record.
+ * Returns the number of records loaded, -1 if the file can not be read.
+ * <li><strong>Compact</strong> - <code><font size=+1>Compact(map)</font></code><br>
+ * Stores the elements of a (large) associative array in a compact form,
+ * which needs much less memory, like for lookup tables loaded by LoadMap.
+ * The array remains modifiable, but additional elements are stored
+ * in the regular form.
  * <li><strong>NewRef[erence]/Dereference/DeRef/Unreference/UnRef/etc.</strong> -
  * Reference Management Functions.</font></code><br>
  * These are described in detail below.
@@ -173,7 +189,7 @@ public class CoreExtension extends AbstractExtension implements JawkExtension {
 
 	private static CoreExtension instance = null; // FIXME Ugly form of singleton implementation (which is ugly by itsself)
 	private static final Object INSTANCE_LOCK = new Object();
-	private static final Logger LOG = LoggerFactory.getLogger(CoreExtension.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(CoreExtension.class);
 
 	private int refMapIdx = 0;
 	private Map<String, Object> referenceMap = new HashMap<String, Object>();
@@ -181,6 +197,8 @@ public class CoreExtension extends AbstractExtension implements JawkExtension {
 	private static final Integer ZERO = Integer.valueOf(0);
 	private static final Integer ONE = Integer.valueOf(1);
 	private int waitInt = 0;
+	/** when the current timeout expires, for polling */
+	private long timeoutDeadline = 0;
 
 	// single threaded, so one Date object (unsynchronized) will do
 	private final Date dateObj = new Date();
@@ -201,6 +219,21 @@ public class CoreExtension extends AbstractExtension implements JawkExtension {
 				timeoutBlocker.wait(waitInt);
 			}
 		}
+
+		@Override
+		public boolean supportsPolling() {
+			return true;
+		}
+
+		@Override
+		public boolean poll() {
+			return System.currentTimeMillis() >= timeoutDeadline;
+		}
+
+		@Override
+		public long getWakeupTime() {
+			return timeoutDeadline;
+		}
 	};
 
 	public CoreExtension() {
@@ -247,6 +280,9 @@ public class CoreExtension extends AbstractExtension implements JawkExtension {
 
 				"Date",		// i.e. str = Date()
 				"FileExists",	// i.e. b = FileExists("/a/b/c")
+				"LoadRecords",	// i.e. cnt = LoadRecords(array, "/a/b/c", 2)
+				"LoadMap",	// i.e. cnt = LoadMap(map, "/a/b/c", 1, 2)
+				"Compact",	// i.e. Compact(map)
 				};
 	}
 
@@ -260,9 +296,13 @@ public class CoreExtension extends AbstractExtension implements JawkExtension {
 			// first argument of a *Map() function
 			// must be an associative array
 			return new int[] {0};
-		} else if (extensionKeyword.equals("Array")) {
-			// first argument of Array must be
-			// an associative array
+		} else if (extensionKeyword.equals("Array")
+				|| extensionKeyword.equals("LoadRecords")
+				|| extensionKeyword.equals("LoadMap")
+				|| extensionKeyword.equals("Compact"))
+		{
+			// first argument of Array, Load* and Compact
+			// must be an associative array
 			return new int[] {0};
 		} else if (extensionKeyword.equals("NewReference")
 				|| extensionKeyword.equals("NewRef"))
@@ -356,6 +396,25 @@ public class CoreExtension extends AbstractExtension implements JawkExtension {
 		} else if (keyword.equals("FileExists")) {
 			checkNumArgs(args, 1);
 			return fileExists(toAwkString(args[0]));
+		} else if (keyword.equals("LoadRecords")) {
+			if (args.length == 2) {
+				return loadRecords((AssocArray) args[0], toAwkString(args[1]), 1);
+			} else if (args.length == 3) {
+				return loadRecords((AssocArray) args[0], toAwkString(args[1]), (int) JRT.toDouble(args[2]));
+			} else {
+				throw new IllegalAwkArgumentException(keyword + " requires 2 or 3 arguments, not " + args.length);
+			}
+		} else if (keyword.equals("LoadMap")) {
+			if (args.length == 2) {
+				return loadMap((AssocArray) args[0], toAwkString(args[1]), 1, 2);
+			} else if (args.length == 4) {
+				return loadMap((AssocArray) args[0], toAwkString(args[1]), (int) JRT.toDouble(args[2]), (int) JRT.toDouble(args[3]));
+			} else {
+				throw new IllegalAwkArgumentException(keyword + " requires 2 or 4 arguments, not " + args.length);
+			}
+		} else if (keyword.equals("Compact")) {
+			checkNumArgs(args, 1);
+			((AssocArray) args[0]).compact();
 		} else {
 			throw new NotImplementedError(keyword);
 		}
@@ -712,6 +771,7 @@ public class CoreExtension extends AbstractExtension implements JawkExtension {
 			throw new IllegalAwkArgumentException("Timeout requires a positive # argument, not " + ms + ".");
 		}
 		waitInt = ms;
+		timeoutDeadline = System.currentTimeMillis() + ms;
 		return timeoutBlocker;
 	}
 
@@ -742,4 +802,12 @@ public class CoreExtension extends AbstractExtension implements JawkExtension {
 			return ZERO;
 		}
 	}
+
+	private int loadRecords(AssocArray array, String filename, int keyfield) {
+		return getJrt().jrtLoadRecords(filename, array, keyfield);
+	}
+
+	private int loadMap(AssocArray map, String filename, int keyfield, int valuefield) {
+		return getJrt().jrtLoadMap(filename, map, keyfield, valuefield);
+	}
 }
@@ -52,10 +52,34 @@ public interface JawkExtension {
 	 * and the Variable Manager once.
 	 * <p>
 	 * It is guaranteed init() is called before invoke() is called.
+	 * Extensions are only initialized for executions of scripts
+	 * in which the parser found at least one of their keywords.
 	 * </p>
 	 */
 	void init(VariableManager vm, JRT jrt, final AwkSettings settings);
 
+	/**
+	 * Allocates the resources of the extension,
+	 * like threads or connections.
+	 * <p>
+	 * It is guaranteed start() is called after init()
+	 * and before invoke() is called. Like init(), it is only called
+	 * for executions of scripts using this extension.
+	 * Calling it on an already started extension has no effect.
+	 * </p>
+	 */
+	void start();
+
+	/**
+	 * Releases the resources allocated by start(),
+	 * once the execution of the script is done.
+	 * <p>
+	 * The extension may be initialized and started again
+	 * for a later execution.
+	 * </p>
+	 */
+	void stop();
+
 	/**
 	 * The name of the extension package.
 	 */
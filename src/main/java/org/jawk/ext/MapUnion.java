@@ -0,0 +1,37 @@
+package org.jawk.ext;
+
+import java.util.AbstractMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A view of two maps as one map.
+ */
+class MapUnion<K, V> extends AbstractMap<K, V> {
+
+	private Map<K, V> m1;
+	private Map<K, V> m2;
+
+	MapUnion(Map<K, V> m1, Map<K, V> m2) {
+		this.m1 = m1;
+		this.m2 = m2;
+	}
+
+	@Override
+	public final Set<Map.Entry<K, V>> entrySet() {
+		// build the entry set
+		Set<Map.Entry<K, V>> entries = new HashSet<Map.Entry<K, V>>();
+
+		Set<Map.Entry<K, V>> s1 = m1.entrySet();
+		Set<Map.Entry<K, V>> s2 = m2.entrySet();
+		for (Map.Entry<K, V> me : s1) {
+			entries.add(me);
+		}
+		for (Map.Entry<K, V> me : s2) {
+			entries.add(me);
+		}
+
+		return entries;
+	}
+}
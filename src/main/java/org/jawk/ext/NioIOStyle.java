@@ -0,0 +1,956 @@
+package org.jawk.ext;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.jawk.jrt.AssocArray;
+import org.jawk.jrt.BlockHandleValidator;
+import org.jawk.jrt.BlockObject;
+import org.jawk.jrt.Blockable;
+import org.jawk.jrt.BulkBlockObject;
+import org.jawk.jrt.IllegalAwkArgumentException;
+import org.jawk.jrt.VariableManager;
+import org.jawk.util.LazyLogger;
+
+/**
+ * Socket handling on top of non-blocking channels,
+ * all of which are served by a single selector thread.
+ * <p>
+ * Unlike {@link ThreadedIOStyle}, which uses one thread per
+ * server socket and per connection, the number of threads
+ * does not grow with the number of connections.
+ * The selector thread accepts pending connections and reads
+ * available input into per-connection buffers, which are
+ * then consumed by <code>SocketAccept</code> and <code>SocketRead</code>.
+ * Reading from a connection is suspended while its buffer is full,
+ * and resumed once the script consumed its input.
+ * Output is written directly if the channel accepts it,
+ * and by the selector thread otherwise.
+ * </p>
+ * <p>
+ * The semantics of the AWK functions are the same as those of
+ * {@link ThreadedIOStyle}, except that <code>SocketRead</code>
+ * on a (non-C) Socket returns all input buffered at that time,
+ * and that <code>SocketCloseBlock</code> only reports a remotely
+ * closed connection after all its input has been read.
+ * </p>
+ */
+class NioIOStyle implements IOStyle {
+
+	private static final LazyLogger LOG = LazyLogger.getLogger(NioIOStyle.class);
+
+	/**
+	 * The amount of buffered input (bytes or characters) per connection,
+	 * beyond which no more input is read until the script consumes some.
+	 */
+	private static final int MAX_PENDING_INPUT = 64 * 1024;
+	private static final int READ_BUFFER_SIZE = 8192;
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private String lastError = null;
+
+	/** handle to server socket */
+	private final Map<String, Server> servers = new HashMap<String, Server>();
+	/** handle to connected socket */
+	private final Map<String, Connection> connections = new HashMap<String, Connection>();
+
+	private final VariableManager vm;
+
+	private final BulkBlockObject acceptBlocker;
+	private final BulkBlockObject inputBlocker;
+	private final BulkBlockObject closeBlocker;
+
+	private int socketIdx = 0;
+	private int ssocketIdx = 0;
+
+	/** created along with the selector thread, upon the first socket */
+	private Selector selector = null;
+	private Thread selectorThread = null;
+	/** registrations and interest changes, executed by the selector thread */
+	private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<Runnable>();
+
+	NioIOStyle(VariableManager vm) {
+		assert vm != null;
+		this.vm = vm;
+		acceptBlocker = new BulkBlockObject("SocketAccept", servers, vm);
+		inputBlocker = new BulkBlockObject("SocketInput", connections, vm);
+		closeBlocker = new BulkBlockObject("SocketClose", new MapUnion<String, Endpoint>(
+				Collections.<String, Endpoint>unmodifiableMap(servers),
+				Collections.<String, Endpoint>unmodifiableMap(connections)), vm);
+	}
+
+	private synchronized void ensureSelector()
+			throws IOException
+	{
+		if (selector == null) {
+			selector = Selector.open();
+			selectorThread = new Thread(new SelectorLoop(), "Jawk socket selector");
+			// must not prevent the JVM from exiting, like the script itself
+			selectorThread.setDaemon(true);
+			selectorThread.start();
+		}
+	}
+
+	/**
+	 * Execute a selector operation on the selector thread,
+	 * where registrations and interest changes never contend
+	 * with a <code>select()</code> in progress.
+	 */
+	private void onSelectorThread(Runnable task) {
+		if (Thread.currentThread() == selectorThread) {
+			task.run();
+		} else {
+			selectorTasks.add(task);
+			selector.wakeup();
+		}
+	}
+
+	private void register(final SelectableChannel channel, final int ops, final Endpoint endpoint) {
+		onSelectorThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					endpoint.key = channel.register(selector, ops, endpoint);
+				} catch (ClosedChannelException cce) {
+					// closed by the script in the meantime
+				}
+			}
+		});
+	}
+
+	@Override
+	public final String createServerSocket(String hostname, int port) {
+		return createServer(hostname, port, false);
+	}
+
+	@Override
+	public final String createCServerSocket(String hostname, int port) {
+		return createServer(hostname, port, true);
+	}
+
+	private String createServer(String hostname, int port, boolean characterMode) {
+		try {
+			ensureSelector();
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			InetSocketAddress address;
+			if (hostname == null) {
+				address = new InetSocketAddress(port);
+			} else {
+				address = new InetSocketAddress(InetAddress.getByName(hostname), port);
+			}
+			// 0 = default backlog
+			channel.socket().bind(address, 0);
+			channel.configureBlocking(false);
+			String handle = createHandle(channel.socket());
+			Server server = new Server(channel, characterMode);
+			servers.put(handle, server);
+			register(channel, SelectionKey.OP_ACCEPT, server);
+			return handle;
+		} catch (IOException ioe) {
+			LOG.error("Failed to create " + (characterMode ? "CServerSocket" : "ServerSocket") + " for " + hostname + ":" + port, ioe);
+			lastError = ioe.toString();
+			return "";
+		}
+	}
+
+	@Override
+	public final String createSocket(String hostname, int port) {
+		return connect(hostname, port, false);
+	}
+
+	@Override
+	public final String createCSocket(String hostname, int port) {
+		return connect(hostname, port, true);
+	}
+
+	private String connect(String hostname, int port, boolean characterMode) {
+		try {
+			ensureSelector();
+			// connect in blocking mode, like ThreadedIOStyle
+			SocketChannel channel = SocketChannel.open(new InetSocketAddress(hostname, port));
+			return addConnection(channel, characterMode);
+		} catch (IOException ioe) {
+			LOG.error("Failed to create " + (characterMode ? "CSocket" : "Socket") + " for " + hostname + ":" + port, ioe);
+			lastError = ioe.toString();
+			return "";
+		}
+	}
+
+	private String addConnection(SocketChannel channel, boolean characterMode)
+			throws IOException
+	{
+		channel.configureBlocking(false);
+		String handle = createHandle(channel.socket());
+		Connection connection = characterMode ? new CharacterConnection(channel) : new ByteConnection(channel);
+		connections.put(handle, connection);
+		register(channel, SelectionKey.OP_READ, connection);
+		return handle;
+	}
+
+	private String createHandle(Socket socket) {
+		return "Socket:" + socket.getInetAddress().toString() + ":" + socket.getPort() + "/" + (++socketIdx);
+	}
+
+	private String createHandle(ServerSocket ssocket) {
+		return "ServerSocket:" + ssocket.getInetAddress().toString() + ":" + ssocket.getLocalPort() + "/" + (++ssocketIdx);
+	}
+
+	//////////////////////////////////////////////////////////////////
+	//////////////////////////////////////////////////////////////////
+	//////////////////////////////////////////////////////////////////
+
+	private final BlockHandleValidator acceptHandleValidator = new BlockHandleValidator() {
+
+		@Override
+		public String isBlockHandleValid(String handle) {
+			Server server = servers.get(handle);
+			if (server == null) {
+				return "Invalid ServerSocket handle.";
+			}
+			if (server.isClosed()) {
+				return "ServerSocket is closed.";
+			} else {
+				return null;	// valid
+			}
+		}
+	};
+
+	private final BlockHandleValidator inputHandleValidator = new BlockHandleValidator() {
+
+		@Override
+		public String isBlockHandleValid(String handle) {
+			Connection connection = connections.get(handle);
+			if (connection == null) {
+				return "Invalid socket handle. (Could have already been closed?)";
+			}
+			if (connection.isClosed()) {
+				return "Socket is closed.";
+			} else {
+				return null;	// valid
+			}
+		}
+	};
+
+	private final BlockHandleValidator closeHandleValidator = new BlockHandleValidator() {
+
+		@Override
+		public String isBlockHandleValid(String handle) {
+			Endpoint endpoint = servers.get(handle);
+			if (endpoint == null) {
+				endpoint = connections.get(handle);
+			}
+			if (endpoint == null) {
+				return "Invalid socket handle. (Could have already been closed?)";
+			}
+			if (endpoint.isClosed()) {
+				return "Socket is already closed.";
+			} else {
+				return null;	// valid
+			}
+		}
+	};
+
+	@Override
+	public final BlockObject socketAcceptBlock(Object[] args) {
+		return acceptBlocker.setHandles(args, vm, acceptHandleValidator);
+	}
+
+	@Override
+	public final BlockObject socketInputBlock(Object[] args) {
+		return inputBlocker.setHandles(args, vm, inputHandleValidator);
+	}
+
+	@Override
+	public final BlockObject socketCloseBlock(Object[] args) {
+		return closeBlocker.setHandles(args, vm, closeHandleValidator);
+	}
+
+	@Override
+	public final String socketAccept(String handle) {
+		Server server = servers.get(handle);
+		if (server == null) {
+			throw new IllegalAwkArgumentException("Invalid server socket handle : " + handle);
+		}
+		try {
+			SocketChannel channel = server.take();
+			if (channel == null) {
+				lastError = "Server closed.";
+				return "";
+			}
+			return addConnection(channel, server.characterMode);
+		} catch (InterruptedException ie) {
+			throw new Error("A queue operation cannot be interrupted.", ie);
+		} catch (IOException ioe) {
+			throw new Error("Error occurred during creation of accepted socket.", ioe);
+		}
+	}
+
+	@Override
+	public final String socketRead(String handle) {
+		Connection connection = connections.get(handle);
+		if (connection == null) {
+			throw new IllegalAwkArgumentException("Invalid socket handle : " + handle);
+		}
+		try {
+			String input = connection.read();
+			if (input == null) {
+				lastError = "No more input.";
+				return "";
+			}
+			return input;
+		} catch (InterruptedException ie) {
+			throw new Error("A queue operation cannot be interrupted.", ie);
+		}
+	}
+
+	@Override
+	public final int socketReadAll(String handle, AssocArray data) {
+		Connection connection = connections.get(handle);
+		if (connection == null) {
+			throw new IllegalAwkArgumentException("Invalid socket handle : " + handle);
+		}
+		data.clear();
+		try {
+			// block for the first input only
+			String input = connection.read();
+			if (input == null) {
+				lastError = "No more input.";
+				return 0;
+			}
+			int count = 0;
+			data.put(++count, input);
+			while (!connection.willBlock(inputBlocker)) {
+				data.put(++count, connection.read());
+			}
+			return count;
+		} catch (InterruptedException ie) {
+			throw new Error("A queue operation cannot be interrupted.", ie);
+		}
+	}
+
+	@Override
+	public final int socketReadReady(Object handles, AssocArray data, AssocArray from) {
+		data.clear();
+		from.clear();
+		int count = 0;
+		try {
+			for (String handle : SocketExtension.toHandles(handles, vm)) {
+				Connection connection = connections.get(handle);
+				if (connection == null) {
+					throw new IllegalAwkArgumentException("Invalid socket handle : " + handle);
+				}
+				while (!connection.willBlock(inputBlocker)) {
+					++count;
+					data.put(count, connection.read());
+					from.put(count, handle);
+				}
+			}
+		} catch (InterruptedException ie) {
+			throw new Error("A queue operation cannot be interrupted.", ie);
+		}
+		return count;
+	}
+
+	@Override
+	public final int socketWrite(String handle, String buf) {
+		Connection connection = connections.get(handle);
+		if (connection == null) {
+			throw new IllegalAwkArgumentException("Invalid socket handle : " + handle);
+		}
+		return connection.write(buf);
+	}
+
+	@Override
+	public final int socketFlush(String handle) {
+		Connection connection = connections.get(handle);
+		if (connection == null) {
+			throw new IllegalAwkArgumentException("Invalid socket handle : " + handle);
+		}
+		try {
+			return connection.flush();
+		} catch (InterruptedException ie) {
+			throw new Error("A socket flush() cannot be interrupted.", ie);
+		}
+	}
+
+	@Override
+	public final int socketClose(String handle) {
+		Endpoint endpoint = connections.remove(handle);
+		if (endpoint == null) {
+			endpoint = servers.remove(handle);
+		}
+		if (endpoint == null) {
+			throw new IllegalAwkArgumentException("Invalid [server]socket handle : " + handle);
+		}
+		try {
+			endpoint.close();
+			return 1;
+		} catch (IOException ioe) {
+			LOG.warn("Failed to close socket " + handle, ioe);
+			return 0;
+		} finally {
+			// let the selector drop the cancelled key
+			selector.wakeup();
+		}
+	}
+
+	@Override
+	public final void stop() {
+		List<Endpoint> endpoints = new ArrayList<Endpoint>(connections.values());
+		endpoints.addAll(servers.values());
+		connections.clear();
+		servers.clear();
+		for (Endpoint endpoint : endpoints) {
+			try {
+				endpoint.close();
+			} catch (IOException ioe) {
+				LOG.warn("Failed to close socket", ioe);
+			}
+		}
+		synchronized (this) {
+			if (selector == null) {
+				return;
+			}
+			try {
+				// ends the selector loop
+				selector.close();
+			} catch (IOException ioe) {
+				LOG.warn("Failed to close the socket selector", ioe);
+			}
+			try {
+				selectorThread.join();
+			} catch (InterruptedException ie) {
+				throw new Error("A socket close() cannot be interrupted.");
+			}
+			selector = null;
+			selectorThread = null;
+			selectorTasks.clear();
+		}
+	}
+
+	//////////////////////////////////////////////////////////////////
+	//////////////////////////////////////////////////////////////////
+	//////////////////////////////////////////////////////////////////
+
+	private final class SelectorLoop implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				while (selector.isOpen()) {
+					Runnable task;
+					while ((task = selectorTasks.poll()) != null) {
+						task.run();
+					}
+					selector.select();
+					Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+					while (selected.hasNext()) {
+						SelectionKey key = selected.next();
+						selected.remove();
+						if (!key.isValid()) {
+							continue;
+						}
+						try {
+							Object endpoint = key.attachment();
+							if (endpoint instanceof Server) {
+								((Server) endpoint).acceptReady();
+							} else {
+								Connection connection = (Connection) endpoint;
+								if (key.isReadable()) {
+									connection.readReady();
+								}
+								if (key.isValid() && key.isWritable()) {
+									connection.writeReady();
+								}
+							}
+						} catch (CancelledKeyException cke) {
+							// closed by the script in the meantime
+						}
+					}
+				}
+			} catch (ClosedSelectorException cse) {
+				// shut down
+			} catch (IOException ioe) {
+				LOG.error("Socket selector failed", ioe);
+			}
+		}
+	}
+
+	/**
+	 * A server socket or a connection.
+	 */
+	private abstract class Endpoint implements Blockable {
+
+		/** assigned by the selector thread upon registration */
+		protected volatile SelectionKey key;
+		/** closed locally, by the script */
+		private volatile boolean closed = false;
+
+		protected abstract SelectableChannel getChannel();
+
+		protected void setInterestOps(final int ops) {
+			onSelectorThread(new Runnable() {
+				@Override
+				public void run() {
+					SelectionKey k = key;
+					if (k != null && k.isValid()) {
+						try {
+							k.interestOps(ops);
+						} catch (CancelledKeyException cke) {
+							// closed by the script in the meantime
+						}
+					}
+				}
+			});
+		}
+
+		public boolean isClosed() {
+			return closed;
+		}
+
+		public void close()
+				throws IOException
+		{
+			closed = true;
+			try {
+				getChannel().close();
+			} finally {
+				synchronized (this) {
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	private final class Server extends Endpoint {
+
+		private final ServerSocketChannel channel;
+		private final boolean characterMode;
+		/** accepted but not yet taken by the script; guarded by this */
+		private final Queue<SocketChannel> accepted = new LinkedList<SocketChannel>();
+
+		private Server(ServerSocketChannel channel, boolean characterMode) {
+			this.channel = channel;
+			this.characterMode = characterMode;
+		}
+
+		@Override
+		public void close()
+				throws IOException
+		{
+			try {
+				super.close();
+			} finally {
+				// accepted, but never taken by the script
+				synchronized (this) {
+					SocketChannel socketChannel;
+					while ((socketChannel = accepted.poll()) != null) {
+						socketChannel.close();
+					}
+				}
+			}
+		}
+
+		@Override
+		protected SelectableChannel getChannel() {
+			return channel;
+		}
+
+		@Override
+		public boolean willBlock(BlockObject bo) {
+			if (bo == closeBlocker) {
+				return channel.isOpen();
+			}
+			synchronized (this) {
+				return accepted.isEmpty();
+			}
+		}
+
+		/** called by the selector thread */
+		private void acceptReady() {
+			SocketChannel socketChannel;
+			try {
+				socketChannel = channel.accept();
+			} catch (IOException ioe) {
+				LOG.warn("Failed to accept on the server-socket", ioe);
+				return;
+			}
+			if (socketChannel == null) {
+				return;
+			}
+			synchronized (this) {
+				accepted.add(socketChannel);
+				notifyAll();
+			}
+			// like a one slot queue: stop accepting until this one is taken
+			key.interestOps(0);
+			acceptBlocker.signalReady();
+		}
+
+		/**
+		 * @return the next accepted channel, waiting for one if necessary;
+		 *   <code>null</code> if the server is closed
+		 */
+		private SocketChannel take()
+				throws InterruptedException
+		{
+			SocketChannel socketChannel;
+			synchronized (this) {
+				while (accepted.isEmpty() && channel.isOpen()) {
+					wait();
+				}
+				socketChannel = accepted.poll();
+			}
+			if (socketChannel != null) {
+				setInterestOps(SelectionKey.OP_ACCEPT);
+			}
+			return socketChannel;
+		}
+	}
+
+	/**
+	 * A connected socket.
+	 * All input and output state is guarded by this.
+	 */
+	private abstract class Connection extends Endpoint {
+
+		private final SocketChannel channel;
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		private ByteBuffer writeBuffer = ByteBuffer.allocate(0);
+		/** whether the remote end closed the connection */
+		private boolean eof = false;
+		private int interestOps = SelectionKey.OP_READ;
+
+		protected Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		protected SelectableChannel getChannel() {
+			return channel;
+		}
+
+		/** @return whether input is available to {@link #takeInput()} */
+		protected abstract boolean hasInput();
+
+		/** @return the amount of buffered input */
+		protected abstract int pendingInput();
+
+		/** @return the next chunk of input; only called if {@link #hasInput()} */
+		protected abstract String takeInput();
+
+		/** Consume the received bytes, which are flipped for reading. */
+		protected abstract void received(ByteBuffer bytes);
+
+		/** The remote end closed the connection. */
+		protected abstract void endOfInput();
+
+		/** @return the bytes to send for a {@link #write(String)} of <code>str</code> */
+		protected abstract byte[] encode(String str);
+
+		@Override
+		public boolean willBlock(BlockObject bo) {
+			synchronized (this) {
+				if (bo == inputBlocker) {
+					return !hasInput();
+				} else if (bo == closeBlocker) {
+					return !(eof && !hasInput());
+				} else {
+					throw new Error("Unknown block object : " + bo.getNotifierTag());
+				}
+			}
+		}
+
+		/** must be called with the lock held */
+		private void updateInterestOps() {
+			int ops = 0;
+			if (!eof && pendingInput() < MAX_PENDING_INPUT) {
+				ops |= SelectionKey.OP_READ;
+			}
+			if (writeBuffer.hasRemaining()) {
+				ops |= SelectionKey.OP_WRITE;
+			}
+			if (ops != interestOps) {
+				interestOps = ops;
+				setInterestOps(ops);
+			}
+		}
+
+		/** called by the selector thread */
+		private void readReady() {
+			boolean closedRemotely = false;
+			synchronized (this) {
+				int len;
+				try {
+					len = channel.read(readBuffer);
+				} catch (IOException ioe) {
+					LOG.debug("Failed to read from socket", ioe);
+					len = -1;
+				}
+				if (len < 0) {
+					eof = true;
+					readBuffer.flip();
+					received(readBuffer);
+					endOfInput();
+					closedRemotely = true;
+				} else {
+					readBuffer.flip();
+					received(readBuffer);
+					readBuffer.compact();
+				}
+				updateInterestOps();
+				notifyAll();
+			}
+			// never hold this lock while locking a blocker,
+			// as blockers lock this while polling willBlock()
+			inputBlocker.signalReady();
+			if (closedRemotely) {
+				closeBlocker.signalReady();
+			}
+		}
+
+		/** called by the selector thread */
+		private void writeReady() {
+			synchronized (this) {
+				try {
+					channel.write(writeBuffer);
+				} catch (IOException ioe) {
+					LOG.warn("Failed to write buffer", ioe);
+					writeBuffer = ByteBuffer.allocate(0);
+				}
+				updateInterestOps();
+				notifyAll();
+			}
+		}
+
+		/**
+		 * @return the next chunk of input, waiting for some if necessary;
+		 *   <code>null</code> if there is no more input
+		 */
+		private String read()
+				throws InterruptedException
+		{
+			String input;
+			boolean drained;
+			synchronized (this) {
+				while (!hasInput() && !eof && !isClosed()) {
+					wait();
+				}
+				if (!hasInput()) {
+					return null;
+				}
+				input = takeInput();
+				drained = eof && !hasInput();
+				updateInterestOps();
+			}
+			if (drained) {
+				closeBlocker.signalReady();
+			}
+			return input;
+		}
+
+		private int write(String str) {
+			byte[] bytes = encode(str);
+			synchronized (this) {
+				if (isClosed()) {
+					lastError = "Socket is closed.";
+					return 0;
+				}
+				if (writeBuffer.hasRemaining()) {
+					// queue behind the output not yet sent
+					ByteBuffer buffer = ByteBuffer.allocate(writeBuffer.remaining() + bytes.length);
+					buffer.put(writeBuffer).put(bytes).flip();
+					writeBuffer = buffer;
+				} else {
+					writeBuffer = ByteBuffer.wrap(bytes);
+				}
+				try {
+					channel.write(writeBuffer);
+				} catch (IOException ioe) {
+					LOG.warn("Failed to write buffer", ioe);
+					lastError = ioe.toString();
+					writeBuffer = ByteBuffer.allocate(0);
+					return 0;
+				}
+				// the selector thread sends the rest, if any
+				updateInterestOps();
+				return 1;
+			}
+		}
+
+		private int flush()
+				throws InterruptedException
+		{
+			synchronized (this) {
+				while (writeBuffer.hasRemaining() && !isClosed()) {
+					wait();
+				}
+				return writeBuffer.hasRemaining() ? 0 : 1;
+			}
+		}
+	}
+
+	private final class CharacterConnection extends Connection {
+
+		private final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final CharBuffer chars = CharBuffer.allocate(READ_BUFFER_SIZE);
+		private final StringBuilder partialLine = new StringBuilder();
+		private final Queue<String> lines = new LinkedList<String>();
+		private int pendingChars = 0;
+		/** whether the last character was a '\r', so a following '\n' is part of the same line break */
+		private boolean afterCR = false;
+
+		private CharacterConnection(SocketChannel channel) {
+			super(channel);
+		}
+
+		@Override
+		protected boolean hasInput() {
+			return !lines.isEmpty();
+		}
+
+		@Override
+		protected int pendingInput() {
+			return pendingChars + partialLine.length();
+		}
+
+		@Override
+		protected String takeInput() {
+			String line = lines.remove();
+			pendingChars -= line.length();
+			return line;
+		}
+
+		@Override
+		protected void received(ByteBuffer bytes) {
+			decode(bytes, false);
+		}
+
+		@Override
+		protected void endOfInput() {
+			decode(ByteBuffer.allocate(0), true);
+			chars.clear();
+			decoder.flush(chars);
+			chars.flip();
+			splitLines();
+			// like BufferedReader.readLine(), an unterminated last line counts
+			if (partialLine.length() > 0) {
+				addLine();
+			}
+		}
+
+		private void decode(ByteBuffer bytes, boolean endOfInput) {
+			while (true) {
+				chars.clear();
+				boolean overflow = decoder.decode(bytes, chars, endOfInput).isOverflow();
+				chars.flip();
+				splitLines();
+				if (!overflow) {
+					break;
+				}
+			}
+		}
+
+		/** line terminators are the same as for BufferedReader.readLine() */
+		private void splitLines() {
+			while (chars.hasRemaining()) {
+				char c = chars.get();
+				if (c == '\n' && afterCR) {
+					afterCR = false;
+				} else if (c == '\n' || c == '\r') {
+					afterCR = (c == '\r');
+					addLine();
+				} else {
+					afterCR = false;
+					partialLine.append(c);
+				}
+			}
+		}
+
+		private void addLine() {
+			String line = partialLine.toString();
+			partialLine.setLength(0);
+			lines.add(line);
+			pendingChars += line.length();
+		}
+
+		@Override
+		protected byte[] encode(String str) {
+			// like PrintStream.println()
+			return (str + LINE_SEPARATOR).getBytes();
+		}
+	}
+
+	private final class ByteConnection extends Connection {
+
+		private byte[] pending = new byte[READ_BUFFER_SIZE];
+		private int pendingLen = 0;
+
+		private ByteConnection(SocketChannel channel) {
+			super(channel);
+		}
+
+		@Override
+		protected boolean hasInput() {
+			return pendingLen > 0;
+		}
+
+		@Override
+		protected int pendingInput() {
+			return pendingLen;
+		}
+
+		@Override
+		protected String takeInput() {
+			String str = new String(pending, 0, pendingLen);
+			pendingLen = 0;
+			return str;
+		}
+
+		@Override
+		protected void received(ByteBuffer bytes) {
+			int len = bytes.remaining();
+			if (pendingLen + len > pending.length) {
+				byte[] grown = new byte[Math.max(pending.length * 2, pendingLen + len)];
+				System.arraycopy(pending, 0, grown, 0, pendingLen);
+				pending = grown;
+			}
+			bytes.get(pending, pendingLen, len);
+			pendingLen += len;
+		}
+
+		@Override
+		protected void endOfInput() {}
+
+		@Override
+		protected byte[] encode(String str) {
+			return str.getBytes();
+		}
+	}
+}
@@ -9,14 +9,15 @@ import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import org.jawk.NotImplementedError;
+import org.jawk.jrt.AssocArray;
 import org.jawk.jrt.BlockHandleValidator;
 import org.jawk.jrt.BlockObject;
 import org.jawk.jrt.Blockable;
@@ -25,8 +26,7 @@ import org.jawk.jrt.IllegalAwkArgumentException;
 import org.jawk.jrt.JRT;
 import org.jawk.jrt.VariableManager;
 import org.jawk.util.AwkSettings;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.jawk.util.LazyLogger;
 
 /**
  * Enable Socket processing in Jawk.
@@ -204,6 +204,40 @@ import org.slf4j.LoggerFactory;
  * <ul>
  * <li>A string containing the input on the createSocket.
  * </ul><p>
+ * <li><strong><em><font size=+1>SocketReadAll</font></em></strong> -<br>
+ * Reads all input currently buffered for a Socket
+ * or a createCSocket, as if by repeated SocketRead calls,
+ * but with a single call.
+ * The operation will block if there is no input
+ * on the createSocket at all.<br>
+ * <strong>Parameters:</strong>
+ * <ul>
+ * <li>Socket-or-createCSocket handle - required
+ * <li>associative array - required - cleared, and then
+ * 	filled with the inputs, keyed 1 to n.
+ * </ul>
+ * <strong>Returns:</strong>
+ * <ul>
+ * <li>The number of inputs read (n); 0 if there is no more input.
+ * </ul><p>
+ * <li><strong><em><font size=+1>SocketReadReady</font></em></strong> -<br>
+ * Reads all input currently buffered for any of the given
+ * Sockets or createCSockets, without blocking.
+ * Typically called after a SocketInputBlock event,
+ * to process a burst of input of all connections at once.<br>
+ * <strong>Parameters:</strong>
+ * <ul>
+ * <li>Socket-or-createCSocket handle, or an associative array
+ * 	whose keys are such handles - required
+ * <li>associative array - required - cleared, and then
+ * 	filled with the inputs, keyed 1 to n.
+ * <li>associative array - required - cleared, and then
+ * 	filled with the handle each input was read from, keyed 1 to n.
+ * </ul>
+ * <strong>Returns:</strong>
+ * <ul>
+ * <li>The number of inputs read (n).
+ * </ul><p>
  * <li><strong><em><font size=+1>SocketWrite</font></em></strong> -<br>
  * Writes data to the Socket or createCSocket.
  * For a Socket, the string is converted
@@ -254,19 +288,40 @@ import org.slf4j.LoggerFactory;
  */
 public class SocketExtension extends AbstractExtension {
 
+	/**
+	 * System property selecting the socket handling implementation:
+	 * <code>threaded</code> (the default) uses threads per server socket
+	 * and per connection; <code>nio</code> serves all of them
+	 * with a single selector thread.
+	 */
+	public static final String IO_STYLE_PROPERTY = "jawk.socket.ioStyle";
+
 	/**
 	 * Either threaded or non-threaded (nio-style) createSocket
-	 * handling. The threaded implementation is provided
-	 * upon initial release. Non-threaded
-	 * functionality will be available in a subsequent
-	 * release.
+	 * handling, as selected by {@link #IO_STYLE_PROPERTY}.
 	 */
 	private IOStyle implDelegate;
 
 	@Override
 	public final void init(VariableManager vm, JRT jrt, final AwkSettings settings) {
 		super.init(vm, jrt, settings);
-		implDelegate = new ThreadedIOStyle(vm);
+		if ("nio".equalsIgnoreCase(System.getProperty(IO_STYLE_PROPERTY))) {
+			implDelegate = new NioIOStyle(vm);
+		} else {
+			implDelegate = new ThreadedIOStyle(vm);
+		}
+	}
+
+	/**
+	 * Closes all sockets left open by the script,
+	 * and stops the threads serving them.
+	 */
+	@Override
+	public final void stop() {
+		if (implDelegate != null) {
+			implDelegate.stop();
+			implDelegate = null;
+		}
 	}
 
 	@Override
@@ -286,12 +341,25 @@ public class SocketExtension extends AbstractExtension {
 					"SocketCloseBlock", // i.e., SocketCloseBlock(ss,css, s,cs)));
 					"SocketAccept", // i.e., cs = SocketAccept(css)
 					"SocketRead", // i.e., buf = SocketRead(s) or line = SocketRead(cs)
+					"SocketReadAll", // i.e., n = SocketReadAll(cs, lines)
+					"SocketReadReady", // i.e., n = SocketReadReady(handles, lines, from)
 					"SocketWrite", // i.e., SocketWrite(s, "hi there\n") or SocketWrite(cs, "hi there")
 					"SocketFlush", // i.e., SocketFlush(s) or SocketFlush(cs)
 					"SocketClose", // i.e., SocketClose(ss) or SocketClose(cs)
 				};
 	}
 
+	@Override
+	public int[] getAssocArrayParameterPositions(String extensionKeyword, int numArgs) {
+		if (extensionKeyword.equals("SocketReadAll")) {
+			return new int[] {1};
+		} else if (extensionKeyword.equals("SocketReadReady")) {
+			return new int[] {1, 2};
+		} else {
+			return super.getAssocArrayParameterPositions(extensionKeyword, numArgs);
+		}
+	}
+
 	@Override
 	public final Object invoke(String methodName, Object[] args) {
 		// large if-then-else block to decide which extension to invoke
@@ -347,6 +415,19 @@ public class SocketExtension extends AbstractExtension {
 		} else if (methodName.equals("SocketRead")) {
 			checkNumArgs(args, 1);
 			return implDelegate.socketRead(toAwkString(args[0]));
+		} else if (methodName.equals("SocketReadAll")) {
+			checkNumArgs(args, 2);
+			return implDelegate.socketReadAll(
+				toAwkString(args[0]),
+				toAssocArray(args[1])
+			);
+		} else if (methodName.equals("SocketReadReady")) {
+			checkNumArgs(args, 3);
+			return implDelegate.socketReadReady(
+				args[0],
+				toAssocArray(args[1]),
+				toAssocArray(args[2])
+			);
 		} else if (methodName.equals("SocketWrite")) {
 			checkNumArgs(args, 2);
 			return implDelegate.socketWrite(
@@ -363,6 +444,31 @@ public class SocketExtension extends AbstractExtension {
 			throw new NotImplementedError(methodName);
 		}
 	}
+
+	private static AssocArray toAssocArray(Object arg) {
+		if (!(arg instanceof AssocArray)) {
+			throw new IllegalAwkArgumentException("Expecting an associative array, not " + arg);
+		}
+		return (AssocArray) arg;
+	}
+
+	/**
+	 * @param handles A handle, or an associative array whose keys are handles.
+	 *
+	 * @return The handles.
+	 */
+	static List<String> toHandles(Object handles, VariableManager vm) {
+		List<String> list = new ArrayList<String>();
+		String convfmt = vm.getCONVFMT().toString();
+		if (handles instanceof AssocArray) {
+			for (Object key : ((AssocArray) handles).keySet()) {
+				list.add(JRT.toAwkString(key, convfmt));
+			}
+		} else {
+			list.add(JRT.toAwkString(handles, convfmt));
+		}
+		return list;
+	}
 }
 
 //
@@ -530,6 +636,38 @@ interface IOStyle {
 	 */
 	String socketRead(String handle);
 
+	/**
+	 * Reads all input currently buffered for a createSocket
+	 * or a createCSocket, as if by repeated calls to
+	 * {@link #socketRead(String)} for as long as they would not block.
+	 * The operation will block if there is no input
+	 * on the createSocket at all.
+	 *
+	 * @param handle A string handle to a createSocket
+	 *   or createCSocket.
+	 * @param data Cleared, and then filled with the
+	 *   inputs, keyed 1 to n.
+	 *
+	 * @return The number of inputs (n);
+	 *   0 if there is no more input.
+	 */
+	int socketReadAll(String handle, AssocArray data);
+
+	/**
+	 * Reads all input currently buffered for any of the given
+	 * sockets / CSockets, without blocking.
+	 *
+	 * @param handles A string handle to a createSocket
+	 *   or createCSocket, or an associative array whose keys are such handles.
+	 * @param data Cleared, and then filled with the
+	 *   inputs, keyed 1 to n.
+	 * @param from Cleared, and then filled with the handle
+	 *   of each input, keyed 1 to n.
+	 *
+	 * @return The number of inputs (n).
+	 */
+	int socketReadReady(Object handles, AssocArray data, AssocArray from);
+
 	/**
 	 * Writes data to the createSocket or createCSocket.
 	 * For a createSocket, the string is converted
@@ -585,42 +723,18 @@ interface IOStyle {
 	 * 0 upon an IO exception/error.
 	 */
 	int socketClose(String handle);
-}
-
-/**
- * A view of two maps as one map.
- */
-class MapUnion<K, V> extends AbstractMap<K, V> {
-
-	private Map<K, V> m1;
-	private Map<K, V> m2;
-
-	MapUnion(Map<K, V> m1, Map<K, V> m2) {
-		this.m1 = m1;
-		this.m2 = m2;
-	}
-
-	@Override
-	public final Set<Map.Entry<K, V>> entrySet() {
-		// build the entry set
-		Set<Map.Entry<K, V>> entries = new HashSet<Map.Entry<K, V>>();
-
-		Set<Map.Entry<K, V>> s1 = m1.entrySet();
-		Set<Map.Entry<K, V>> s2 = m2.entrySet();
-		for (Map.Entry<K, V> me : s1) {
-			entries.add(me);
-		}
-		for (Map.Entry<K, V> me : s2) {
-			entries.add(me);
-		}
 
-		return entries;
-	}
+	/**
+	 * Closes all sockets and server sockets,
+	 * and stops all threads serving them.
+	 * Called at the end of the execution.
+	 */
+	void stop();
 }
 
 class ThreadedIOStyle implements IOStyle {
 
-	private static final Logger LOG = LoggerFactory.getLogger(ThreadedIOStyle.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(ThreadedIOStyle.class);
 
 	private String lastError = null;
 
@@ -878,11 +992,60 @@ class ThreadedIOStyle implements IOStyle {
 				throw new IllegalAwkArgumentException("Invalid socket handle : " + handle);
 			}
 			// it's "as if" inputBlocker is querying whether to block or not
-			if (consumer.willBlock(inputBlocker) && consumer.isClosed()) {
+			String input = consumer.getInput();
+			if (input == null) {
 				lastError = "No more input.";
 				return "";
 			}
-			return consumer.getInput();
+			return input;
+		} catch (InterruptedException ie) {
+			throw new Error("A queue operation cannot be interrupted.", ie);
+		}
+	}
+
+	@Override
+	public final int socketReadAll(String handle, AssocArray data) {
+		try {
+			Consumer consumer = (Consumer) consumers.get(handle);
+			if (consumer == null) {
+				throw new IllegalAwkArgumentException("Invalid socket handle : " + handle);
+			}
+			data.clear();
+			// block for the first input only
+			String input = consumer.getInput();
+			if (input == null) {
+				lastError = "No more input.";
+				return 0;
+			}
+			int count = 0;
+			data.put(++count, input);
+			while (!consumer.willBlock(inputBlocker)) {
+				data.put(++count, consumer.getInput());
+			}
+			return count;
+		} catch (InterruptedException ie) {
+			throw new Error("A queue operation cannot be interrupted.", ie);
+		}
+	}
+
+	@Override
+	public final int socketReadReady(Object handles, AssocArray data, AssocArray from) {
+		try {
+			data.clear();
+			from.clear();
+			int count = 0;
+			for (String handle : SocketExtension.toHandles(handles, vm)) {
+				Consumer consumer = (Consumer) consumers.get(handle);
+				if (consumer == null) {
+					throw new IllegalAwkArgumentException("Invalid socket handle : " + handle);
+				}
+				while (!consumer.willBlock(inputBlocker)) {
+					++count;
+					data.put(count, consumer.getInput());
+					from.put(count, handle);
+				}
+			}
+			return count;
 		} catch (InterruptedException ie) {
 			throw new Error("A queue operation cannot be interrupted.", ie);
 		}
@@ -915,7 +1078,10 @@ class ThreadedIOStyle implements IOStyle {
 		if (t == null) {
 			throw new IllegalAwkArgumentException("Invalid [server]socket handle : " + handle);
 		}
+		return close(handle, t);
+	}
 
+	private static int close(String handle, Closeable t) {
 		int retval;
 		try {
 			t.close();
@@ -935,6 +1101,18 @@ class ThreadedIOStyle implements IOStyle {
 		return retval;
 	}
 
+	@Override
+	public final void stop() {
+		for (Map.Entry<String, Closeable> consumer : consumers.entrySet()) {
+			close(consumer.getKey(), consumer.getValue());
+		}
+		consumers.clear();
+		for (Map.Entry<String, Closeable> accepter : accepters.entrySet()) {
+			close(accepter.getKey(), accepter.getValue());
+		}
+		accepters.clear();
+	}
+
 	//////////////////////////////////////////////////////////////////
 	//////////////////////////////////////////////////////////////////
 	//////////////////////////////////////////////////////////////////
@@ -970,12 +1148,13 @@ class ThreadedIOStyle implements IOStyle {
 				Socket socket;
 				while ((socket = serverSocket.accept()) != null) {
 					queue.put(socket);
-					synchronized (acceptBlocker) {
-						acceptBlocker.notify();
-					}
+					acceptBlocker.signalReady();
 				}
 			} catch (InterruptedException ie) {
-				throw new Error("A queue operation cannot be interrupted.", ie);
+				if (!serverSocket.isClosed()) {
+					throw new Error("A queue operation cannot be interrupted.", ie);
+				}
+				// closed while waiting for the script to take a socket
 			} catch (SocketException se) {
 				// no big deal
 				// TODO? assume we should just shutdown now
@@ -983,9 +1162,7 @@ class ThreadedIOStyle implements IOStyle {
 				LOG.warn("Failed to accept on the server-socket", ioe);
 				// no big deal
 			}
-			synchronized (closeBlocker) {
-				closeBlocker.notify();
-			}
+			closeBlocker.signalReady();
 		}
 
 		protected BlockingQueue<Socket> getQueue() {
@@ -1015,6 +1192,11 @@ class ThreadedIOStyle implements IOStyle {
 				throws IOException
 		{
 			serverSocket.close();
+			// accepted, but never taken by the script
+			Socket socket = queue.poll();
+			if (socket != null) {
+				socket.close();
+			}
 		}
 	}
 
@@ -1063,6 +1245,12 @@ class ThreadedIOStyle implements IOStyle {
 
 		void start();
 
+		/**
+		 * Waits for the next input.
+		 *
+		 * @return The input, or null when the peer closed
+		 *   the connection and all of its input has been read.
+		 */
 		String getInput() throws InterruptedException;
 
 		int write(String buf);
@@ -1070,15 +1258,29 @@ class ThreadedIOStyle implements IOStyle {
 		int flush();
 	}
 
+	/**
+	 * How many inputs (lines, or chunks of bytes) each connection buffers
+	 * before its reader thread waits for the script to consume them.
+	 */
+	private static final int INPUT_QUEUE_CAPACITY = 1024;
+
+	/**
+	 * Queued by a reader thread after the last input of its connection,
+	 * so a read waiting for input learns about the end of it.
+	 */
+	private static final Object END_OF_INPUT = new Object();
+
 	private abstract class AbstractConsumer<T> extends Thread implements Consumer {
 
 //		private final String handle;
 		private final Socket socket;
 		private final PrintStream printStream;
-		private int state = ACTIVE_STATE;
+		// set by the reader thread
+		private volatile int state = ACTIVE_STATE;
 
-		// only 1 slot
-		private BlockingQueue<T> queue = new ArrayBlockingQueue<T>(1);
+		private BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(INPUT_QUEUE_CAPACITY);
+		// set once END_OF_INPUT was taken from the queue
+		private boolean endOfInput = false;
 
 		protected AbstractConsumer(String handle, Socket socket)
 				throws IOException
@@ -1093,7 +1295,7 @@ class ThreadedIOStyle implements IOStyle {
 		@Override
 		public final boolean willBlock(BlockObject bo) {
 			if (bo == inputBlocker) {
-				return queue.size() == 0;
+				return isDrained();
 			} else if (bo == closeBlocker) {
 				return state == ACTIVE_STATE;
 			} else {
@@ -1112,12 +1314,14 @@ class ThreadedIOStyle implements IOStyle {
 				T input;
 				while ((input = readFromSocket()) != null) {
 					queue.put(input);
-					synchronized (inputBlocker) {
-						inputBlocker.notify();
-					}
+					inputBlocker.signalReady();
 				}
 			} catch (InterruptedException ie) {
-				throw new Error("A queue operation cannot be interrupted.", ie);
+				if (state != CLOSED_STATE) {
+					throw new Error("A queue operation cannot be interrupted.", ie);
+				}
+				// closed while waiting for the script to consume input
+				return;
 			} catch (SocketException se) {
 				// no big deal
 				// TODO? assume we should just shutdown now
@@ -1125,22 +1329,57 @@ class ThreadedIOStyle implements IOStyle {
 				LOG.warn("Failed to read from socket", ioe);
 				// no big deal
 			}
+			try {
+				queue.put(END_OF_INPUT);
+			} catch (InterruptedException ie) {
+				if (state != CLOSED_STATE) {
+					throw new Error("A queue operation cannot be interrupted.", ie);
+				}
+				// closed while waiting for the script to consume input
+				return;
+			}
 			synchronized (closeBlocker) {
 				if (state == ACTIVE_STATE) {
 					state = CLOSE_PENDING_STATE;
-					closeBlocker.notify();
+					closeBlocker.signalReady();
 				}
 			}
 		}
 
 		protected abstract String readFromQueue() throws InterruptedException;
 
-		protected PrintStream getPrintStream() {
-			return printStream;
+		/**
+		 * Takes the next input from the queue, waiting for it if necessary.
+		 *
+		 * @return The input, or null when the reader thread
+		 *   reached the end of the input and the queue is empty.
+		 */
+		@SuppressWarnings("unchecked")
+		protected final T takeFromQueue()
+				throws InterruptedException
+		{
+			if (endOfInput) {
+				return null;
+			}
+			Object input = queue.take();
+			if (input == END_OF_INPUT) {
+				endOfInput = true;
+				return null;
+			}
+			return (T) input;
 		}
 
-		protected BlockingQueue<T> getQueue() {
-			return queue;
+		/**
+		 * @return Whether no input is queued,
+		 *   apart from the end of input indicator.
+		 */
+		private boolean isDrained() {
+			Object input = queue.peek();
+			return input == null || input == END_OF_INPUT;
+		}
+
+		protected PrintStream getPrintStream() {
+			return printStream;
 		}
 
 		@Override
@@ -1149,11 +1388,14 @@ class ThreadedIOStyle implements IOStyle {
 		{
 			assert state != CLOSED_STATE;	// active or closePending
 			String str = readFromQueue();
-			if (queue.size() == 0 && state == CLOSE_PENDING_STATE) {
+			if (str == null) {
+				return null;
+			}
+			if (isDrained() && state == CLOSE_PENDING_STATE) {
 				synchronized (closeBlocker) {
 					// could be either ACTIVE or CLOSE_PENDING states
 					assert state != CLOSED_STATE;
-					closeBlocker.notify();
+					closeBlocker.signalReady();
 				}
 			}
 			return str;
@@ -1174,6 +1416,7 @@ class ThreadedIOStyle implements IOStyle {
 		public final void close()
 				throws IOException
 		{
+			state = CLOSED_STATE;
 			socket.close();
 		}
 	}
@@ -1204,7 +1447,7 @@ class ThreadedIOStyle implements IOStyle {
 		protected String readFromQueue()
 				throws InterruptedException
 		{
-			return getQueue().take();
+			return takeFromQueue();
 		}
 
 		@Override
@@ -1214,7 +1457,7 @@ class ThreadedIOStyle implements IOStyle {
 		}
 	}
 
-	private final class ByteConsumer extends AbstractConsumer<Integer> {
+	private final class ByteConsumer extends AbstractConsumer<String> {
 
 		private final BufferedInputStream bis;
 		private final byte[] readBuffer = new byte[4096];
@@ -1227,14 +1470,16 @@ class ThreadedIOStyle implements IOStyle {
 		}
 
 		@Override
-		protected Integer readFromSocket()
+		protected String readFromSocket()
 				throws IOException
 		{
 			int len = bis.read(readBuffer, 0, readBuffer.length);
 			if (len < 0) {
 				return null;
 			} else {
-				return len;
+				// convert right away, as readBuffer is reused
+				// while previous inputs are still queued
+				return new String(readBuffer, 0, len);
 			}
 		}
 
@@ -1242,9 +1487,7 @@ class ThreadedIOStyle implements IOStyle {
 		protected String readFromQueue()
 				throws InterruptedException
 		{
-			int len = getQueue().take();
-			String str = new String(readBuffer, 0, len);
-			return str;
+			return takeFromQueue();
 		}
 
 		@Override
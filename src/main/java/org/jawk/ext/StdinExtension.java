@@ -3,16 +3,12 @@ package org.jawk.ext;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import org.jawk.NotImplementedError;
 import org.jawk.jrt.BlockObject;
-import org.jawk.jrt.JRT;
-import org.jawk.jrt.VariableManager;
-import org.jawk.util.AwkSettings;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.jawk.util.LazyLogger;
 
 /**
  * Enable stdin processing in Jawk, to be used in conjunction with the -ni parameter.
@@ -27,6 +23,15 @@ import org.slf4j.LoggerFactory;
  * </p>
  *
  * <p>
+ * The input is read by a background (daemon) thread.
+ * When the extension is stopped, the thread is interrupted,
+ * and ends before queueing any further line.
+ * But a read waiting for input cannot be interrupted:
+ * if the input neither delivers data nor ends (like an idle terminal),
+ * the thread remains blocked in it until the JVM exits.
+ * </p>
+ *
+ * <p>
  * The extension functions are as follows:
  * <ul>
  * <hr/>
@@ -78,11 +83,11 @@ import org.slf4j.LoggerFactory;
  */
 public class StdinExtension extends AbstractExtension implements JawkExtension {
 
-	private static final Logger LOG = LoggerFactory.getLogger(StdinExtension.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(StdinExtension.class);
 
 	private static final Object DONE = new Object();
 
-	private final BlockingQueue<Object> getLineInput = new LinkedBlockingQueue<Object>();
+	private volatile BlockingQueue<Object> getLineInput;
 
 	private final BlockObject blocker = new BlockObject() {
 
@@ -101,49 +106,83 @@ public class StdinExtension extends AbstractExtension implements JawkExtension {
 				}
 			}
 		}
+
+		@Override
+		public boolean supportsPolling() {
+			return true;
+		}
+
+		@Override
+		public boolean poll() {
+			return stdInHasInput() == 1;
+		}
 	};
 
 	private boolean isEof = false;
 
+	/** Reads the lines of input into {@link #getLineInput}, once started. */
+	private Thread getLineInputThread = null;
+
+	/**
+	 * Starts reading the input in the background,
+	 * so {@code StdinHasInput()} and {@code StdinBlock()}
+	 * can tell whether a {@code StdinGetline()} would block.
+	 */
 	@Override
-	public void init(VariableManager vm, JRT jrt, final AwkSettings settings) {
-		super.init(vm, jrt, settings);
+	public synchronized void start() {
+		if (getLineInputThread != null) {
+			// already started
+			return;
+		}
+		// a thread left over from a previous execution
+		// keeps feeding its own queue, not this one
+		final BlockingQueue<Object> input = new LinkedBlockingQueue<Object>();
+		final Reader reader = getSettings().getInputReader();
+		getLineInput = input;
+		isEof = false;
 
-		Thread getLineInputThread = new Thread("getLineInputThread") {
+		getLineInputThread = new Thread("getLineInputThread") {
 			@Override
 			public final void run() {
 				try {
-					BufferedReader br = new BufferedReader(
-							new InputStreamReader(settings.getInput()));
+					BufferedReader br = new BufferedReader(reader);
 					String line;
 					while ((line = br.readLine()) != null) {
-						getLineInput.put(line);
-						synchronized (blocker) {
-							blocker.notify();
+						if (isInterrupted()) {
+							// stopped
+							return;
 						}
+						input.put(line);
+						blocker.signalReady();
 					}
 				} catch (InterruptedException ie) {
-					LOG.error("", ie);
-					// do nothing ... the thread death will signal an issue
+					// stopped
+					return;
 				} catch (IOException ioe) {
 					LOG.error("", ioe);
 					// do nothing ... the thread death will signal an issue
 				}
-				try {
-					getLineInput.put(DONE);
-				} catch (InterruptedException ie) {
-					LOG.error("Should never be interrupted.", ie);
-					System.exit(1);
-				}
-				synchronized (blocker) {
-					blocker.notify();
-				}
+				// the queue is unbounded; this does not wait
+				input.offer(DONE);
+				blocker.signalReady();
 			}
 		};
 		getLineInputThread.setDaemon(true);
 		getLineInputThread.start();
 	}
 
+	/**
+	 * Interrupts the reading thread, and detaches from it.
+	 * See the class documentation about a thread blocked in a read.
+	 */
+	@Override
+	public synchronized void stop() {
+		if (getLineInputThread != null) {
+			getLineInputThread.interrupt();
+			getLineInputThread = null;
+		}
+	}
+
 	@Override
 	public String getExtensionName() {
 		return "Stdin Support";
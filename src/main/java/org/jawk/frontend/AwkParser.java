@@ -17,9 +17,8 @@ import org.jawk.intermediate.Address;
 import org.jawk.intermediate.AwkTuples;
 import org.jawk.intermediate.HasFunctionAddress;
 import org.jawk.jrt.KeyList;
+import org.jawk.util.LazyLogger;
 import org.jawk.util.ScriptSource;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Converts the AWK script into a syntax tree,
@@ -30,7 +29,13 @@ import org.slf4j.LoggerFactory;
  */
 public class AwkParser {
 
-	private static final Logger LOG = LoggerFactory.getLogger(AwkParser.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(AwkParser.class);
+
+	/**
+	 * The maximum number of syntax tree nodes in the body
+	 * of a user-defined function for its calls to be inlined.
+	 */
+	private static final int MAX_INLINE_BODY_SIZE = 64;
 
 	/**
 	 * Interface for statement AST nodes that can be interrupted
@@ -2354,6 +2359,14 @@ public class AwkParser {
 
 	private Address next_address;
 
+	/**
+	 * The number of inlined function bodies being populated.
+	 * Calls within an inlined body are not inlined themselves,
+	 * so that a chain of small functions calling each other
+	 * does not multiply the size of the code.
+	 */
+	private int inlining_depth = 0;
+
 	private final class RuleList_AST extends AST {
 
 		private RuleList_AST(AST rule, AST rest) {
@@ -2377,6 +2390,19 @@ public class AwkParser {
 
 			AST ptr;
 
+			// decide which functions get inlined at their call sites
+			// (MUST BE DONE BEFORE compiling anything that calls them,
+			// as it allocates global variables)
+
+			ptr = this;
+			while (ptr != null) {
+				if (ptr.ast1 instanceof FunctionDef_AST) {
+					((FunctionDef_AST) ptr.ast1).prepareInlining();
+				}
+
+				ptr = ptr.ast2;
+			}
+
 			// compile functions
 
 			ptr = this;
@@ -2555,6 +2581,10 @@ public class AwkParser {
 			if (ast1 == null) {
 				// just indicate to execute the rule
 				tuples.push(1);	// 1 == true
+			} else if (ast1 instanceof Regexp_AST) {
+				// $0 ~ /regexp/, which the AVM can prefilter
+				int result = ((Regexp_AST) ast1).populateRuleConditionTuples(tuples);
+				assert result == 1;
 			} else {
 				int result = ast1.populateTuples(tuples);
 				assert result == 1;
@@ -3417,7 +3447,11 @@ public class AwkParser {
 
 	private interface Returnable {
 
-		Address returnAddress();
+		/**
+		 * Populates the tuples which leave the function,
+		 * after those of the return value, if any.
+		 */
+		void populateReturn(AwkTuples tuples, ReturnStatement_AST return_statement);
 	}
 
 	// made non-static to access the symbol table
@@ -3426,12 +3460,33 @@ public class AwkParser {
 		private String id;
 		private Address function_address;
 		private Address return_address;
-		// to satisfy the Returnable interface
+		// formal parameters, as referenced by the function body
+		private ID_AST[] formal_params;
+		// hidden globals holding the scalar parameters of an inlined call
+		// (null if the function cannot be inlined)
+		private ID_AST[] inline_params;
+		// return statement ending the body, if any
+		private AST tail_return;
+		private boolean is_inlining = false;
 
+		// to satisfy the Returnable interface
 		@Override
-		public Address returnAddress() {
+		public void populateReturn(AwkTuples tuples, ReturnStatement_AST return_statement) {
 			assert return_address != null;
-			return return_address;
+			if (is_inlining) {
+				// the return value stays on the stack, for the call site
+				if (return_statement.ast1 == null) {
+					tuples.push("");
+				}
+				if (return_statement != tail_return) {
+					tuples.gotoAddress(return_address);
+				}
+			} else {
+				if (return_statement.ast1 != null) {
+					tuples.setReturnResult();
+				}
+				tuples.gotoAddress(return_address);
+			}
 		}
 
 		private FunctionDef_AST(String id, AST params, AST func_body) {
@@ -3525,6 +3580,173 @@ public class AwkParser {
 				f_ptr = (FunctionDefParamList_AST) f_ptr.ast1;
 			}
 		}
+
+		/**
+		 * Allocates the hidden global variables through which
+		 * call sites execute the body of this function in place,
+		 * if it is small and not (even indirectly) recursive.
+		 * <p>
+		 * Globals are safe to use here because, without recursion,
+		 * no two inlined executions of the same body overlap.
+		 * Bodies with for-in loops are excluded, as a return
+		 * from within one would leave its key list on the stack.
+		 * </p>
+		 */
+		void prepareInlining() {
+			if (countNodes(ast2) > MAX_INLINE_BODY_SIZE
+					|| containsForIn(ast2)
+					|| reaches(this, ast2, new HashSet<FunctionDef_AST>()))
+			{
+				return;
+			}
+			int num_params = paramCount();
+			formal_params = new ID_AST[num_params];
+			inline_params = new ID_AST[num_params];
+			FunctionDefParamList_AST f_ptr = (FunctionDefParamList_AST) ast1;
+			for (int i = 0; i < num_params; i++) {
+				formal_params[i] = symbol_table.getFunctionParameterIDAST(id, f_ptr.id);
+				// array parameters are bound to the actual array instead
+				if (!formal_params[i].isArray()) {
+					inline_params[i] = symbol_table.addHiddenGlobal(id + ":" + f_ptr.id);
+				}
+				f_ptr = (FunctionDefParamList_AST) f_ptr.ast1;
+			}
+			AST last_statement = ast2;
+			while (last_statement instanceof STATEMENTLIST_AST) {
+				last_statement = last_statement.ast2 == null ? last_statement.ast1 : last_statement.ast2;
+			}
+			if (last_statement instanceof ReturnStatement_AST) {
+				tail_return = last_statement;
+			}
+		}
+
+		/**
+		 * Determines whether a call with these actual parameters
+		 * can be inlined, which requires every array parameter
+		 * to be passed a variable known at compile time.
+		 */
+		boolean isInlinable(AST actual_params) {
+			if (inline_params == null) {
+				return false;
+			}
+			AST a_ptr = actual_params;
+			for (ID_AST fparam : formal_params) {
+				AST aparam = a_ptr == null ? null : a_ptr.ast1;
+				if (fparam.isArray()) {
+					if (!(aparam instanceof ID_AST)) {
+						return false;
+					}
+				} else if (aparam != null && aparam.isArray()) {
+					return false;
+				}
+				if (a_ptr != null) {
+					a_ptr = a_ptr.ast2;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Populates the tuples of the function body at a call site,
+		 * leaving the return value on the stack.
+		 * While doing so, the formal parameters refer to the hidden
+		 * globals, or to the actual variables for arrays,
+		 * and return statements jump to the end of the inlined body
+		 * (or fall through to it, for the last statement).
+		 */
+		void populateInlinedCall(AwkTuples tuples, AST actual_params, int actual_param_count) {
+			assert isInlinable(actual_params);
+			// evaluated in the same order as for a regular call,
+			// which leaves the first parameter on top of the stack
+			if (actual_params != null) {
+				int actual_params_result = actual_params.populateTuples(tuples);
+				assert actual_params_result == actual_param_count;
+			}
+			int[] saved_offsets = new int[formal_params.length];
+			boolean[] saved_is_globals = new boolean[formal_params.length];
+			AST a_ptr = actual_params;
+			for (int i = 0; i < formal_params.length; i++) {
+				ID_AST fparam = formal_params[i];
+				ID_AST target;
+				if (fparam.isArray()) {
+					target = (ID_AST) a_ptr.ast1;
+					tuples.pop();
+				} else {
+					target = inline_params[i];
+					if (i >= actual_param_count) {
+						// a local variable starts out blank
+						tuples.push("");
+					}
+					tuples.popToVariable(target.offset, target.is_global);
+				}
+				if (a_ptr != null) {
+					a_ptr = a_ptr.ast2;
+				}
+				saved_offsets[i] = fparam.offset;
+				saved_is_globals[i] = fparam.is_global;
+				fparam.offset = target.offset;
+				fparam.is_global = target.is_global;
+			}
+
+			Address saved_return_address = return_address;
+			return_address = tuples.createAddress("inlined return_address for " + id);
+			is_inlining = true;
+			++inlining_depth;
+			if (ast2 != null) {
+				int ast2_result = ast2.populateTuples(tuples);
+				assert ast2_result == 0 || ast2_result == 1;
+			}
+			--inlining_depth;
+			if (tail_return == null) {
+				// falling off the end of the body returns blank
+				tuples.push("");
+			}
+			tuples.address(return_address);
+			is_inlining = false;
+			return_address = saved_return_address;
+
+			for (int i = 0; i < formal_params.length; i++) {
+				formal_params[i].offset = saved_offsets[i];
+				formal_params[i].is_global = saved_is_globals[i];
+			}
+		}
+	}
+
+	private int countNodes(AST ast) {
+		if (ast == null) {
+			return 0;
+		}
+		return 1 + countNodes(ast.ast1) + countNodes(ast.ast2) + countNodes(ast.ast3) + countNodes(ast.ast4);
+	}
+
+	private boolean containsForIn(AST ast) {
+		if (ast == null) {
+			return false;
+		}
+		return ast instanceof ForInStatement_AST
+				|| containsForIn(ast.ast1) || containsForIn(ast.ast2)
+				|| containsForIn(ast.ast3) || containsForIn(ast.ast4);
+	}
+
+	/**
+	 * Determines whether the code in ast calls the given function,
+	 * either directly or through other user-defined functions.
+	 */
+	private boolean reaches(FunctionDef_AST function_def, AST ast, Set<FunctionDef_AST> visited) {
+		if (ast == null) {
+			return false;
+		}
+		if (ast instanceof FunctionCall_AST) {
+			FunctionDef_AST callee = ((FunctionCall_AST) ast).function_proxy.function_def_ast;
+			if (callee == function_def) {
+				return true;
+			}
+			if (callee != null && visited.add(callee) && reaches(function_def, callee.ast2, visited)) {
+				return true;
+			}
+		}
+		return reaches(function_def, ast.ast1, visited) || reaches(function_def, ast.ast2, visited)
+				|| reaches(function_def, ast.ast3, visited) || reaches(function_def, ast.ast4, visited);
 	}
 
 	private final class FunctionCall_AST extends ScalarExpression_AST {
@@ -3588,13 +3810,7 @@ public class AwkParser {
 			if (!function_proxy.isDefined()) {
 				throw new SemanticException("function " + function_proxy + " not defined");
 			}
-			tuples.scriptThis();
-			int actual_param_count;
-			if (ast1 == null) {
-				actual_param_count = 0;
-			} else {
-				actual_param_count = ast1.populateTuples(tuples);
-			}
+			int actual_param_count = actualParamCount();
 			int formal_param_count = function_proxy.getFunctionParamCount();
 			if (formal_param_count < actual_param_count) {
 				throw new SemanticException("the " + function_proxy.getFunctionName() + " function"
@@ -3602,7 +3818,16 @@ public class AwkParser {
 			}
 
 			function_proxy.checkActualToFormalParameters(ast1);
-			tuples.callFunction(function_proxy, function_proxy.getFunctionName(), formal_param_count, actual_param_count);
+			if (inlining_depth == 0 && function_proxy.isInlinable(ast1)) {
+				function_proxy.populateInlinedCall(tuples, ast1, actual_param_count);
+			} else {
+				tuples.scriptThis();
+				if (ast1 != null) {
+					int ast1_result = ast1.populateTuples(tuples);
+					assert ast1_result == actual_param_count;
+				}
+				tuples.callFunction(function_proxy, function_proxy.getFunctionName(), formal_param_count, actual_param_count);
+			}
 			popSourceLineNumber(tuples);
 			return 1;
 		}
@@ -4142,6 +4367,17 @@ public class AwkParser {
 			popSourceLineNumber(tuples);
 			return 1;
 		}
+
+		/**
+		 * Like populateTuples(), but for the regexp
+		 * being the condition of a rule.
+		 */
+		private int populateRuleConditionTuples(AwkTuples tuples) {
+			pushSourceLineNumber(tuples);
+			tuples.ruleRegexp(regexp_str);
+			popSourceLineNumber(tuples);
+			return 1;
+		}
 	}
 
 	private final class RegexpPair_AST extends ScalarExpression_AST {
@@ -4159,7 +4395,10 @@ public class AwkParser {
 			assert ast1 != null;
 			int ast1_result = ast1.populateTuples(tuples);
 			assert ast1_result == 1;
-			tuples.regexpPair();
+			// regexp literals are matched against $0, and can be prefiltered
+			int slot1 = ast1 instanceof Regexp_AST ? tuples.addRuleRegexp(((Regexp_AST) ast1).regexp_str) : -1;
+			int slot2 = ast2 instanceof Regexp_AST ? tuples.addRuleRegexp(((Regexp_AST) ast2).regexp_str) : -1;
+			tuples.regexpPair(slot1, slot2);
 			popSourceLineNumber(tuples);
 			return 1;
 		}
@@ -4614,6 +4853,15 @@ public class AwkParser {
 				assert ast1_result == 1;
 				// stack has ast1 (i.e., "command")
 				tuples.useAsCommandInput();
+			} else if (ast3 != null && ast2 instanceof ID_AST && !((ID_AST) ast2).id.equals("RS")) {
+				// getline var < ast3, in one step
+				int ast3_result = ast3.populateTuples(tuples);
+				assert ast3_result == 1;
+				ID_AST id_ast = (ID_AST) ast2;
+				tuples.getlineFileToVariable(id_ast.offset, id_ast.is_global);
+				// the return code is left on the stack
+				popSourceLineNumber(tuples);
+				return 1;
 			} else if (ast3 != null) {
 				// getline ... < ast3
 				int ast3_result = ast3.populateTuples(tuples);
@@ -4679,9 +4927,8 @@ public class AwkParser {
 			if (ast1 != null) {
 				int ast1_result = ast1.populateTuples(tuples);
 				assert ast1_result == 1;
-				tuples.setReturnResult();
 			}
-			tuples.gotoAddress(returnable.returnAddress());
+			returnable.populateReturn(tuples, this);
 			popSourceLineNumber(tuples);
 			return 0;
 		}
@@ -4897,6 +5144,14 @@ public class AwkParser {
 		private void checkActualToFormalParameters(AST actual_params) {
 			function_def_ast.checkActualToFormalParameters(actual_params);
 		}
+
+		private boolean isInlinable(AST actual_params) {
+			return function_def_ast.isInlinable(actual_params);
+		}
+
+		private void populateInlinedCall(AwkTuples tuples, AST actual_params, int actual_param_count) {
+			function_def_ast.populateInlinedCall(tuples, actual_params, actual_param_count);
+		}
 	}
 
 	/**
@@ -4911,6 +5166,10 @@ public class AwkParser {
 	 */
 	public void populateGlobalVariableNameToOffsetMappings(AwkTuples tuples) {
 		for (String varname : symbol_table.global_ids.keySet()) {
+			if (symbol_table.hidden_ids.contains(varname)) {
+				// not assignable via -v or ARGV, nor dumped
+				continue;
+			}
 			ID_AST id_ast = symbol_table.global_ids.get(varname);
 			// The last arg originally was ", id_ast.is_scalar", but this is not set true
 			// if the variable use is ambiguous. Therefore, assume it is a scalar
@@ -4938,6 +5197,8 @@ public class AwkParser {
 		private Map<String, Map<String, ID_AST>> local_ids = new HashMap<String, Map<String, ID_AST>>();
 		private Map<String, Set<String>> function_parameters = new HashMap<String, Set<String>>();
 		private Set<String> ids = new HashSet<String>();
+		// names of the globals allocated by addHiddenGlobal()
+		private Set<String> hidden_ids = new HashSet<String>();
 
 		// current function definition for symbols
 		private String func_name = null;
@@ -5049,6 +5310,22 @@ public class AwkParser {
 			return local_ids.get(func_name).get(f_id_string);
 		}
 
+		/**
+		 * Allocates a global variable the script cannot refer to,
+		 * as its name is not a valid identifier.
+		 * It is left out of the name to offset mappings,
+		 * so that it cannot be assigned from the command-line either.
+		 */
+		ID_AST addHiddenGlobal(String name) {
+			assert global_ids.get(name) == null;
+			ID_AST id_ast = new ID_AST(name, true);
+			id_ast.offset = global_ids.size();
+			id_ast.setScalar(true);
+			global_ids.put(name, id_ast);
+			hidden_ids.add(name);
+			return id_ast;
+		}
+
 		AST addArrayID(String id)
 				throws ParserException
 		{
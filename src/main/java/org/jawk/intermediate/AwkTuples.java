@@ -11,17 +11,17 @@ import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.jawk.util.LazyLogger;
 import org.jawk.util.LinkedListStackImpl;
 import org.jawk.util.MyStack;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 
 public class AwkTuples implements Serializable {
 
-	private static final Logger LOG = LoggerFactory.getLogger(AwkTuples.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(AwkTuples.class);
 
 	private VersionManager version_manager = new VersionManager();
 
@@ -1601,6 +1601,49 @@ public class AwkTuples implements Serializable {
 
 	public static final int _DELETE_ARRAY_ = 384;	// 0 -> 0
 
+	/**
+	 * Evaluate the condition <code>/regexp/</code> of a rule,
+	 * consulting the rule prefilter before the regexp itself
+	 * (see {@link #getRuleRegexps()}).
+	 * Implementations may instead push the Pattern, like {@link #_REGEXP_}.
+	 * <p>
+	 * Argument 0 is the regexp, argument 1 its slot in the rule prefilter.
+	 * </p>
+	 */
+	public static final int _RULE_REGEXP_ = 385;	// 0 -> x
+
+	/**
+	 * Pops an item from the stack and assigns it to a variable.
+	 * Unlike {@link #_ASSIGN_}, the item does not remain on the stack.
+	 * <p>
+	 * Argument 1: offset of the particular variable into the variable manager<br/>
+	 * Argument 2: whether the variable is global or local
+	 * </p>
+	 * <p>
+	 * Stack before: x ...<br/>
+	 * Stack after: ...
+	 * </p>
+	 */
+	public static final int _POP_TO_VARIABLE_ = 386;	// x -> 0
+
+	/**
+	 * Reads the next record of a file into a variable,
+	 * as <code>getline var &lt; file</code>;
+	 * the same as {@link #_USE_AS_FILE_INPUT_} followed by
+	 * {@link #_ASSIGN_} and {@link #_POP_}, in a single step.
+	 * The variable is assigned the empty string
+	 * at the end of the file or upon an IO error.
+	 * <p>
+	 * Argument 1: offset of the particular variable into the variable manager<br/>
+	 * Argument 2: whether the variable is global or local
+	 * </p>
+	 * <p>
+	 * Stack before: filename ...<br/>
+	 * Stack after: -1/0/1 for io-err,eof,success ...
+	 * </p>
+	 */
+	public static final int _GETLINE_FILE_TO_VARIABLE_ = 387;	// x -> x
+
 	/**
 	 * Override add() to populate the line number for each tuple,
 	 * rather than polluting all the constructors with this assignment.
@@ -1737,6 +1780,10 @@ public class AwkTuples implements Serializable {
 		queue.add(new Tuple(_ASSIGN_, offset, is_global));
 	}
 
+	public void popToVariable(int offset, boolean is_global) {
+		queue.add(new Tuple(_POP_TO_VARIABLE_, offset, is_global));
+	}
+
 	public void assignArray(int offset, boolean is_global) {
 		queue.add(new Tuple(_ASSIGN_ARRAY_, offset, is_global));
 	}
@@ -2034,6 +2081,10 @@ public class AwkTuples implements Serializable {
 		queue.add(new Tuple(_USE_AS_FILE_INPUT_));
 	}
 
+	public void getlineFileToVariable(int offset, boolean is_global) {
+		queue.add(new Tuple(_GETLINE_FILE_TO_VARIABLE_, offset, is_global));
+	}
+
 	public void useAsCommandInput() {
 		queue.add(new Tuple(_USE_AS_COMMAND_INPUT_));
 	}
@@ -2155,8 +2206,40 @@ public class AwkTuples implements Serializable {
 		queue.add(new Tuple(_REGEXP_, regexp_str));
 	}
 
-	public void regexpPair() {
-		queue.add(new Tuple(_REGEXP_PAIR_));
+	/**
+	 * @param slot1 The rule prefilter slot of the first regexp, or -1.
+	 * @param slot2 The rule prefilter slot of the second regexp, or -1.
+	 */
+	public void regexpPair(int slot1, int slot2) {
+		queue.add(new Tuple(_REGEXP_PAIR_, slot1, slot2));
+	}
+
+	/**
+	 * @param regexp_str The regexp of a rule condition <code>/regexp/</code>.
+	 */
+	public void ruleRegexp(String regexp_str) {
+		queue.add(new Tuple(_RULE_REGEXP_, regexp_str, addRuleRegexp(regexp_str)));
+	}
+
+	/**
+	 * Register the regexp of a rule condition,
+	 * which is always matched against $0.
+	 *
+	 * @param regexp_str The regexp.
+	 *
+	 * @return Its slot, i.e. index in {@link #getRuleRegexps()}.
+	 */
+	public int addRuleRegexp(String regexp_str) {
+		rule_regexps.add(regexp_str);
+		return rule_regexps.size() - 1;
+	}
+
+	/**
+	 * @return The regexps of rule conditions, indexed by slot;
+	 *   used to prefilter them by their literals.
+	 */
+	public List<String> getRuleRegexps() {
+		return rule_regexps;
 	}
 
 	public void isIn() {
@@ -2181,6 +2264,34 @@ public class AwkTuples implements Serializable {
 
 	public void extension(String extension_keyword, int param_count, boolean is_initial) {
 		queue.add(new Tuple(_EXTENSION_, extension_keyword, param_count, is_initial));
+		extension_keywords.add(extension_keyword);
+	}
+
+	/**
+	 * @return The extension keywords used by the script;
+	 *   only the extensions providing them need to be started.
+	 */
+	public Set<String> getExtensionKeywords() {
+		return extension_keywords;
+	}
+
+	/**
+	 * Upon deserialization, recovers the extension keywords
+	 * from the tuples, for intermediate files written
+	 * before they were recorded.
+	 */
+	private void readObject(ObjectInputStream ois)
+			throws IOException, ClassNotFoundException
+	{
+		ois.defaultReadObject();
+		if (extension_keywords == null) {
+			extension_keywords = new HashSet<String>();
+			for (Tuple tuple : queue) {
+				if (tuple.opcode == _EXTENSION_) {
+					extension_keywords.add(tuple.strings[0]);
+				}
+			}
+		}
 	}
 
 	public void dump(PrintStream ps) {
@@ -2221,6 +2332,8 @@ public class AwkTuples implements Serializable {
 		}
 	}
 	private Map<String, Integer> global_var_offset_map = new HashMap<String, Integer>();
+	private List<String> rule_regexps = new ArrayList<String>();
+	private Set<String> extension_keywords = new HashSet<String>();
 	private Map<String, Boolean> global_var_aarray_map = new HashMap<String, Boolean>();
 	private Set<String> function_names = null;
 
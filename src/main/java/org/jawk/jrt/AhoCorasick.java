@@ -0,0 +1,131 @@
+package org.jawk.jrt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An Aho-Corasick automaton, which finds all occurrences
+ * of a set of literal strings in a single pass over the text.
+ * <p>
+ * Transitions for ASCII characters are precomputed into a table;
+ * other characters follow the failure links at scan time.
+ * </p>
+ */
+final class AhoCorasick {
+
+	/** goto function of the trie; index: state, value: child states by character */
+	private final List<Map<Character, Integer>> children = new ArrayList<Map<Character, Integer>>();
+	private final int[] failure;
+	/** complete transitions for ASCII characters */
+	private final int[][] asciiNext;
+	/** indices of the literals ending in a state, or <code>null</code> */
+	private final int[][] outputs;
+
+	/**
+	 * @param literals The (non-empty) strings to find;
+	 *   they are identified by their index.
+	 */
+	AhoCorasick(List<String> literals) {
+		List<List<Integer>> ends = new ArrayList<List<Integer>>();
+		newState(ends);
+		for (int i = 0; i < literals.size(); i++) {
+			int state = 0;
+			String literal = literals.get(i);
+			for (int j = 0; j < literal.length(); j++) {
+				Character c = Character.valueOf(literal.charAt(j));
+				Integer child = children.get(state).get(c);
+				if (child == null) {
+					child = newState(ends);
+					children.get(state).put(c, child);
+				}
+				state = child;
+			}
+			ends.get(state).add(i);
+		}
+
+		int stateCount = children.size();
+		failure = new int[stateCount];
+		asciiNext = new int[stateCount][];
+		outputs = new int[stateCount][];
+		// breadth first, so that failure states are complete before they are used
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		queue.add(0);
+		while (!queue.isEmpty()) {
+			int state = queue.removeFirst();
+			List<Integer> out = ends.get(state);
+			if (state != 0) {
+				int[] inherited = outputs[failure[state]];
+				if (inherited != null) {
+					for (int id : inherited) {
+						out.add(id);
+					}
+				}
+			}
+			if (!out.isEmpty()) {
+				outputs[state] = new int[out.size()];
+				for (int i = 0; i < outputs[state].length; i++) {
+					outputs[state][i] = out.get(i);
+				}
+			}
+			asciiNext[state] = state == 0 ? new int[128] : Arrays.copyOf(asciiNext[failure[state]], 128);
+			for (Map.Entry<Character, Integer> child : children.get(state).entrySet()) {
+				char c = child.getKey().charValue();
+				int next = child.getValue().intValue();
+				failure[next] = state == 0 ? 0 : step(failure[state], c);
+				if (c < 128) {
+					asciiNext[state][c] = next;
+				}
+				queue.add(next);
+			}
+		}
+	}
+
+	private int newState(List<List<Integer>> ends) {
+		children.add(new HashMap<Character, Integer>(4));
+		ends.add(new ArrayList<Integer>(1));
+		return children.size() - 1;
+	}
+
+	private int step(int state, char c) {
+		if (c < 128) {
+			return asciiNext[state][c];
+		}
+		Character key = Character.valueOf(c);
+		while (true) {
+			Integer next = children.get(state).get(key);
+			if (next != null) {
+				return next.intValue();
+			}
+			if (state == 0) {
+				return 0;
+			}
+			state = failure[state];
+		}
+	}
+
+	/**
+	 * Scan <code>text</code>, and mark the literals occurring in it.
+	 *
+	 * @param text The text to scan.
+	 * @param found Set to <code>true</code> at the index of each literal found;
+	 *   other elements are left untouched.
+	 */
+	void scan(String text, boolean[] found) {
+		int state = 0;
+		int len = text.length();
+		for (int i = 0; i < len; i++) {
+			char c = text.charAt(i);
+			state = c < 128 ? asciiNext[state][c] : step(state, c);
+			int[] out = outputs[state];
+			if (out != null) {
+				for (int id : out) {
+					found[id] = true;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package org.jawk.jrt;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A PrintStream which sends its output to an <code>Appendable</code>,
+ * such as a <code>Writer</code> or a <code>StringBuilder</code>.
+ * <p>
+ * The runtime writes its output to PrintStreams.
+ * This class allows to direct that output to character based
+ * destinations. Text printed via <code>print</code> and
+ * <code>println</code> is appended as is, without an intermediate
+ * encoding step. Raw bytes (i.e., the output of a spawned process)
+ * are decoded with the supplied charset before being appended.
+ * </p>
+ */
+public class AppendablePrintStream extends PrintStream {
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n");
+
+	private final Appendable appendable;
+
+	/**
+	 * Create a PrintStream appending to <code>appendable</code>,
+	 * decoding raw bytes with the platform default charset.
+	 *
+	 * @param appendable Where to send the output to.
+	 */
+	public AppendablePrintStream(Appendable appendable) {
+		this(appendable, Charset.defaultCharset());
+	}
+
+	/**
+	 * Create a PrintStream appending to <code>appendable</code>.
+	 *
+	 * @param appendable Where to send the output to.
+	 * @param charset Used to decode raw bytes written to this stream.
+	 */
+	public AppendablePrintStream(Appendable appendable, Charset charset) {
+		super(new DecodingOutputStream(appendable, charset), false);
+		this.appendable = appendable;
+	}
+
+	/**
+	 * @return The destination of this stream.
+	 */
+	public Appendable getAppendable() {
+		return appendable;
+	}
+
+	private void appendText(CharSequence text) {
+		try {
+			synchronized (this) {
+				// raw bytes written earlier have to precede the text
+				super.flush();
+				appendable.append(text);
+			}
+		} catch (IOException ioe) {
+			setError();
+		}
+	}
+
+	@Override
+	public void print(String s) {
+		appendText(s == null ? "null" : s);
+	}
+
+	@Override
+	public void print(Object obj) {
+		appendText(String.valueOf(obj));
+	}
+
+	@Override
+	public void print(char c) {
+		appendText(String.valueOf(c));
+	}
+
+	@Override
+	public void println() {
+		appendText(LINE_SEPARATOR);
+	}
+
+	@Override
+	public void println(String s) {
+		synchronized (this) {
+			print(s);
+			println();
+		}
+	}
+
+	@Override
+	public void println(Object obj) {
+		synchronized (this) {
+			print(obj);
+			println();
+		}
+	}
+
+	@Override
+	public PrintStream append(CharSequence csq) {
+		appendText(csq == null ? "null" : csq);
+		return this;
+	}
+
+	@Override
+	public void flush() {
+		super.flush();
+		if (appendable instanceof Flushable) {
+			try {
+				((Flushable) appendable).flush();
+			} catch (IOException ioe) {
+				setError();
+			}
+		}
+	}
+
+	/**
+	 * Flushes this stream at the end of an execution.
+	 * If the destination is a {@link RecordWriter},
+	 * its unterminated last line is handed over as well.
+	 */
+	public void finish() {
+		flush();
+		if (appendable instanceof RecordWriter) {
+			((RecordWriter) appendable).finish();
+		}
+	}
+
+	/**
+	 * Decodes bytes, appending the resulting characters.
+	 * Incomplete multi-byte sequences are retained until
+	 * the remaining bytes arrive.
+	 */
+	private static final class DecodingOutputStream extends OutputStream {
+
+		private final Appendable appendable;
+		private final CharsetDecoder decoder;
+		private ByteBuffer pending = ByteBuffer.allocate(64);
+		private final CharBuffer decoded = CharBuffer.allocate(1024);
+
+		private DecodingOutputStream(Appendable appendable, Charset charset) {
+			this.appendable = appendable;
+			this.decoder = charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (pending.remaining() < len) {
+				ByteBuffer bigger = ByteBuffer.allocate(pending.position() + len);
+				pending.flip();
+				bigger.put(pending);
+				pending = bigger;
+			}
+			pending.put(b, off, len);
+			pending.flip();
+			while (true) {
+				boolean overflow = decoder.decode(pending, decoded, false).isOverflow();
+				decoded.flip();
+				appendable.append(decoded);
+				decoded.clear();
+				if (!overflow) {
+					break;
+				}
+			}
+			pending.compact();
+		}
+
+		@Override
+		public void flush() throws IOException {
+			// incomplete sequences remain pending
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (appendable instanceof Closeable) {
+				((Closeable) appendable).close();
+			}
+		}
+	}
+}
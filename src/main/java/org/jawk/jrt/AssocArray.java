@@ -18,11 +18,29 @@ import java.util.TreeMap;
  * sorted order or not) and delegates calls to it
  * accordingly.
  * </p>
+ * <p>
+ * Keys which are the canonical string form of an integer
+ * (like <code>"12"</code>, but not <code>"012"</code> or <code>"+12"</code>)
+ * are stored as Integer keys, so <code>a["12"]</code> and <code>a[12]</code>
+ * designate the same element, which is stored only once.
+ * </p>
  */
 public class AssocArray implements Comparator<Object> {
 
 	private Map<Object, Object> map;
 
+	/**
+	 * Incremented by every operation which modifies the contents
+	 * through this class.
+	 */
+	private int modificationCount = 0;
+
+	/**
+	 * Elements to put into this array upon its first access,
+	 * or null (see {@link #setLazyContents(Map)}).
+	 */
+	private Map<?, ?> lazyContents = null;
+
 	public AssocArray(boolean sortedArrayKeys) {
 		if (sortedArrayKeys) {
 			map = new TreeMap<Object, Object>(this);
@@ -56,6 +74,7 @@ public class AssocArray implements Comparator<Object> {
 	 */
 	public void useMapType(int mapType) {
 		assert map.isEmpty();
+		++modificationCount;
 		switch (mapType) {
 			case MT_HASH:
 				map = new HashMap<Object, Object>();
@@ -77,6 +96,7 @@ public class AssocArray implements Comparator<Object> {
 	 * It exists to support the _DUMP keyword.
 	 */
 	public String mapString() {
+		materialize();
 		// was:
 		//return map.toString();
 		// but since the extensions, assoc arrays can become keys as well
@@ -116,7 +136,8 @@ public class AssocArray implements Comparator<Object> {
 	 * It exists to support the IN keyword.
 	 */
 	public boolean isIn(Object key) {
-		return map.get(key) != null;
+		materialize();
+		return map.get(toMapKey(key)) != null;
 	}
 
 	/**
@@ -127,58 +148,170 @@ public class AssocArray implements Comparator<Object> {
 	 * with this key, and the null value is returned.
 	 */
 	public Object get(Object key) {
-		Object result = map.get(key);
+		materialize();
+		Object map_key = toMapKey(key);
+		Object result = map.get(map_key);
 		if (result == null) {
-			if (key != null) {
-				try {
-					// try a primitive version key
-					int iKey = Integer.parseInt(key.toString());
-					result = map.get(iKey);
-
-					if (result != null)
-						return result;
-				} catch (Exception e) {
-				}
-			}
 			// based on the AWK specification:
 			// Any reference (except for IN expressions) to a non-existent
 			// array element will automatically create it.
 			result = BLANK;
-			map.put(key, result);
+			++modificationCount;
+			map.put(map_key, result);
 		}
 		return result;
 	}
 
 	public Object put(Object key, Object value) {
-		if (key != null) {
-			try {
-				// Save a primitive version
-				int iKey = Integer.parseInt(key.toString());
-				put(iKey, value);
-			} catch (Exception e) {
-			}
-		}
-
-		return map.put(key, value);
+		materialize();
+		++modificationCount;
+		return map.put(toMapKey(key), value);
 	}
 
 	/**
 	 * Added to support insertion of primitive key types.
 	 */
 	public Object put(int key, Object value) {
+		materialize();
+		++modificationCount;
 		return map.put(key, value);
 	}
 
 	public Set<Object> keySet() {
+		materialize();
 		return map.keySet();
 	}
 
+	/**
+	 * The number of elements.
+	 * It does not populate a lazily populated array.
+	 */
+	public int size() {
+		Map<?, ?> contents = lazyContents;
+		return map.size() + (contents == null ? 0 : contents.size());
+	}
+
 	public void clear() {
+		++modificationCount;
+		lazyContents = null;
 		map.clear();
 	}
 
 	public Object remove(Object key) {
-		return map.remove(key);
+		materialize();
+		++modificationCount;
+		return map.remove(toMapKey(key));
+	}
+
+	/**
+	 * The key under which an element is stored in the backing map:
+	 * the Integer for the canonical string form of an integer,
+	 * the key itself otherwise.
+	 * Parsing does not throw exceptions on the (common) keys
+	 * which are not integers, as they are expensive.
+	 */
+	private static Object toMapKey(Object key) {
+		if (!(key instanceof String)) {
+			return key;
+		}
+		String s = (String) key;
+		int len = s.length();
+		int start = len > 0 && s.charAt(0) == '-' ? 1 : 0;
+		// at most 10 digits; no leading zero, and no "-0"
+		if (len == start || len - start > 10
+				|| (s.charAt(start) == '0' && (len > 1)))
+		{
+			return key;
+		}
+		long value = 0;
+		for (int i = start; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				return key;
+			}
+			value = value * 10 + (c - '0');
+		}
+		if (start == 1) {
+			value = -value;
+		}
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			return key;
+		}
+		return Integer.valueOf((int) value);
+	}
+
+	/**
+	 * Prepare this empty array for the given number of elements,
+	 * so the backing map does not have to grow repeatedly
+	 * while they are added.
+	 * It has no effect on sorted arrays, or arrays with elements.
+	 *
+	 * @param expectedSize The number of elements about to be added.
+	 */
+	public void presize(int expectedSize) {
+		if (!map.isEmpty() || lazyContents != null || !(map instanceof HashMap)) {
+			return;
+		}
+		// stays below the default load factor
+		int capacity = (int) Math.min(Integer.MAX_VALUE / 2, expectedSize * 4L / 3 + 1);
+		if (map instanceof LinkedHashMap) {
+			map = new LinkedHashMap<Object, Object>(capacity);
+		} else {
+			map = new HashMap<Object, Object>(capacity);
+		}
+	}
+
+	/**
+	 * Store the elements of this array in a compact table
+	 * (see {@link CompactMap}), which needs much less memory
+	 * for large arrays which are mostly read after being filled,
+	 * like lookup tables.
+	 * The array remains modifiable.
+	 * It has no effect on arrays with an order (sorted or linked).
+	 */
+	public void compact() {
+		materialize();
+		if (map.getClass() == HashMap.class) {
+			map = new CompactMap(map);
+		}
+	}
+
+	/**
+	 * Defers populating this (empty) array with the given elements
+	 * until it is first accessed, as if by
+	 * <code>put(Object, Object)</code>.
+	 * It saves copying large maps, such as the environment
+	 * variables for ENVIRON, into arrays a script never references.
+	 *
+	 * @param contents The elements to populate this array with;
+	 *   it must not change until this array is accessed.
+	 */
+	public void setLazyContents(Map<?, ?> contents) {
+		assert map.isEmpty() && lazyContents == null;
+		lazyContents = contents;
+	}
+
+	private void materialize() {
+		if (lazyContents != null) {
+			Map<?, ?> contents = lazyContents;
+			lazyContents = null;
+			// populating is not a modification by the script
+			int count = modificationCount;
+			for (Map.Entry<?, ?> entry : contents.entrySet()) {
+				put(entry.getKey(), entry.getValue());
+			}
+			modificationCount = count;
+		}
+	}
+
+	/**
+	 * A counter which changes whenever the contents are modified
+	 * through this class (not through {@link #keySet()}).
+	 * It allows to cheaply detect whether a pre-populated array
+	 * (i.e., ENVIRON) is still pristine, and therefore reusable.
+	 */
+	public int getModificationCount() {
+		return modificationCount;
 	}
 
 	@Override
@@ -189,25 +322,33 @@ public class AssocArray implements Comparator<Object> {
 	/**
 	 * Comparator implementation used by the TreeMap
 	 * when keys are to be maintained in sorted order.
+	 * Numeric keys come first, in numerical order,
+	 * followed by the other keys, in string order.
+	 * (Comparing a number to a string as strings
+	 * would not be transitive, ie. 9 &lt; 10 &lt; "5x" &lt; 9.)
 	 */
 	@Override
 	public int compare(Object o1, Object o2) {
 
-		if (o1 instanceof String || o2 instanceof String) {
-			// use string comparison
-			String s1 = o1.toString();
-			String s2 = o2.toString();
-			return s1.compareTo(s2);
-		} else {
-			if (o1 instanceof Double || o2 instanceof Double) {
-				Double d1 = ((Double) o1);
-				Double d2 = ((Double) o2);
-				return d1.compareTo(d2);
-			} else {
-				Integer i1 = ((Integer) o1);
-				Integer i2 = ((Integer) o2);
-				return i1.compareTo(i2);
+		boolean is_number1 = o1 instanceof Number;
+		boolean is_number2 = o2 instanceof Number;
+		if (is_number1 && is_number2) {
+			if (o1 instanceof Integer && o2 instanceof Integer) {
+				return ((Integer) o1).compareTo((Integer) o2);
 			}
+			int cmp = Double.compare(((Number) o1).doubleValue(), ((Number) o2).doubleValue());
+			if (cmp == 0) {
+				// distinct keys for the HashMap as well (ie. 5 and 5.0)
+				cmp = o1.getClass().getName().compareTo(o2.getClass().getName());
+			}
+			return cmp;
+		} else if (is_number1) {
+			return -1;
+		} else if (is_number2) {
+			return 1;
+		} else {
+			// use string comparison
+			return o1.toString().compareTo(o2.toString());
 		}
 	}
 
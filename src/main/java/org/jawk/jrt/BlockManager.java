@@ -2,29 +2,45 @@ package org.jawk.jrt;
 
 import java.util.LinkedList;
 import java.util.List;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.jawk.util.LazyLogger;
 
 /**
  * Manages multiple blocking code segments simultaneously such that
  * unblocking one block condition releases the block of all other
  * block code segments.
+ * <p>
+ * A BlockManager may be reused for any number of block operations,
+ * one at a time.
+ * </p>
  *
  * @see BlockObject
  * @see BulkBlockObject
  */
 public class BlockManager {
 
-	private static final Logger LOG = LoggerFactory.getLogger(BlockManager.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(BlockManager.class);
 
-	private final Object notifierLock = "NOTIFIER_LOCK";
+	private final Object notifierLock = new Object();
 	private String notifier = null;
 
+	/** guards signalCount */
+	private final Object signalLock = new Object();
+	/** incremented by each {@link #wakeUp()} */
+	private long signalCount = 0;
+
 	/**
 	 * Executes all block segments simultaneously, waiting for
 	 * one block release.
 	 * <p>
-	 * The algorithm is as follows:
+	 * If all block objects support polling
+	 * (see {@link BlockObject#supportsPolling()}),
+	 * the calling thread polls all of them in order,
+	 * and waits for a {@link BlockObject#signalReady()}
+	 * (or a wakeup time) of any of them in between.
+	 * No threads are created in this case.
+	 * </p>
+	 * <p>
+	 * Otherwise, the algorithm is as follows:
 	 * <ul>
 	 * <li>Collect linked block objects into a List.</li>
 	 * <li>Spawn a BlockThread for each block object.</li>
@@ -58,8 +74,18 @@ public class BlockManager {
 	public String block(BlockObject bo) {
 		// get all block objects
 		List<BlockObject> bos = bo.getBlockObjects();
+
+		boolean pollable = true;
+		for (BlockObject blockobj : bos) {
+			pollable &= blockobj.supportsPolling();
+		}
+		if (pollable) {
+			return pollBlock(bos);
+		}
+
 		// each block object contains a wait statement
 		// (either indefinite or timed)
+		notifier = null;
 
 		// for each block object
 		// 	spawn a thread (preferably using a threadpool)
@@ -96,6 +122,60 @@ public class BlockManager {
 		return notifier;
 	}
 
+	private String pollBlock(List<BlockObject> bos) {
+		for (BlockObject blockobj : bos) {
+			blockobj.setWaiter(this);
+		}
+		try {
+			while (true) {
+				long seenSignals;
+				synchronized (signalLock) {
+					seenSignals = signalCount;
+				}
+				// poll outside of signalLock,
+				// as polling may lock the producers
+				long wakeupTime = BlockObject.NO_WAKEUP_TIME;
+				for (BlockObject blockobj : bos) {
+					if (blockobj.poll()) {
+						return blockobj.getNotifierTag();
+					}
+					wakeupTime = Math.min(wakeupTime, blockobj.getWakeupTime());
+				}
+				// wait for a signal which arrived after seenSignals
+				synchronized (signalLock) {
+					while (signalCount == seenSignals) {
+						if (wakeupTime == BlockObject.NO_WAKEUP_TIME) {
+							signalLock.wait();
+						} else {
+							long delay = wakeupTime - System.currentTimeMillis();
+							if (delay <= 0) {
+								break;
+							}
+							signalLock.wait(delay);
+						}
+					}
+				}
+			}
+		} catch (InterruptedException ie) {
+			throw new Error("A block operation cannot be interrupted.", ie);
+		} finally {
+			for (BlockObject blockobj : bos) {
+				blockobj.setWaiter(null);
+			}
+		}
+	}
+
+	/**
+	 * Called by block objects which may have become ready,
+	 * to make a polling block operation poll again.
+	 */
+	void wakeUp() {
+		synchronized (signalLock) {
+			++signalCount;
+			signalLock.notify();
+		}
+	}
+
 	private final class BlockThread extends Thread {
 
 		private BlockObject bo;
@@ -21,6 +21,14 @@ import java.util.Set;
  * and getNotifierTag() routines.
  * </p>
  * <p>
+ * Subclasses may additionally support polling
+ * (see {@link #supportsPolling()}), which allows
+ * the BlockManager to wait for a whole chain with
+ * a single thread, the caller itself.
+ * Such subclasses must call {@link #signalReady()}
+ * whenever they may have become ready.
+ * </p>
+ * <p>
  * BlockObjects do not actually perform the client
  * blocking. This is done by the BlockManager at the
  * AVM (interpreted) or compiled runtime environment.
@@ -34,8 +42,14 @@ import java.util.Set;
  */
 public abstract class BlockObject {
 
+	/** Indicates that a block object does not become ready by itself. */
+	public static final long NO_WAKEUP_TIME = Long.MAX_VALUE;
+
 	private BlockObject nextBlockObject = null;
 
+	/** the BlockManager currently waiting for this BlockObject */
+	private volatile BlockManager waiter = null;
+
 	protected BlockObject() {}
 
 	/**
@@ -51,6 +65,61 @@ public abstract class BlockObject {
 	 */
 	public abstract void block() throws InterruptedException;
 
+	/**
+	 * Whether this BlockObject implements {@link #poll()}.
+	 * If all BlockObjects of a chain do, the BlockManager
+	 * waits on the chain without spawning threads.
+	 *
+	 * @return <code>false</code> by default
+	 */
+	public boolean supportsPolling() {
+		return false;
+	}
+
+	/**
+	 * Check, without blocking, whether block() would return
+	 * immediately. If so, this BlockObject has to prepare
+	 * its notifier tag, just like upon returning from block().
+	 * Only called if {@link #supportsPolling()}.
+	 *
+	 * @return <code>true</code> if this BlockObject is unblocked;
+	 *   <code>false</code> by default
+	 */
+	public boolean poll() {
+		return false;
+	}
+
+	/**
+	 * When this BlockObject becomes ready without any
+	 * {@link #signalReady()}, like a timeout does.
+	 *
+	 * @return The time in milliseconds (as in System.currentTimeMillis()),
+	 *   or {@link #NO_WAKEUP_TIME}.
+	 */
+	public long getWakeupTime() {
+		return NO_WAKEUP_TIME;
+	}
+
+	/**
+	 * Wake up whoever is waiting for this BlockObject,
+	 * because it may have become ready.
+	 * This wakes a thread waiting on this object's monitor
+	 * within block(), as well as a BlockManager polling it.
+	 */
+	public final void signalReady() {
+		synchronized (this) {
+			notifyAll();
+		}
+		BlockManager bm = waiter;
+		if (bm != null) {
+			bm.wakeUp();
+		}
+	}
+
+	final void setWaiter(BlockManager waiter) {
+		this.waiter = waiter;
+	}
+
 
 	/**
 	 * Eliminate the rest of the BlockObject chain.
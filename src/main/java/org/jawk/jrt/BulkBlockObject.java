@@ -107,6 +107,21 @@ public final class BulkBlockObject extends BlockObject {
 		}
 	}
 
+	@Override
+	public boolean supportsPolling() {
+		return true;
+	}
+
+	@Override
+	public boolean poll() {
+		String handle = checkForNonblockHandle();
+		if (handle.equals(ALL_HANDLES_ARE_BLANK) || handle.equals(ALL_HANDLES_ARE_BLOCKED)) {
+			return false;
+		}
+		blockResult = handle;
+		return true;
+	}
+
 	private String checkForNonblockHandle() {
 		boolean allHandlesAreBlank = true;
 		// cycle through all block_handles
@@ -0,0 +1,199 @@
+package org.jawk.jrt;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map which stores a given set of entries in two arrays,
+ * open addressed by the hash of the keys,
+ * instead of one entry object per element like HashMap.
+ * It is meant for large lookup tables, which are filled once
+ * and then mostly read (see {@link AssocArray#compact()}).
+ * <p>
+ * The set of keys of the arrays is fixed: assigning to one of these
+ * keys replaces the value in place, and removing one of them leaves
+ * an empty slot behind. Other keys go to a regular HashMap.
+ * </p>
+ * <p>
+ * Null values are not supported, as they mark removed entries.
+ * Iterators do not support removal.
+ * </p>
+ */
+final class CompactMap extends AbstractMap<Object, Object> {
+
+	private final Object[] keys;
+	/** null for removed entries */
+	private final Object[] values;
+	private final int mask;
+	/** the number of entries in the arrays which are not removed */
+	private int table_size;
+	/** entries which are not in the arrays */
+	private final Map<Object, Object> others = new HashMap<Object, Object>();
+
+	/**
+	 * @param contents The entries to store in the arrays.
+	 */
+	CompactMap(Map<?, ?> contents) {
+		int capacity = 2;
+		// stays below a load factor of 3/4
+		while (capacity < contents.size() + contents.size() / 3 + 1) {
+			capacity <<= 1;
+		}
+		keys = new Object[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		for (Map.Entry<?, ?> entry : contents.entrySet()) {
+			int i = slot(entry.getKey());
+			keys[i] = entry.getKey();
+			values[i] = entry.getValue();
+		}
+		table_size = contents.size();
+	}
+
+	/**
+	 * @return The slot of the key in the arrays,
+	 *   or the empty one where it would be.
+	 */
+	private int slot(Object key) {
+		int h = key.hashCode();
+		int i = (h ^ (h >>> 16)) & mask;
+		Object k;
+		while ((k = keys[i]) != null && !k.equals(key)) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (key != null) {
+			int i = slot(key);
+			if (keys[i] != null) {
+				return values[i];
+			}
+		}
+		return others.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public Object put(Object key, Object value) {
+		if (key != null) {
+			int i = slot(key);
+			if (keys[i] != null) {
+				Object old = values[i];
+				values[i] = value;
+				if (old == null) {
+					++table_size;
+				}
+				return old;
+			}
+		}
+		return others.put(key, value);
+	}
+
+	@Override
+	public Object remove(Object key) {
+		if (key != null) {
+			int i = slot(key);
+			if (keys[i] != null) {
+				Object old = values[i];
+				values[i] = null;
+				if (old != null) {
+					--table_size;
+				}
+				return old;
+			}
+		}
+		return others.remove(key);
+	}
+
+	@Override
+	public int size() {
+		return table_size + others.size();
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		table_size = 0;
+		others.clear();
+	}
+
+	@Override
+	public Set<Map.Entry<Object, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<Object, Object>>() {
+
+			@Override
+			public Iterator<Map.Entry<Object, Object>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return CompactMap.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Iterates over the entries in the arrays,
+	 * then over the other entries.
+	 */
+	private final class EntryIterator implements Iterator<Map.Entry<Object, Object>> {
+
+		private int next = advance(0);
+		private Iterator<Map.Entry<Object, Object>> others_iterator = null;
+
+		/**
+		 * @return The first slot from i on with an entry,
+		 *   or the length of the arrays.
+		 */
+		private int advance(int i) {
+			while (i < keys.length && (keys[i] == null || values[i] == null)) {
+				++i;
+			}
+			return i;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next < keys.length) {
+				return true;
+			}
+			if (others_iterator == null) {
+				others_iterator = others.entrySet().iterator();
+			}
+			return others_iterator.hasNext();
+		}
+
+		@Override
+		public Map.Entry<Object, Object> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (next < keys.length) {
+				Map.Entry<Object, Object> entry = new AbstractMap.SimpleImmutableEntry<Object, Object>(keys[next], values[next]);
+				next = advance(next + 1);
+				return entry;
+			}
+			return others_iterator.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
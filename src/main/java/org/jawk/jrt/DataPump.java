@@ -3,19 +3,101 @@ package org.jawk.jrt;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Relay data from an input stream to an output stream.
- * A thread is created to do the work.
+ * The work is done by a thread of a pool shared by all data pumps.
  * <p>
  * Jawk uses data pumps to relay stdin, stdout, and stderr
  * of a spawned process (by, for example, system() or
  * "cmd" | getline) to the stdin, stdout, and/or stderr
  * of the calling process (the interpreter itself).
  * </p>
+ * <p>
+ * Where a stream of the process goes to the stdout or stderr
+ * of the interpreter unchanged, no pump is needed at all:
+ * the process can inherit it (see {@link #INHERIT_STDIO_PROPERTY}).
+ * </p>
  */
 public class DataPump implements Runnable {
 
+	/**
+	 * System property which, when set to <code>true</code>,
+	 * lets processes write directly to the stdout and stderr
+	 * of the JVM, rather than relaying their output.
+	 * <p>
+	 * Only set it when Jawk runs stand-alone: Jawk can not tell
+	 * whether <code>System.out</code> and <code>System.err</code>
+	 * are still the streams of the JVM, or were replaced by
+	 * the embedding application before Jawk was loaded;
+	 * in the latter case, the output of processes would bypass them.
+	 * </p>
+	 */
+	public static final String INHERIT_STDIO_PROPERTY = "jawk.inheritStdio";
+	private static final boolean INHERIT_STDIO = Boolean.getBoolean(INHERIT_STDIO_PROPERTY);
+
+	/**
+	 * Large enough to relay most outputs of commands
+	 * with only a few reads and writes.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Idle pump threads are reused for the next process,
+	 * so scripts spawning many commands do not create
+	 * two threads per command.
+	 * The threads do not keep the JVM alive;
+	 * callers wait for the pumps they depend on.
+	 */
+	private static final ExecutorService PUMPS = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "DataPump");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** The stdout of the interpreter, as it was when Jawk was loaded. */
+	@SuppressWarnings("UseOfSystemOutOrSystemErr")
+	private static final PrintStream STDOUT = System.out;
+	/** The stderr of the interpreter, as it was when Jawk was loaded. */
+	@SuppressWarnings("UseOfSystemOutOrSystemErr")
+	private static final PrintStream STDERR = System.err;
+
+	/**
+	 * <code>ProcessBuilder.Redirect.INHERIT</code>,
+	 * and the methods to apply it;
+	 * looked up reflectively, as they are not available before Java 7.
+	 */
+	private static final Object REDIRECT_INHERIT;
+	private static final Method REDIRECT_OUTPUT;
+	private static final Method REDIRECT_ERROR;
+	static {
+		Object inherit = null;
+		Method redirectOutput = null;
+		Method redirectError = null;
+		try {
+			Class<?> redirectClass = Class.forName("java.lang.ProcessBuilder$Redirect");
+			inherit = redirectClass.getField("INHERIT").get(null);
+			redirectOutput = ProcessBuilder.class.getMethod("redirectOutput", redirectClass);
+			redirectError = ProcessBuilder.class.getMethod("redirectError", redirectClass);
+		} catch (Exception ex) {
+			// before Java 7; always pump
+			inherit = null;
+		}
+		REDIRECT_INHERIT = inherit;
+		REDIRECT_OUTPUT = redirectOutput;
+		REDIRECT_ERROR = redirectError;
+	}
+
+	private String desc;
 	private InputStream is;
 	private PrintStream os;
 
@@ -26,38 +108,117 @@ public class DataPump implements Runnable {
 	 * @param out The output stream.
 	 */
 	public DataPump(InputStream in, PrintStream out) {
+		this("DataPump", in, out);
+	}
+
+	/**
+	 * Represents a data pump.
+	 *
+	 * @param desc A human-readable description of this data pump.
+	 * @param in The input stream.
+	 * @param out The output stream.
+	 */
+	public DataPump(String desc, InputStream in, PrintStream out) {
+		this.desc = desc;
 		this.is = in;
 		this.os = out;
-		//setDaemon(true);
 	}
 
 	/**
-	 * Allocate the data pump and start the thread.
+	 * Allocate the data pump and start it on a pooled thread.
 	 *
 	 * @param desc A human-readable description of this data pump.
-	 *   It is part of the thread name, and, therefore, visible
-	 *   upon a VM thread dump.
+	 *   It is part of the thread name while pumping, and, therefore,
+	 *   visible upon a VM thread dump.
 	 * @param in The input stream.
 	 * @param out The output stream.
+	 *
+	 * @return Completes once all the input was relayed,
+	 *   see {@link #await(Future)}.
+	 */
+	public static Future<?> dump(String desc, InputStream in, PrintStream out) {
+		return PUMPS.submit(new DataPump(desc, in, out));
+	}
+
+	/**
+	 * Wait until a data pump relayed all of its input.
+	 *
+	 * @param pump As returned by {@link #dump(String, InputStream, PrintStream)}.
+	 */
+	public static void await(Future<?> pump) {
+		try {
+			pump.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ee) {
+			throw new AwkRuntimeException("Failed to relay process output: " + ee.getCause());
+		}
+	}
+
+	/**
+	 * Let the process write its standard output directly
+	 * to the stdout of the interpreter,
+	 * if that is where it has to go,
+	 * and allowed by {@link #INHERIT_STDIO_PROPERTY}.
+	 *
+	 * @param pb The process to be started.
+	 * @param out Where the standard output of the process has to go.
+	 *
+	 * @return Whether no data pump is needed for the standard output.
 	 */
-	public static void dump(String desc, InputStream in, PrintStream out) {
-		new Thread(new DataPump(in, out), desc).start();
+	public static boolean inheritOutput(ProcessBuilder pb, PrintStream out) {
+		// the process can only inherit our stdout
+		return out == STDOUT && inherit(pb, REDIRECT_OUTPUT, out);
+	}
+
+	/**
+	 * Let the process write its standard error directly
+	 * to the stderr of the interpreter,
+	 * if that is where it has to go,
+	 * and allowed by {@link #INHERIT_STDIO_PROPERTY}.
+	 *
+	 * @param pb The process to be started.
+	 * @param err Where the standard error of the process has to go.
+	 *
+	 * @return Whether no data pump is needed for the standard error.
+	 */
+	public static boolean inheritError(ProcessBuilder pb, PrintStream err) {
+		return err == STDERR && inherit(pb, REDIRECT_ERROR, err);
+	}
+
+	private static boolean inherit(ProcessBuilder pb, Method redirect, PrintStream ours) {
+		if (!INHERIT_STDIO || REDIRECT_INHERIT == null) {
+			return false;
+		}
+		try {
+			redirect.invoke(pb, REDIRECT_INHERIT);
+		} catch (Exception ex) {
+			return false;
+		}
+		// what we wrote so far must precede what the process writes
+		ours.flush();
+		return true;
 	}
 
 	/**
-	 * VM entry point for the thread. It performs the data
+	 * Entry point for the pooled thread. It performs the data
 	 * relay.
 	 */
 	@Override
 	public final void run() {
+		Thread thread = Thread.currentThread();
+		String name = thread.getName();
+		thread.setName("DataPump: " + desc);
 		try {
-			byte[] b = new byte[4096];
+			byte[] b = new byte[BUFFER_SIZE];
 			int len;
 			while ((len = is.read(b, 0, b.length)) >= 0) {
 				os.write(b, 0, len);
 			}
 		} catch (IOException ioe) {
 			// ignore
+		} finally {
+			thread.setName(name);
 		}
 		try {
 			is.close();
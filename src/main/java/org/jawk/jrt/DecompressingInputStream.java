@@ -0,0 +1,197 @@
+package org.jawk.jrt;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a compressed file, which is decompressed by a separate thread.
+ * <p>
+ * The decompressing thread runs ahead of the reader
+ * by at most a few chunks of data, which are handed over
+ * through a bounded queue.
+ * This way, decompression overlaps with the processing
+ * of the decompressed data (the execution of the script),
+ * without requiring an external process like <code>zcat</code>.
+ * </p>
+ * <p>
+ * Gzip files (with the suffix <code>.gz</code>) are supported,
+ * including files of several concatenated gzip members.
+ * </p>
+ */
+public final class DecompressingInputStream extends InputStream implements Runnable {
+
+	/**
+	 * System property which, when set to <code>false</code>,
+	 * disables decompressing files with names of compressed files.
+	 */
+	public static final String DECOMPRESS_PROPERTY = "jawk.decompress";
+	private static final boolean DECOMPRESS = !"false".equalsIgnoreCase(System.getProperty(DECOMPRESS_PROPERTY));
+
+	private static final int CHUNK_SIZE = 65536;
+	/** how many decompressed chunks may wait for the reader */
+	private static final int QUEUED_CHUNKS = 4;
+	/** marks the end of the decompressed data */
+	private static final byte[] END = new byte[0];
+
+	private final InputStream compressed;
+	private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(QUEUED_CHUNKS);
+	private final Thread thread;
+	/** why decompression ended before the end of the data, if it did */
+	private volatile IOException failure = null;
+	private volatile boolean closed = false;
+	private byte[] current = null;
+	private int position = 0;
+
+	private DecompressingInputStream(InputStream compressed, String filename) {
+		this.compressed = compressed;
+		this.thread = new Thread(this, "Decompress " + filename);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @param filename The name of a file to read.
+	 *
+	 * @return Whether the file is read by {@link #open(String)}
+	 *   with decompression.
+	 */
+	public static boolean isCompressed(String filename) {
+		return DECOMPRESS && filename.endsWith(".gz");
+	}
+
+	/**
+	 * Open a compressed file, and start decompressing it.
+	 *
+	 * @param filename The name of a file for which
+	 *   {@link #isCompressed(String)} is <code>true</code>.
+	 *
+	 * @return The decompressed contents of the file.
+	 *
+	 * @throws IOException If the file cannot be opened,
+	 *   or if it does not start with a gzip header.
+	 */
+	public static InputStream open(String filename) throws IOException {
+		FileInputStream file = new FileInputStream(filename);
+		try {
+			// reads the header, so that a corrupt file is reported right away
+			return new DecompressingInputStream(new GZIPInputStream(file, CHUNK_SIZE), filename);
+		} catch (IOException ioe) {
+			file.close();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * VM entry point for the decompressing thread.
+	 */
+	@Override
+	public void run() {
+		try {
+			while (!closed) {
+				byte[] chunk = new byte[CHUNK_SIZE];
+				int length = 0;
+				int read = 0;
+				while (length < chunk.length && (read = compressed.read(chunk, length, chunk.length - length)) >= 0) {
+					length += read;
+				}
+				if (length > 0) {
+					chunks.put(length == chunk.length ? chunk : Arrays.copyOf(chunk, length));
+				}
+				if (read < 0) {
+					break;
+				}
+			}
+		} catch (IOException ioe) {
+			failure = ioe;
+		} catch (InterruptedException ie) {
+			// closed by the reader
+			return;
+		} finally {
+			try {
+				compressed.close();
+			} catch (IOException ioe) {}
+		}
+		try {
+			chunks.put(END);
+		} catch (InterruptedException ie) {}
+	}
+
+	/**
+	 * Make <code>current</code> a chunk with unread data,
+	 * waiting for the decompressing thread if necessary.
+	 *
+	 * @return <code>false</code> at the end of the data
+	 */
+	private boolean nextChunk() throws IOException {
+		while (current != END && (current == null || position == current.length)) {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+			try {
+				current = chunks.take();
+			} catch (InterruptedException ie) {
+				throw new InterruptedIOException("Interrupted while waiting for decompressed data");
+			}
+			position = 0;
+		}
+		if (current == END) {
+			if (failure != null) {
+				throw failure;
+			}
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextChunk()) {
+			return -1;
+		}
+		return current[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!nextChunk()) {
+			return -1;
+		}
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return current == null || current == END ? 0 : current.length - position;
+	}
+
+	/**
+	 * Stop decompressing, and release the file.
+	 * Waits for the decompressing thread to end,
+	 * which takes at most the decompression of one chunk.
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			thread.interrupt();
+			chunks.clear();
+			try {
+				thread.join();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
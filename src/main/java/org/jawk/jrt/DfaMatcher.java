@@ -0,0 +1,1057 @@
+package org.jawk.jrt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a regular expression matches somewhere
+ * within a string (like <code>Matcher.find()</code>),
+ * using a lazily built deterministic finite automaton.
+ * <p>
+ * Unlike the backtracking <code>java.util.regex</code> engine,
+ * the time to scan a string is linear in its length,
+ * whatever the expression, and each character is inspected once.
+ * DFA states are built on demand, as the scanned text requires them,
+ * and are then cached for later strings.
+ * Patterns which are plain literals are searched with
+ * <code>String.indexOf()</code> instead.
+ * </p>
+ * <p>
+ * Only the subset of the <code>Pattern</code> syntax which
+ * describes regular languages, and which is commonly used
+ * in AWK EREs, is supported:
+ * literals, escaped metacharacters, <code>.</code>,
+ * bracket expressions (with ranges, negation and
+ * <code>\d \w \s</code>), groups (also non-capturing),
+ * alternation, the quantifiers <code>* + ? {n} {n,} {n,m}</code>
+ * (also reluctant ones),
+ * and <code>^</code> / <code>$</code> at the very beginning / end.
+ * {@link #compile(Pattern)} returns <code>null</code> for other patterns,
+ * which then have to be matched with <code>Pattern</code>.
+ * The results are the same as those of <code>Pattern</code>
+ * (without flags); strings containing surrogate characters
+ * are passed on to the <code>Pattern</code>.
+ * </p>
+ * <p>
+ * Instances are not thread-safe, as they extend their
+ * state cache while matching.
+ * </p>
+ */
+public final class DfaMatcher {
+
+	/** patterns whose automaton would be larger are not supported */
+	private static final int MAX_NFA_NODES = 10000;
+	/** upper bound of a counted repetition */
+	private static final int MAX_REPEAT = 1000;
+	/** when exceeded, the state cache is discarded */
+	private static final int MAX_DFA_STATES = 4096;
+
+	private final Pattern pattern;
+	private final boolean anchoredStart;
+	private final boolean anchoredEnd;
+
+	/** NFA nodes, indexed by id */
+	private final Node[] nodes;
+	/** epsilon closure of the NFA start node */
+	private final int[] startClosure;
+
+	private final Map<StateKey, State> states = new HashMap<StateKey, State>();
+	private State startState;
+
+	// scratch space for computing transitions
+	private final int[] marks;
+	private int markGeneration = 0;
+	private final int[] stack;
+
+	/** if not <code>null</code>, the only string the pattern matches */
+	private final String literal;
+
+	private DfaMatcher(Pattern pattern, String literal) {
+		this.pattern = pattern;
+		this.literal = literal;
+		this.anchoredStart = false;
+		this.anchoredEnd = false;
+		this.nodes = null;
+		this.marks = null;
+		this.stack = null;
+		this.startClosure = null;
+	}
+
+	private DfaMatcher(Pattern pattern, Node start, List<Node> nodeList, boolean anchoredStart, boolean anchoredEnd) {
+		this.pattern = pattern;
+		this.literal = null;
+		this.anchoredStart = anchoredStart;
+		this.anchoredEnd = anchoredEnd;
+		this.nodes = nodeList.toArray(new Node[nodeList.size()]);
+		this.marks = new int[nodes.length];
+		this.stack = new int[nodes.length];
+		int[] buffer = new int[nodes.length];
+		int count = closure(start.id, buffer, 0, nextMarkGeneration());
+		this.startClosure = sortedCopy(buffer, count);
+		this.startState = intern(startClosure);
+	}
+
+	/**
+	 * Build a matcher for a pattern.
+	 *
+	 * @param pattern The pattern to match.
+	 *
+	 * @return The matcher, or <code>null</code> if the pattern uses
+	 *   flags or constructs which are not supported.
+	 */
+	public static DfaMatcher compile(Pattern pattern) {
+		if (pattern.flags() != 0) {
+			return null;
+		}
+		String literal = LiteralMatcher.toLiteral(pattern.pattern());
+		if (literal != null) {
+			// String.indexOf() beats any automaton
+			return new DfaMatcher(pattern, literal);
+		}
+		Parser parser = new Parser(pattern.pattern());
+		Ast ast = parser.parse();
+		if (ast == null) {
+			return null;
+		}
+		NfaBuilder builder = new NfaBuilder();
+		Node match = builder.newNode(Node.MATCH);
+		Node start = builder.build(ast, match);
+		if (start == null) {
+			return null;
+		}
+		return new DfaMatcher(pattern, start, builder.nodes, parser.anchoredStart, parser.anchoredEnd);
+	}
+
+	/**
+	 * Determine literal strings at least one of which occurs
+	 * in every string the regular expression matches.
+	 * As <code>Pattern.find()</code> can only succeed on input
+	 * containing one of them, they allow to skip the regular expression
+	 * for input which contains none of them.
+	 *
+	 * @param regexp A regular expression in <code>Pattern</code> syntax.
+	 *
+	 * @return The literals, or <code>null</code> if there are none,
+	 *   for example because the expression matches the empty string,
+	 *   or is not supported.
+	 */
+	static Set<String> requiredLiterals(String regexp) {
+		Ast ast = new Parser(regexp).parse();
+		if (ast == null) {
+			return null;
+		}
+		Literals literals = Literals.of(ast);
+		return Literals.better(literals.exact, literals.required);
+	}
+
+	/**
+	 * @return The pattern this matcher decides.
+	 */
+	public Pattern pattern() {
+		return pattern;
+	}
+
+	/**
+	 * Same as <code>pattern().matcher(input).find()</code>.
+	 *
+	 * @param input The string to search.
+	 *
+	 * @return Whether the pattern matches any substring of <code>input</code>.
+	 */
+	public boolean find(String input) {
+		if (literal != null) {
+			return input.contains(literal);
+		}
+		int len = input.length();
+		State state = startState;
+		if (state.accepting && (!anchoredEnd || dollarMatches(input, 0))) {
+			return true;
+		}
+		for (int i = 0; i < len; i++) {
+			char c = input.charAt(i);
+			State next;
+			if (c < 128) {
+				next = state.asciiNext[c];
+			} else if (isSurrogate(c)) {
+				// Pattern matches code points, this automaton chars
+				return pattern.matcher(input).find();
+			} else {
+				next = state.otherNext == null ? null : state.otherNext.get(Character.valueOf(c));
+			}
+			if (next == null) {
+				next = computeNext(state, c);
+				if (states.size() > MAX_DFA_STATES) {
+					// start over with an empty cache, like a bounded memory would
+					states.clear();
+					startState = intern(startClosure);
+					next = intern(next.nfaStates);
+				} else if (c < 128) {
+					state.asciiNext[c] = next;
+				} else {
+					if (state.otherNext == null) {
+						state.otherNext = new HashMap<Character, State>();
+					}
+					state.otherNext.put(Character.valueOf(c), next);
+				}
+			}
+			state = next;
+			if (state.nfaStates.length == 0) {
+				// dead state; only possible when anchored at the start
+				return false;
+			}
+			if (state.accepting && (!anchoredEnd || dollarMatches(input, i + 1))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether <code>$</code> matches at position <code>i</code>,
+	 * exactly as <code>Pattern</code> decides it without MULTILINE
+	 * and UNIX_LINES: at the end, or before a line terminator
+	 * which ends the input.
+	 */
+	private static boolean dollarMatches(String s, int i) {
+		int len = s.length();
+		if (i == len) {
+			return true;
+		}
+		if (i == len - 1) {
+			char c = s.charAt(i);
+			if (c == '\n') {
+				// no match between \r\n
+				return !(i > 0 && s.charAt(i - 1) == '\r');
+			}
+			return c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+		}
+		if (i == len - 2) {
+			return s.charAt(i) == '\r' && s.charAt(i + 1) == '\n';
+		}
+		return false;
+	}
+
+	private State computeNext(State state, char c) {
+		int generation = nextMarkGeneration();
+		int[] buffer = new int[nodes.length];
+		int count = 0;
+		for (int id : state.nfaStates) {
+			Node node = nodes[id];
+			if (node.kind == Node.CHARS && node.chars.contains(c)) {
+				count = closure(node.out.id, buffer, count, generation);
+			}
+		}
+		if (!anchoredStart) {
+			// a match may start at every position
+			for (int id : startClosure) {
+				if (marks[id] != generation) {
+					marks[id] = generation;
+					buffer[count++] = id;
+				}
+			}
+		}
+		return intern(sortedCopy(buffer, count));
+	}
+
+	/**
+	 * Add the character consuming and accepting nodes
+	 * reachable from <code>from</code> via epsilon transitions.
+	 */
+	private int closure(int from, int[] buffer, int count, int generation) {
+		if (marks[from] == generation) {
+			return count;
+		}
+		// nodes are marked when pushed, so each is pushed at most once
+		int sp = 0;
+		marks[from] = generation;
+		stack[sp++] = from;
+		while (sp > 0) {
+			int id = stack[--sp];
+			Node node = nodes[id];
+			if (node.kind == Node.SPLIT) {
+				for (int i = node.outs.length - 1; i >= 0; i--) {
+					int out = node.outs[i].id;
+					if (marks[out] != generation) {
+						marks[out] = generation;
+						stack[sp++] = out;
+					}
+				}
+			} else {
+				buffer[count++] = id;
+			}
+		}
+		return count;
+	}
+
+	private int nextMarkGeneration() {
+		if (++markGeneration == Integer.MAX_VALUE) {
+			Arrays.fill(marks, 0);
+			markGeneration = 1;
+		}
+		return markGeneration;
+	}
+
+	private static boolean isSurrogate(char c) {
+		return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+	}
+
+	private static int[] sortedCopy(int[] buffer, int count) {
+		int[] copy = Arrays.copyOf(buffer, count);
+		Arrays.sort(copy);
+		return copy;
+	}
+
+	private State intern(int[] nfaStates) {
+		StateKey key = new StateKey(nfaStates);
+		State state = states.get(key);
+		if (state == null) {
+			boolean accepting = false;
+			for (int id : nfaStates) {
+				if (nodes[id].kind == Node.MATCH) {
+					accepting = true;
+					break;
+				}
+			}
+			state = new State(nfaStates, accepting);
+			states.put(key, state);
+		}
+		return state;
+	}
+
+	private static final class State {
+
+		private final int[] nfaStates;
+		private final boolean accepting;
+		private final State[] asciiNext = new State[128];
+		private Map<Character, State> otherNext = null;
+
+		private State(int[] nfaStates, boolean accepting) {
+			this.nfaStates = nfaStates;
+			this.accepting = accepting;
+		}
+	}
+
+	private static final class StateKey {
+
+		private final int[] nfaStates;
+		private final int hash;
+
+		private StateKey(int[] nfaStates) {
+			this.nfaStates = nfaStates;
+			this.hash = Arrays.hashCode(nfaStates);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof StateKey && Arrays.equals(nfaStates, ((StateKey) o).nfaStates);
+		}
+	}
+
+	//////////////////////////////////////////////////////////////////
+	// NFA
+
+	private static final class Node {
+
+		static final int CHARS = 0;
+		static final int SPLIT = 1;
+		static final int MATCH = 2;
+
+		private final int kind;
+		private final int id;
+		/** for CHARS */
+		private CharSet chars;
+		private Node out;
+		/** for SPLIT */
+		private Node[] outs;
+
+		private Node(int kind, int id) {
+			this.kind = kind;
+			this.id = id;
+		}
+	}
+
+	private static final class NfaBuilder {
+
+		private final List<Node> nodes = new ArrayList<Node>();
+
+		private Node newNode(int kind) {
+			Node node = new Node(kind, nodes.size());
+			nodes.add(node);
+			return node;
+		}
+
+		private Node split(Node... outs) {
+			Node node = newNode(Node.SPLIT);
+			node.outs = outs;
+			return node;
+		}
+
+		/**
+		 * Build the nodes for <code>ast</code>, continuing with <code>next</code>.
+		 *
+		 * @return The entry node, or <code>null</code> if the NFA grows too large.
+		 */
+		private Node build(Ast ast, Node next) {
+			if (next == null || nodes.size() > MAX_NFA_NODES) {
+				return null;
+			}
+			switch (ast.kind) {
+				case Ast.CHARS: {
+					Node node = newNode(Node.CHARS);
+					node.chars = ast.chars;
+					node.out = next;
+					return node;
+				}
+				case Ast.CONCAT: {
+					Node entry = next;
+					for (int i = ast.children.size() - 1; i >= 0 && entry != null; i--) {
+						entry = build(ast.children.get(i), entry);
+					}
+					return entry;
+				}
+				case Ast.ALTERNATION: {
+					Node[] outs = new Node[ast.children.size()];
+					for (int i = 0; i < outs.length; i++) {
+						outs[i] = build(ast.children.get(i), next);
+						if (outs[i] == null) {
+							return null;
+						}
+					}
+					return split(outs);
+				}
+				case Ast.REPEAT: {
+					Ast child = ast.children.get(0);
+					Node entry = next;
+					if (ast.max < 0) {
+						// child*
+						Node loop = split();
+						Node body = build(child, loop);
+						if (body == null) {
+							return null;
+						}
+						loop.outs = new Node[] {body, next};
+						entry = loop;
+					} else {
+						// nested optional copies: (child(child)?)?
+						for (int i = ast.min; i < ast.max && entry != null; i++) {
+							Node body = build(child, entry);
+							entry = body == null ? null : split(body, next);
+						}
+					}
+					for (int i = 0; i < ast.min && entry != null; i++) {
+						entry = build(child, entry);
+					}
+					return entry;
+				}
+				default:
+					throw new Error("Unknown AST node kind: " + ast.kind);
+			}
+		}
+	}
+
+	//////////////////////////////////////////////////////////////////
+	// syntax
+
+	private static final class Ast {
+
+		static final int CHARS = 0;
+		static final int CONCAT = 1;
+		static final int ALTERNATION = 2;
+		static final int REPEAT = 3;
+
+		private final int kind;
+		private CharSet chars;
+		private final List<Ast> children = new ArrayList<Ast>();
+		private int min;
+		/** -1 for unbounded */
+		private int max;
+
+		private Ast(int kind) {
+			this.kind = kind;
+		}
+
+		private static Ast chars(CharSet chars) {
+			Ast ast = new Ast(CHARS);
+			ast.chars = chars;
+			return ast;
+		}
+	}
+
+	/**
+	 * Parses the supported subset of the <code>Pattern</code> syntax.
+	 * Anything else makes {@link #parse()} return <code>null</code>.
+	 * As only patterns accepted by <code>Pattern.compile()</code>
+	 * are parsed, syntax errors need no reporting.
+	 */
+	private static final class Parser {
+
+		private final String re;
+		private int pos = 0;
+		private boolean anchoredStart = false;
+		private boolean anchoredEnd = false;
+
+		private Parser(String re) {
+			this.re = re;
+		}
+
+		private Ast parse() {
+			String body = re;
+			if (body.startsWith("^")) {
+				anchoredStart = true;
+				pos = 1;
+			}
+			if (body.endsWith("$") && body.length() > pos && !isEscaped(body, body.length() - 1)) {
+				anchoredEnd = true;
+			}
+			Ast ast = alternation(anchoredEnd ? body.length() - 1 : body.length());
+			if (ast == null || pos != (anchoredEnd ? body.length() - 1 : body.length())) {
+				return null;
+			}
+			if ((anchoredStart || anchoredEnd) && ast.kind == Ast.ALTERNATION) {
+				// the anchors would only apply to the first / last alternative
+				return null;
+			}
+			return ast;
+		}
+
+		private static boolean isEscaped(String s, int idx) {
+			int backslashes = 0;
+			for (int i = idx - 1; i >= 0 && s.charAt(i) == '\\'; i--) {
+				backslashes++;
+			}
+			return (backslashes % 2) == 1;
+		}
+
+		private Ast alternation(int end) {
+			Ast first = concatenation(end);
+			if (first == null) {
+				return null;
+			}
+			if (pos >= end || re.charAt(pos) != '|') {
+				return first;
+			}
+			Ast alt = new Ast(Ast.ALTERNATION);
+			alt.children.add(first);
+			while (pos < end && re.charAt(pos) == '|') {
+				pos++;
+				Ast next = concatenation(end);
+				if (next == null) {
+					return null;
+				}
+				alt.children.add(next);
+			}
+			return alt;
+		}
+
+		private Ast concatenation(int end) {
+			Ast concat = new Ast(Ast.CONCAT);
+			while (pos < end) {
+				char c = re.charAt(pos);
+				if (c == '|' || c == ')') {
+					break;
+				}
+				Ast atom = atom(end);
+				if (atom == null) {
+					return null;
+				}
+				atom = quantified(atom, end);
+				if (atom == null) {
+					return null;
+				}
+				concat.children.add(atom);
+			}
+			return concat;
+		}
+
+		private Ast quantified(Ast atom, int end) {
+			if (pos >= end) {
+				return atom;
+			}
+			int min;
+			int max;
+			char c = re.charAt(pos);
+			if (c == '*') {
+				min = 0;
+				max = -1;
+				pos++;
+			} else if (c == '+') {
+				min = 1;
+				max = -1;
+				pos++;
+			} else if (c == '?') {
+				min = 0;
+				max = 1;
+				pos++;
+			} else if (c == '{') {
+				int close = re.indexOf('}', pos);
+				if (close < 0 || close >= end) {
+					return null;
+				}
+				String spec = re.substring(pos + 1, close);
+				int comma = spec.indexOf(',');
+				try {
+					if (comma < 0) {
+						min = max = parseCount(spec);
+					} else {
+						min = parseCount(spec.substring(0, comma));
+						String upper = spec.substring(comma + 1);
+						max = upper.length() == 0 ? -1 : parseCount(upper);
+					}
+				} catch (NumberFormatException nfe) {
+					return null;
+				}
+				if (min > MAX_REPEAT || max > MAX_REPEAT || (max >= 0 && max < min)) {
+					return null;
+				}
+				pos = close + 1;
+			} else {
+				return atom;
+			}
+			if (pos < end) {
+				char modifier = re.charAt(pos);
+				if (modifier == '?') {
+					// reluctant; makes no difference as to whether there is a match
+					pos++;
+				} else if (modifier == '+' || modifier == '*' || modifier == '{') {
+					// possessive (or nested) quantifiers
+					return null;
+				}
+			}
+			Ast repeat = new Ast(Ast.REPEAT);
+			repeat.children.add(atom);
+			repeat.min = min;
+			repeat.max = max;
+			return repeat;
+		}
+
+		private static int parseCount(String s) {
+			if (s.length() == 0 || s.length() > 4) {
+				throw new NumberFormatException(s);
+			}
+			for (int i = 0; i < s.length(); i++) {
+				if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+					throw new NumberFormatException(s);
+				}
+			}
+			return Integer.parseInt(s);
+		}
+
+		private Ast atom(int end) {
+			char c = re.charAt(pos);
+			switch (c) {
+				case '(': {
+					pos++;
+					if (pos < end && re.charAt(pos) == '?') {
+						if (pos + 1 < end && re.charAt(pos + 1) == ':') {
+							pos += 2;
+						} else {
+							// flags, look-arounds, named or atomic groups
+							return null;
+						}
+					}
+					Ast group = alternation(end);
+					if (group == null || pos >= end || re.charAt(pos) != ')') {
+						return null;
+					}
+					pos++;
+					return group;
+				}
+				case '[':
+					return bracket(end);
+				case '.':
+					pos++;
+					return Ast.chars(CharSet.DOT);
+				case '\\': {
+					CharSet escaped = escape(end);
+					return escaped == null ? null : Ast.chars(escaped);
+				}
+				case '^':
+				case '$':
+				case '*':
+				case '+':
+				case '?':
+				case '{':
+				case '}':
+					// anchors within the pattern, dangling quantifiers
+					return null;
+				default:
+					if (isSurrogate(c)) {
+						return null;
+					}
+					pos++;
+					return Ast.chars(CharSet.of(c));
+			}
+		}
+
+		/**
+		 * Parse an escape sequence starting at the backslash.
+		 *
+		 * @return The characters it stands for, or <code>null</code>
+		 *   if not supported.
+		 */
+		private CharSet escape(int end) {
+			if (pos + 1 >= end) {
+				return null;
+			}
+			char c = re.charAt(pos + 1);
+			pos += 2;
+			switch (c) {
+				case 't': return CharSet.of('\t');
+				case 'n': return CharSet.of('\n');
+				case 'r': return CharSet.of('\r');
+				case 'f': return CharSet.of('\f');
+				case 'a': return CharSet.of('\u0007');
+				case 'e': return CharSet.of('\u001B');
+				case 'd': return CharSet.DIGIT;
+				case 'D': return CharSet.DIGIT.negate();
+				case 'w': return CharSet.WORD;
+				case 'W': return CharSet.WORD.negate();
+				case 's': return CharSet.SPACE;
+				case 'S': return CharSet.SPACE.negate();
+				default:
+					if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || isSurrogate(c)) {
+						// word boundaries, back references, \Q...\E, \p{...}, hex and unicode escapes, ...
+						return null;
+					}
+					// an escaped metacharacter (or any other non-alphabetic character)
+					return CharSet.of(c);
+			}
+		}
+
+		private Ast bracket(int end) {
+			// pos is at '['
+			pos++;
+			boolean negated = false;
+			if (pos < end && re.charAt(pos) == '^') {
+				negated = true;
+				pos++;
+			}
+			CharSet set = CharSet.EMPTY;
+			boolean first = true;
+			while (true) {
+				if (pos >= end) {
+					return null;
+				}
+				char c = re.charAt(pos);
+				if (c == ']' && !first) {
+					pos++;
+					break;
+				}
+				if (c == '[' || c == ']' || (c == '&' && pos + 1 < end && re.charAt(pos + 1) == '&')) {
+					// nested classes, unions, intersections
+					return null;
+				}
+				CharSet item;
+				if (c == '\\') {
+					item = escape(end);
+					if (item == null) {
+						return null;
+					}
+				} else if (c == '-' && !first && !(pos + 1 < end && re.charAt(pos + 1) == ']')) {
+					// a '-' which is not the first or last character
+					return null;
+				} else if (isSurrogate(c)) {
+					return null;
+				} else if (pos + 2 < end && re.charAt(pos + 1) == '-' && re.charAt(pos + 2) != ']') {
+					char upper = re.charAt(pos + 2);
+					if (upper == '\\' || upper == '[' || upper < c || isSurrogate(upper)) {
+						return null;
+					}
+					item = CharSet.range(c, upper);
+					pos += 3;
+				} else {
+					item = CharSet.of(c);
+					pos++;
+				}
+				set = set.union(item);
+				first = false;
+			}
+			return Ast.chars(negated ? set.negate() : set);
+		}
+	}
+
+	/**
+	 * Literals of a syntax tree node:
+	 * <code>exact</code> is the (finite) set of all strings the node matches,
+	 * and every string it matches contains one of the <code>required</code>
+	 * strings. Either is <code>null</code> if unknown.
+	 */
+	private static final class Literals {
+
+		/** larger classes are treated like any character */
+		private static final int MAX_CLASS_SIZE = 4;
+		/** larger sets of literals are dropped */
+		private static final int MAX_LITERALS = 32;
+
+		private static final Literals UNKNOWN = new Literals(null, null);
+
+		private final Set<String> exact;
+		private final Set<String> required;
+
+		private Literals(Set<String> exact, Set<String> required) {
+			this.exact = exact;
+			this.required = required;
+		}
+
+		private static Literals of(Ast ast) {
+			switch (ast.kind) {
+				case Ast.CHARS: {
+					char[] chars = ast.chars.toArray(MAX_CLASS_SIZE);
+					if (chars == null) {
+						return UNKNOWN;
+					}
+					Set<String> exact = new LinkedHashSet<String>();
+					for (char c : chars) {
+						exact.add(String.valueOf(c));
+					}
+					return new Literals(exact, null);
+				}
+				case Ast.CONCAT: {
+					// literals of the current run of children with exact literals
+					Set<String> run = Collections.singleton("");
+					Set<String> best = null;
+					boolean allExact = true;
+					for (Ast child : ast.children) {
+						Literals literals = of(child);
+						Set<String> product = literals.exact == null ? null : product(run, literals.exact);
+						if (product != null) {
+							run = product;
+						} else {
+							allExact = false;
+							best = better(best, run);
+							best = better(best, literals.exact == null ? literals.required : literals.exact);
+							if (literals.exact == null || literals.exact.size() > MAX_LITERALS) {
+								run = Collections.singleton("");
+							} else {
+								run = literals.exact;
+							}
+						}
+					}
+					return new Literals(allExact ? run : null, better(best, run));
+				}
+				case Ast.ALTERNATION: {
+					Set<String> exact = new LinkedHashSet<String>();
+					Set<String> required = new LinkedHashSet<String>();
+					for (Ast child : ast.children) {
+						Literals literals = of(child);
+						if (exact != null && literals.exact != null) {
+							exact.addAll(literals.exact);
+						} else {
+							exact = null;
+						}
+						Set<String> childRequired = better(literals.exact, literals.required);
+						if (required != null && childRequired != null) {
+							required.addAll(childRequired);
+						} else {
+							required = null;
+						}
+					}
+					if (exact != null && exact.size() > MAX_LITERALS) {
+						exact = null;
+					}
+					if (required != null && required.size() > MAX_LITERALS) {
+						required = null;
+					}
+					return new Literals(exact, required);
+				}
+				case Ast.REPEAT: {
+					if (ast.min == 0) {
+						return UNKNOWN;
+					}
+					Literals literals = of(ast.children.get(0));
+					if (ast.max == 1) {
+						return literals;
+					}
+					// at least one occurrence
+					return new Literals(null, better(literals.exact, literals.required));
+				}
+				default:
+					throw new Error("Unknown AST node kind: " + ast.kind);
+			}
+		}
+
+		/**
+		 * @return All concatenations of a string of <code>a</code>
+		 *   with one of <code>b</code>, or <code>null</code> if too many.
+		 */
+		private static Set<String> product(Set<String> a, Set<String> b) {
+			if (a.size() * b.size() > MAX_LITERALS) {
+				return null;
+			}
+			Set<String> product = new LinkedHashSet<String>();
+			for (String prefix : a) {
+				for (String suffix : b) {
+					product.add(prefix + suffix);
+				}
+			}
+			return product;
+		}
+
+		/**
+		 * Choose the more selective of two sets of required literals:
+		 * the one with the longer shortest literal, or else the smaller one.
+		 * Sets containing the empty string require nothing.
+		 *
+		 * @return The better set, or <code>null</code> if neither is usable.
+		 */
+		private static Set<String> better(Set<String> a, Set<String> b) {
+			int aLength = shortest(a);
+			int bLength = shortest(b);
+			if (aLength == 0 && bLength == 0) {
+				return null;
+			}
+			if (aLength != bLength) {
+				return aLength > bLength ? a : b;
+			}
+			return a.size() <= b.size() ? a : b;
+		}
+
+		private static int shortest(Set<String> literals) {
+			if (literals == null || literals.isEmpty() || literals.size() > MAX_LITERALS) {
+				return 0;
+			}
+			int shortest = Integer.MAX_VALUE;
+			for (String literal : literals) {
+				shortest = Math.min(shortest, literal.length());
+			}
+			return shortest;
+		}
+	}
+
+	/**
+	 * An immutable set of (BMP) characters,
+	 * as sorted, disjoint, non-adjacent inclusive ranges.
+	 */
+	private static final class CharSet {
+
+		private static final CharSet EMPTY = new CharSet(new char[0]);
+		private static final CharSet DIGIT = range('0', '9');
+		private static final CharSet WORD = range('a', 'z').union(range('A', 'Z')).union(DIGIT).union(of('_'));
+		private static final CharSet SPACE = of(' ').union(range('\t', '\r'));
+		/** Pattern's '.' without DOTALL: all but line terminators */
+		private static final CharSet DOT = of('\n').union(of('\r')).union(of('\u0085')).union(range('\u2028', '\u2029')).negate();
+
+		/** lower and upper bounds, alternating */
+		private final char[] ranges;
+		private final boolean[] ascii = new boolean[128];
+
+		private CharSet(char[] ranges) {
+			this.ranges = ranges;
+			for (int i = 0; i < ranges.length; i += 2) {
+				for (int c = ranges[i]; c <= ranges[i + 1] && c < 128; c++) {
+					ascii[c] = true;
+				}
+			}
+		}
+
+		private static CharSet of(char c) {
+			return new CharSet(new char[] {c, c});
+		}
+
+		private static CharSet range(char lower, char upper) {
+			return new CharSet(new char[] {lower, upper});
+		}
+
+		private boolean contains(char c) {
+			if (c < 128) {
+				return ascii[c];
+			}
+			// binary search for the last range starting at or before c
+			int lo = 0;
+			int hi = ranges.length / 2 - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (ranges[2 * mid] <= c) {
+					if (c <= ranges[2 * mid + 1]) {
+						return true;
+					}
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			return false;
+		}
+
+		private CharSet union(CharSet other) {
+			int n = ranges.length / 2 + other.ranges.length / 2;
+			int[][] all = new int[n][];
+			int k = 0;
+			for (int i = 0; i < ranges.length; i += 2) {
+				all[k++] = new int[] {ranges[i], ranges[i + 1]};
+			}
+			for (int i = 0; i < other.ranges.length; i += 2) {
+				all[k++] = new int[] {other.ranges[i], other.ranges[i + 1]};
+			}
+			Arrays.sort(all, new java.util.Comparator<int[]>() {
+				@Override
+				public int compare(int[] a, int[] b) {
+					return a[0] - b[0];
+				}
+			});
+			StringBuilder merged = new StringBuilder();
+			int lower = -1;
+			int upper = -2;
+			for (int[] r : all) {
+				if (r[0] <= upper + 1) {
+					upper = Math.max(upper, r[1]);
+				} else {
+					if (lower >= 0) {
+						merged.append((char) lower).append((char) upper);
+					}
+					lower = r[0];
+					upper = r[1];
+				}
+			}
+			if (lower >= 0) {
+				merged.append((char) lower).append((char) upper);
+			}
+			return new CharSet(merged.toString().toCharArray());
+		}
+
+		/**
+		 * @return The characters of this set, or <code>null</code>
+		 *   if there are more than <code>max</code>.
+		 */
+		private char[] toArray(int max) {
+			StringBuilder chars = new StringBuilder();
+			for (int i = 0; i < ranges.length; i += 2) {
+				if (chars.length() + ranges[i + 1] - ranges[i] + 1 > max) {
+					return null;
+				}
+				for (int c = ranges[i]; c <= ranges[i + 1]; c++) {
+					chars.append((char) c);
+				}
+			}
+			return chars.toString().toCharArray();
+		}
+
+		/** @return The complement within the BMP. */
+		private CharSet negate() {
+			StringBuilder complement = new StringBuilder();
+			int next = 0;
+			for (int i = 0; i < ranges.length; i += 2) {
+				if (ranges[i] > next) {
+					complement.append((char) next).append((char) (ranges[i] - 1));
+				}
+				next = ranges[i + 1] + 1;
+			}
+			if (next <= Character.MAX_VALUE) {
+				complement.append((char) next).append(Character.MAX_VALUE);
+			}
+			return new CharSet(complement.toString().toCharArray());
+		}
+	}
+}
@@ -6,28 +6,34 @@ package org.jawk.jrt;
 // required runtime classes in jrt.jar,
 // not have to refer to jawk.jar!
 
-import java.io.FileOutputStream;
-import java.io.FileReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Formatter;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.IllegalFormatException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.jawk.util.LazyLogger;
 
 /**
  * The Jawk runtime coordinator.
@@ -67,7 +73,7 @@ import org.slf4j.LoggerFactory;
  */
 public class JRT {
 
-	private static final Logger LOG = LoggerFactory.getLogger(JRT.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(JRT.class);
 
 	private static final boolean IS_WINDOWS = (System.getProperty("os.name").indexOf("Windows") >= 0);
 
@@ -83,6 +89,29 @@ public class JRT {
 		assert (DEFAULT_RS_REGEX != null) : "line.separator not found in System properties ?!";
 	}
 
+	/**
+	 * System property which, when set to <code>false</code>,
+	 * disables matching regular expressions with a {@link DfaMatcher}.
+	 */
+	public static final String DFA_PROPERTY = "jawk.regex.dfa";
+	static final boolean USE_DFA = !"false".equalsIgnoreCase(System.getProperty(DFA_PROPERTY));
+	/** more distinct patterns than this (which are not cached anywhere) empty the DFA cache */
+	private static final int MAX_DFA_MATCHERS = 1000;
+	/** records read before presizing the array filled by {@link #jrtLoadMap(String, AssocArray, int, int)} */
+	private static final int PRESIZE_SAMPLE_RECORDS = 1024;
+	/** upper bound of the number of elements that array is presized for */
+	private static final int PRESIZE_MAX_ELEMENTS = 1 << 20;
+
+	/**
+	 * System property naming a shell, like <code>/bin/sh</code>,
+	 * to run commands (of system(), <code>| getline</code> and
+	 * <code>print |</code>) with, as in <code>/bin/sh -c "command"</code>.
+	 * If it is not set, commands are split on blanks,
+	 * and run directly.
+	 */
+	public static final String SHELL_PROPERTY = "jawk.shell";
+	private static final String SHELL = System.getProperty(SHELL_PROPERTY);
+
 	private VariableManager vm;
 
 	private Map<String, Process> output_processes = new HashMap<String, Process>();
@@ -90,10 +119,17 @@ public class JRT {
 
 	// Paritioning reader for stdin.
 	private PartitioningReader partitioningReader = null;
+	// Reader wrapping the stream last passed to jrtConsumeInput(InputStream, boolean).
+	private InputStream stdin_stream = null;
+	private Reader stdin_reader = null;
 	// Current input line ($0).
 	private String inputLine = null;
 	// Current input fields ($0, $1, $2, ...).
 	private List<String> input_fields = new ArrayList<String>(100);
+	// Whether fields were assigned since $0 was last built from them.
+	private boolean dollar_zero_dirty = false;
+	// OFS at the last field assignment, to rebuild $0 with.
+	private String dollar_zero_ofs = null;
 	private AssocArray arglist_aa = null;
 	private int arglist_idx;
 	private boolean has_filenames = false;
@@ -107,15 +143,201 @@ public class JRT {
 	private Map<String, PartitioningReader> file_readers = new HashMap<String, PartitioningReader>();
 	private Map<String, PartitioningReader> command_readers = new HashMap<String, PartitioningReader>();
 	private Map<String, Process> command_processes = new HashMap<String, Process>();
-	private Map<String, PrintStream> outputFiles = new HashMap<String, PrintStream>();
+	// the data pumps relaying output of the processes, to wait for upon close
+	private Map<Process, List<Future<?>>> process_pumps = new HashMap<Process, List<Future<?>>>();
+	private OutputFileManager outputFiles = new OutputFileManager(this);
+	// assembles the output of print statements
+	private PrintBuffer print_buffer = new PrintBuffer();
+	// whether characters are bytes; see setByteMode(boolean)
+	private boolean byte_mode = false;
+	/** rules out rule condition regexps by their literals; may be <code>null</code> */
+	private RulePrefilter rule_prefilter = null;
+	/** DFAs of matched patterns; <code>null</code> for patterns a DFA does not support */
+	private final Map<Pattern, DfaMatcher> dfa_matchers = new IdentityHashMap<Pattern, DfaMatcher>();
+
+	private final RuntimeMetrics metrics;
+
+	/** where the output of spawned output processes is relayed to */
+	private PrintStream output;
+	/** where the standard error of spawned processes is relayed to */
+	private PrintStream error;
 
 	/**
 	 * Create a JRT with a VariableManager
 	 *
 	 * @param vm The VariableManager to use with this JRT.
 	 */
+	@SuppressWarnings("UseOfSystemOutOrSystemErr")
 	public JRT(VariableManager vm) {
 		this.vm = vm;
+		this.metrics = new RuntimeMetrics(this);
+		this.output = System.out;
+		this.error = System.err;
+	}
+
+	/**
+	 * Where the standard output of processes spawned by
+	 * <code>print | "cmd"</code> is relayed to.
+	 * This should be the stream unredirected output is written to.
+	 * By default, this is {@link System#out}.
+	 *
+	 * @param output The stream to relay process output to.
+	 */
+	public void setOutputStream(PrintStream output) {
+		this.output = output;
+		addByteModeOutput();
+	}
+
+	/**
+	 * In byte mode, lets print write the characters
+	 * as bytes to the standard output, unless it is
+	 * character based.
+	 */
+	private void addByteModeOutput() {
+		if (byte_mode && !(output instanceof AppendablePrintStream)) {
+			print_buffer.addByteStream(output);
+		}
+	}
+
+	/**
+	 * Where the standard error of spawned processes is relayed to.
+	 * By default, this is {@link System#err}.
+	 *
+	 * @param error The stream to relay the standard error of processes to.
+	 */
+	public void setErrorStream(PrintStream error) {
+		this.error = error;
+	}
+
+	/**
+	 * The charset which maps each byte to the character of the same value,
+	 * and back; used in byte mode.
+	 */
+	public static final String BYTE_MODE_CHARSET = "ISO-8859-1";
+
+	/**
+	 * Whether input and output are treated as bytes
+	 * rather than as characters in the platform default charset,
+	 * like with <code>LC_ALL=C</code> in other AWK implementations.
+	 * <p>
+	 * In byte mode, each byte read becomes one character,
+	 * so that <code>length()</code>, <code>substr()</code>
+	 * and <code>index()</code> count bytes, and each character
+	 * written becomes one byte again.
+	 * Input and output are thereby neither decoded nor encoded,
+	 * and arbitrary data passes through unchanged.
+	 * As the resulting strings only contain characters
+	 * of one byte, the JVM may store them compactly as bytes.
+	 * </p>
+	 * <p>
+	 * This applies to input files, standard input passed as
+	 * <code>InputStream</code>, commands, output files and pipes,
+	 * and to all <code>print</code> and <code>printf</code> output.
+	 * It has to be set before the first input is consumed.
+	 * </p>
+	 *
+	 * @param byteMode Whether to treat input and output as bytes.
+	 */
+	public void setByteMode(boolean byteMode) {
+		if (byteMode != byte_mode) {
+			byte_mode = byteMode;
+			print_buffer = byteMode ? new PrintBuffer(Charset.forName(BYTE_MODE_CHARSET)) : new PrintBuffer();
+			addByteModeOutput();
+		}
+	}
+
+	private Reader newReader(InputStream in) {
+		if (byte_mode) {
+			try {
+				return new InputStreamReader(in, BYTE_MODE_CHARSET);
+			} catch (UnsupportedEncodingException uee) {
+				throw new Error(BYTE_MODE_CHARSET + " is not supported", uee);
+			}
+		} else {
+			return new InputStreamReader(in);
+		}
+	}
+
+	private Reader newFileReader(String filename) throws IOException {
+		if (DecompressingInputStream.isCompressed(filename)) {
+			return newReader(DecompressingInputStream.open(filename));
+		}
+		return newReader(new FileInputStream(filename));
+	}
+
+	/**
+	 * Create a stream for <code>print</code> and <code>printf</code>
+	 * output to a file or process.
+	 *
+	 * @param out The stream to write to.
+	 *
+	 * @return A PrintStream which flushes after each print,
+	 *   and encodes characters according to the byte mode.
+	 */
+	public PrintStream jrtNewPrintStream(OutputStream out) {
+		return jrtNewPrintStream(out, true);	// true = autoflush
+	}
+
+	/**
+	 * Create a stream for <code>print</code> and <code>printf</code>
+	 * output to a file or process.
+	 *
+	 * @param out The stream to write to.
+	 * @param autoflush Whether to flush after each print.
+	 *
+	 * @return A PrintStream which encodes characters
+	 *   according to the byte mode.
+	 */
+	public PrintStream jrtNewPrintStream(OutputStream out, boolean autoflush) {
+		if (byte_mode) {
+			try {
+				return print_buffer.addByteStream(new PrintStream(out, autoflush, BYTE_MODE_CHARSET));
+			} catch (UnsupportedEncodingException uee) {
+				throw new Error(BYTE_MODE_CHARSET + " is not supported", uee);
+			}
+		} else {
+			return print_buffer.addByteStream(new PrintStream(out, autoflush));
+		}
+	}
+
+	/**
+	 * Retrieve the counters describing the work performed
+	 * by this runtime.
+	 *
+	 * @return The metrics of this runtime; never <code>null</code>.
+	 */
+	public RuntimeMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Return this runtime to its initial state, so that it
+	 * may serve another execution with the same VariableManager.
+	 * All open files and processes are closed,
+	 * and all input state is discarded.
+	 * The allocated containers are kept for reuse.
+	 */
+	public void reset() {
+		jrtCloseAll();
+		inputLine = null;
+		input_fields.clear();
+		dollar_zero_dirty = false;
+		arglist_aa = null;
+		arglist_idx = 0;
+		has_filenames = false;
+		jrt_input_string = null;
+		stdin_stream = null;
+		stdin_reader = null;
+		print_buffer.reset();
+		metrics.reset();
+	}
+
+	int getNumOpenOutputFiles() {
+		return outputFiles.size();
+	}
+
+	int getNumOpenPipes() {
+		return output_streams.size() + command_readers.size();
 	}
 
 	/**
@@ -136,16 +358,15 @@ public class JRT {
 	 * environment variables to an associative array
 	 * (in this case, to ENVIRON).
 	 *
+	 * The array is populated lazily, upon its first access.
+	 *
 	 * @param aa The associative array to populate with
 	 *   environment variables. The module asserts that
 	 *   the associative array is empty prior to population.
 	 */
 	public static void assignEnvironmentVariables(AssocArray aa) {
-		assert aa.keySet().isEmpty();
-		Map<String, String> env = System.getenv();
-		for (Map.Entry<String, String> var : env.entrySet()) {
-			aa.put(var.getKey(), var.getValue());
-		}
+		assert aa.size() == 0;
+		aa.setLazyContents(System.getenv());
 	}
 
 	/**
@@ -361,6 +582,80 @@ public class JRT {
 		}
 	}
 
+	/**
+	 * Whether <code>pattern</code> matches anywhere within <code>s</code>,
+	 * like <code>pattern.matcher(s).find()</code>.
+	 * Patterns are matched with a lazily built {@link DfaMatcher}
+	 * (kept per pattern instance) if they are supported by it,
+	 * which makes the cost linear in the length of <code>s</code>.
+	 *
+	 * @param pattern The regular expression;
+	 *   should be a cached instance, as the DFA is kept per instance.
+	 * @param s The string to search.
+	 *
+	 * @return <code>true</code> if any substring of <code>s</code> matches.
+	 */
+	public boolean find(Pattern pattern, String s) {
+		DfaMatcher dfa = dfa_matchers.get(pattern);
+		if (dfa == null && USE_DFA && !dfa_matchers.containsKey(pattern)) {
+			if (dfa_matchers.size() >= MAX_DFA_MATCHERS) {
+				dfa_matchers.clear();
+			}
+			dfa = DfaMatcher.compile(pattern);
+			dfa_matchers.put(pattern, dfa);
+		}
+		if (dfa != null) {
+			return dfa.find(s);
+		}
+		return pattern.matcher(s).find();
+	}
+
+	/**
+	 * Whether the regular expression <code>ere</code>
+	 * (not known in advance, thus not cached)
+	 * matches anywhere within <code>s</code>.
+	 *
+	 * @param s The string to search.
+	 * @param ere The regular expression.
+	 *
+	 * @return The result of <code>s ~ ere</code>.
+	 */
+	public static boolean containsMatch(String s, String ere) {
+		String literal = LiteralMatcher.toLiteral(ere);
+		if (literal != null) {
+			return s.contains(literal);
+		}
+		return Pattern.compile(ere).matcher(s).find();
+	}
+
+	/**
+	 * Set the prefilter consulted by {@link #matchesRule(Pattern, int)}
+	 * and by rule conditions of the form <code>/regexp1/, /regexp2/</code>.
+	 *
+	 * @param rule_prefilter The prefilter for the regexps
+	 *   of the rule conditions of the script, or <code>null</code>.
+	 */
+	public void setRulePrefilter(RulePrefilter rule_prefilter) {
+		this.rule_prefilter = rule_prefilter;
+	}
+
+	/**
+	 * Evaluate the rule condition <code>/regexp/</code>,
+	 * i.e. <code>$0 ~ /regexp/</code>.
+	 *
+	 * @param pattern The regexp.
+	 * @param slot The slot of the regexp in the rule prefilter.
+	 *
+	 * @return Whether $0 matches.
+	 */
+	public boolean matchesRule(Pattern pattern, int slot) {
+		String s = dollarZero();
+		if (rule_prefilter != null && !rule_prefilter.mayMatch(slot, s)) {
+			return false;
+		}
+		return find(pattern, s);
+	}
+
 	// non-static to reference "inputLine"
 	/**
 	 * Converts an Integer, Double, String, Pattern,
@@ -390,14 +685,11 @@ public class JRT {
 			val = (o.toString().length() > 0);
 		} else if (o instanceof Pattern) {
 			// match against $0
-			// ...
-			Pattern pattern = (Pattern) o;
-			String s = inputLine == null ? BLANK : inputLine;
-			Matcher matcher = pattern.matcher(s);
-			val = matcher.find();
+			String s = dollarZero();
+			val = find((Pattern) o, s);
 		} else if (o instanceof PatternPair) {
-			String s = inputLine == null ? BLANK : inputLine;
-			val = ((PatternPair) o).matches(s);
+			String s = dollarZero();
+			val = ((PatternPair) o).matches(s, rule_prefilter);
 		} else {
 			throw new Error("Unknown operand_stack type: " + o.getClass() + " for value " + o);
 		}
@@ -433,16 +725,7 @@ public class JRT {
 	 * @return The number of parts resulting from this split operation.
 	 */
 	public static int split(Object fs, Object array, Object string, String convfmt) {
-		String fs_string = toAwkString(fs, convfmt);
-		if (fs_string.equals(" ")) {
-			return splitWorker(new StringTokenizer(toAwkString(string, convfmt)), (AssocArray) array);
-		} else if (fs_string.equals("")) {
-			return splitWorker(new CharacterTokenizer(toAwkString(string, convfmt)), (AssocArray) array);
-		} else if (fs_string.length() == 1) {
-			return splitWorker(new SingleCharacterTokenizer(toAwkString(string, convfmt), fs_string.charAt(0)), (AssocArray) array);
-		} else {
-			return splitWorker(new RegexTokenizer(toAwkString(string, convfmt), fs_string), (AssocArray) array);
-		}
+		return splitWorker(newFieldTokenizer(toAwkString(string, convfmt), toAwkString(fs, convfmt)), (AssocArray) array);
 	}
 
 	private static int splitWorker(Enumeration<Object> e, AssocArray aa) {
@@ -459,11 +742,13 @@ public class JRT {
 	}
 
 	public String getInputLine() {
+		flushDollarZero();
 		return inputLine;
 	}
 
 	public void setInputLine(String inputLine) {
 		this.inputLine = inputLine;
+		dollar_zero_dirty = false;
 	}
 
 	/**
@@ -478,6 +763,26 @@ public class JRT {
 	 * @throws IOException upon an IO error.
 	 */
 	public boolean jrtConsumeInput(final InputStream input, boolean for_getline) throws IOException {
+		if (stdin_reader == null || stdin_stream != input) {
+			stdin_stream = input;
+			stdin_reader = newReader(input);
+		}
+		return jrtConsumeInput(stdin_reader, for_getline);
+	}
+
+	/**
+	 * Attempt to consume one line of input, either from the supplied
+	 * reader or from filenames passed in to ARGC/ARGV via
+	 * the command-line.
+	 *
+	 * @param input Where to read from, if no filenames are supplied.
+	 * @param for_getline true if call is for getline, false otherwise.
+	 *
+	 * @return true if line is consumed, false otherwise.
+	 *
+	 * @throws IOException upon an IO error.
+	 */
+	public boolean jrtConsumeInput(final Reader input, boolean for_getline) throws IOException {
 		// first time!
 		if (arglist_aa == null) {
 			Object arglist_obj = vm.getARGV(); // vm.getVariable("argv_field", true);
@@ -527,21 +832,21 @@ public class JRT {
 					if (!o.equals(BLANK)) {
 						String name_value_or_filename = toAwkString(o, vm.getCONVFMT().toString());
 						if (name_value_or_filename.indexOf('=') == -1) {
-							partitioningReader = new PartitioningReader(new FileReader(name_value_or_filename), vm.getRS().toString(), true);
+							partitioningReader = new PartitioningReader(newFileReader(name_value_or_filename), vm.getRS().toString(), true);
 							vm.setFILENAME(name_value_or_filename);
 							vm.resetFNR();
 						} else {
 							setFilelistVariable(name_value_or_filename);
 							if (!has_filenames) {
 								// stdin with a variable!
-								partitioningReader = new PartitioningReader(new InputStreamReader(input), vm.getRS().toString());
+								partitioningReader = new PartitioningReader(input, vm.getRS().toString());
 								vm.setFILENAME("");
 							} else {
 								continue;
 							}
 						}
 					} else if (!has_filenames) {
-						partitioningReader = new PartitioningReader(new InputStreamReader(input), vm.getRS().toString());
+						partitioningReader = new PartitioningReader(input, vm.getRS().toString());
 						vm.setFILENAME("");
 					} else {
 						return false;
@@ -560,8 +865,9 @@ public class JRT {
 						if (!o.equals(BLANK)) {
 							String name_value_or_filename = toAwkString(o, vm.getCONVFMT().toString());
 							if (name_value_or_filename.indexOf('=') == -1) {
+								closeInputFile();
 								// true = from filename list
-								partitioningReader = new PartitioningReader(new FileReader(name_value_or_filename), vm.getRS().toString(), true);
+								partitioningReader = new PartitioningReader(newFileReader(name_value_or_filename), vm.getRS().toString(), true);
 								vm.setFILENAME(name_value_or_filename);
 								vm.resetFNR();
 							} else {
@@ -584,6 +890,10 @@ public class JRT {
 				//if (!active_input)
 				//	return false;
 
+				if (for_getline) {
+					// "getline var" keeps $0
+					flushDollarZero();
+				}
 				inputLine = partitioningReader.readRecord();
 				if (inputLine == null) {
 					continue;
@@ -597,6 +907,7 @@ public class JRT {
 						// leave the stack alone ...
 						jrtParseFields();
 					}
+					metrics.recordRead(inputLine);
 					vm.incNR();
 					if (partitioningReader.fromFilenameList()) {
 						vm.incFNR();
@@ -637,21 +948,12 @@ public class JRT {
 	 * Called when an update to $0 has occurred.
 	 */
 	public void jrtParseFields() {
-		String fs_string = vm.getFS().toString();
-		Enumeration<Object> tokenizer;
-		if (fs_string.equals(" ")) {
-			tokenizer = new StringTokenizer(inputLine);
-		} else if (fs_string.length() == 1) {
-			tokenizer = new SingleCharacterTokenizer(inputLine, fs_string.charAt(0));
-		} else if (fs_string.equals("")) {
-			tokenizer = new CharacterTokenizer(inputLine);
-		} else {
-			tokenizer = new RegexTokenizer(inputLine, fs_string);
-		}
-
 		assert inputLine != null;
+		Enumeration<Object> tokenizer = newFieldTokenizer(inputLine, vm.getFS().toString());
+		metrics.fieldSplit();
 		input_fields.clear();
 		input_fields.add(inputLine); // $0
+		dollar_zero_dirty = false;
 		while (tokenizer.hasMoreElements()) {
 			input_fields.add((String) tokenizer.nextElement());
 		}
@@ -659,6 +961,25 @@ public class JRT {
 		recalculateNF();
 	}
 
+	/**
+	 * Create the tokenizer splitting a record into fields,
+	 * as AWK does according to FS.
+	 *
+	 * @param record The record to split.
+	 * @param fs_string Contents of the FS variable.
+	 */
+	private static Enumeration<Object> newFieldTokenizer(String record, String fs_string) {
+		if (fs_string.equals(" ")) {
+			return new StringTokenizer(record);
+		} else if (fs_string.length() == 1) {
+			return new SingleCharacterTokenizer(record, fs_string.charAt(0));
+		} else if (fs_string.equals("")) {
+			return new CharacterTokenizer(record);
+		} else {
+			return new RegexTokenizer(record, fs_string);
+		}
+	}
+
 	private void recalculateNF() {
 		vm.setNF(Integer.valueOf(input_fields.size() - 1));
 	}
@@ -689,6 +1010,9 @@ public class JRT {
 	}
 
 	public Object jrtGetInputField(int fieldnum) {
+		if (fieldnum == 0) {
+			flushDollarZero();
+		}
 		if (fieldnum < input_fields.size()) {
 			String retval = input_fields.get(fieldnum);
 			assert retval != null;
@@ -722,25 +1046,57 @@ public class JRT {
 			}
 			input_fields.set(field_num, value);
 		}
-		// rebuild $0
-		rebuildDollarZeroFromFields();
+		// $0 is rebuilt when next read,
+		// so that assigning several fields rebuilds it only once
+		dollar_zero_dirty = true;
+		dollar_zero_ofs = vm.getOFS().toString();
 		// recalc NF
 		recalculateNF();
 		return value;
 	}
 
+	/**
+	 * Rebuild $0 from the fields, if they were assigned since.
+	 * $0 is joined with the value OFS had at the last assignment,
+	 * as if it had been rebuilt right then.
+	 */
+	private void flushDollarZero() {
+		if (dollar_zero_dirty) {
+			rebuildDollarZeroFromFields();
+		}
+	}
+
+	/**
+	 * @return $0, never <code>null</code>
+	 */
+	private String dollarZero() {
+		flushDollarZero();
+		return inputLine == null ? BLANK : inputLine;
+	}
+
 	private void rebuildDollarZeroFromFields() {
 		StringBuilder new_dollar_zero_sb = new StringBuilder();
-		String ofs = vm.getOFS().toString();
+		String ofs = dollar_zero_ofs;
 		for (int i = 1; i < input_fields.size(); i++) {
 			if (i > 1) {
 				new_dollar_zero_sb.append(ofs);
 			}
 			new_dollar_zero_sb.append(input_fields.get(i));
 		}
-		input_fields.set(0, new_dollar_zero_sb.toString());
+		inputLine = new_dollar_zero_sb.toString();
+		input_fields.set(0, inputLine);
+		dollar_zero_dirty = false;
 	}
 
+	/**
+	 * Retrieve the next record of a file, opening the file if necessary,
+	 * and make it available by {@link #jrtGetInputString()}.
+	 *
+	 * @param filename The file to read.
+	 *
+	 * @return Integer(1) if successful, Integer(0) if no more
+	 * 	input is available, Integer(-1) upon an IO error.
+	 */
 	public Integer jrtConsumeFileInputForGetline(String filename) {
 		try {
 			if (jrtConsumeFileInput(filename)) {
@@ -787,10 +1143,34 @@ public class JRT {
 		return jrt_input_string;
 	}
 
-	public Map<String, PrintStream> getOutputFiles() {
+	/**
+	 * @return The files print and printf output is redirected to.
+	 */
+	public OutputFileManager getOutputFiles() {
 		return outputFiles;
 	}
 
+	/**
+	 * Write the buffered output of all output files,
+	 * for example before a command may read them.
+	 */
+	public void jrtFlushOutputFiles() {
+		outputFiles.flush();
+	}
+
+	/**
+	 * Start the output of a print statement.
+	 * The items are appended to the returned buffer,
+	 * which writes them on {@link PrintBuffer#endLine()}.
+	 *
+	 * @param ps The stream to print to.
+	 *
+	 * @return The (reused) print buffer.
+	 */
+	public final PrintBuffer jrtBeginPrint(PrintStream ps) {
+		return print_buffer.begin(ps);
+	}
+
 	/**
 	 * Retrieve the PrintStream which writes to a particular file,
 	 * creating the PrintStream if necessary.
@@ -799,69 +1179,247 @@ public class JRT {
 	 * @param append true to append to the file, false to overwrite the file.
 	 */
 	public final PrintStream jrtGetPrintStream(String filename, boolean append) {
-		PrintStream ps = outputFiles.get(filename);
-		if (ps == null) {
-			try {
-				outputFiles.put(filename, ps = new PrintStream(new FileOutputStream(filename, append), true));	// true = autoflush
-			} catch (IOException ioe) {
-				throw new AwkRuntimeException("Cannot open " + filename + " for writing: " + ioe);
-			}
+		try {
+			return outputFiles.get(filename, append);
+		} catch (IOException ioe) {
+			throw new AwkRuntimeException("Cannot open " + filename + " for writing: " + ioe);
 		}
-		assert ps != null;
-		return ps;
 	}
 
+	/**
+	 * Read the next record of a file for <code>getline &lt; file</code>,
+	 * opening the file if necessary.
+	 * <p>
+	 * The record is only made available by {@link #jrtGetInputString()};
+	 * as per POSIX, this affects neither NR nor FILENAME,
+	 * and $0 only once the caller assigns the record to it.
+	 * </p>
+	 *
+	 * @param filename The file to read.
+	 *
+	 * @return true if a record was read, false at the end of the file.
+	 *
+	 * @throws IOException upon an IO error.
+	 */
 	public boolean jrtConsumeFileInput(String filename) throws IOException {
 		PartitioningReader pr = file_readers.get(filename);
 		if (pr == null) {
 			try {
-				file_readers.put(filename, pr = new PartitioningReader(new FileReader(filename), vm.getRS().toString()));
-				vm.setFILENAME(filename);
+				pr = new PartitioningReader(newFileReader(filename), vm.getRS().toString());
 			} catch (IOException ioe) {
 				LOG.warn("IO Exception", ioe);
-				file_readers.remove(filename);
 				throw ioe;
 			}
+			file_readers.put(filename, pr);
 		}
 
-		inputLine = pr.readRecord();
-		if (inputLine == null) {
+		String record = pr.readRecord();
+		if (record == null) {
 			return false;
 		} else {
-			jrt_input_string = inputLine;
-			vm.incNR();
+			jrt_input_string = record;
+			metrics.recordRead(record);
 			return true;
 		}
 	}
 
-	private static Process spawnProcess(String cmd) throws IOException {
+	/**
+	 * Read all the records of a file into an associative array,
+	 * keyed by one of their fields, as split according to FS;
+	 * that is <code>array[$keyfield] = $0</code> for each record.
+	 *
+	 * @param filename The file to read.
+	 * @param array The array to add the records to.
+	 * @param keyfield The field to key the records by;
+	 *   0 for the whole record.
+	 *
+	 * @return The number of records added to the array,
+	 *   or -1 upon an IO error.
+	 *
+	 * @see #jrtLoadMap(String, AssocArray, int, int)
+	 */
+	public int jrtLoadRecords(String filename, AssocArray array, int keyfield) {
+		return jrtLoadMap(filename, array, keyfield, 0);
+	}
 
-		Process p;
+	/**
+	 * Read all the records of a file into an associative array,
+	 * as a lookup table from one of their fields to another,
+	 * split according to FS;
+	 * that is <code>array[$keyfield] = $valuefield</code> for each record.
+	 * <p>
+	 * The file is read on its own, the same way as the main input,
+	 * but without affecting $0, NR, FILENAME,
+	 * or the files open for <code>getline</code>.
+	 * Records without the key field are skipped;
+	 * the value of records without the value field is blank.
+	 * Each record is only split up to the fields needed.
+	 * </p>
+	 * <p>
+	 * If the array is empty, it is presized for the number of distinct keys
+	 * estimated from the first records and the size of the file,
+	 * up to a limit, beyond which the array grows as usual.
+	 * </p>
+	 *
+	 * @param filename The file to read.
+	 * @param array The array to add the records to.
+	 * @param keyfield The field to key the records by;
+	 *   0 for the whole record.
+	 * @param valuefield The field to store;
+	 *   0 for the whole record.
+	 *
+	 * @return The number of records added to the array,
+	 *   or -1 upon an IO error.
+	 */
+	public int jrtLoadMap(String filename, AssocArray array, int keyfield, int valuefield) {
+		if (keyfield < 0) {
+			throw new AwkRuntimeException("Field $(" + keyfield + ") is incorrect.");
+		}
+		if (valuefield < 0) {
+			throw new AwkRuntimeException("Field $(" + valuefield + ") is incorrect.");
+		}
+		String fs_string = vm.getFS().toString();
+		int last_field = Math.max(keyfield, valuefield);
+		PartitioningReader pr = null;
+		int cnt = 0;
+		try {
+			pr = new PartitioningReader(newFileReader(filename), vm.getRS().toString());
+			List<String> sample = new ArrayList<String>(PRESIZE_SAMPLE_RECORDS);
+			Set<String> sample_keys = new HashSet<String>();
+			long sample_chars = 0;
+			String record;
+			while (sample.size() < PRESIZE_SAMPLE_RECORDS && (record = pr.readRecord()) != null) {
+				sample.add(record);
+				String key = getField(record, keyfield, fs_string);
+				if (key != null) {
+					sample_keys.add(key);
+				}
+				// counting one character for the separator
+				sample_chars += record.length() + 1;
+			}
+			if (sample.size() < PRESIZE_SAMPLE_RECORDS) {
+				array.presize(sample_keys.size());
+			} else if (!DecompressingInputStream.isCompressed(filename)) {
+				// duplicate keys in the sample are likely repeated throughout the file
+				long length = new File(filename).length();
+				array.presize((int) Math.min(PRESIZE_MAX_ELEMENTS, length * sample_keys.size() / sample_chars));
+			}
+			Iterator<String> sampled = sample.iterator();
+			while ((record = sampled.hasNext() ? sampled.next() : pr.readRecord()) != null) {
+				metrics.recordRead(record);
+				String key = keyfield == 0 ? record : null;
+				String value = valuefield == 0 ? record : BLANK;
+				if (last_field > 0) {
+					Enumeration<Object> tokenizer = newFieldTokenizer(record, fs_string);
+					for (int i = 1; i <= last_field && tokenizer.hasMoreElements(); i++) {
+						String field = (String) tokenizer.nextElement();
+						if (i == keyfield) {
+							key = field;
+						}
+						if (i == valuefield) {
+							value = field;
+						}
+					}
+				}
+				if (key != null) {
+					array.put(key, value);
+					++cnt;
+				}
+			}
+		} catch (IOException ioe) {
+			LOG.warn("IO Exception", ioe);
+			return -1;
+		} finally {
+			if (pr != null) {
+				try {
+					pr.close();
+				} catch (IOException ioe) {}
+			}
+		}
+		return cnt;
+	}
+
+	/**
+	 * @return The given field of the record, split according to
+	 *   <code>fs_string</code>; <code>null</code> if it has fewer fields.
+	 */
+	private static String getField(String record, int field, String fs_string) {
+		if (field == 0) {
+			return record;
+		}
+		Enumeration<Object> tokenizer = newFieldTokenizer(record, fs_string);
+		for (int i = 1; tokenizer.hasMoreElements(); i++) {
+			String value = (String) tokenizer.nextElement();
+			if (i == field) {
+				return value;
+			}
+		}
+		return null;
+	}
 
-		if (IS_WINDOWS) {
-			// spawn the process!
-			ProcessBuilder pb = new ProcessBuilder(("cmd.exe /c " + cmd).split("[ \t]+"));
-			p = pb.start();
+	private static String[] commandLine(String cmd) {
+		if (SHELL != null) {
+			return new String[] {SHELL, "-c", cmd};
+		} else if (IS_WINDOWS) {
+			return ("cmd.exe /c " + cmd).split("[ \t]+");
 		} else {
-			// spawn the process!
-			ProcessBuilder pb = new ProcessBuilder(cmd.split("[ \t]+"));
-			p = pb.start();
+			return cmd.split("[ \t]+");
+		}
+	}
+
+	/**
+	 * Spawns a process for the command.
+	 * Where the interpreter's own stdout or stderr are the destination,
+	 * the process may write to them directly (see {@link DataPump#INHERIT_STDIO_PROPERTY});
+	 * otherwise, pooled data pumps
+	 * relay the output, which are added to <code>pumps</code>.
+	 *
+	 * @param cmd The command to execute.
+	 * @param out Where to relay the standard output of the command to;
+	 *   <code>null</code> if the caller reads it.
+	 * @param err Where to relay the standard error of the command to.
+	 * @param pumps Receives the data pumps started for the process.
+	 */
+	@SuppressWarnings("UseOfSystemOutOrSystemErr")
+	private static Process spawnProcess(String cmd, PrintStream out, PrintStream err, List<Future<?>> pumps) throws IOException {
+
+		ProcessBuilder pb = new ProcessBuilder(commandLine(cmd));
+		boolean inherit_out = (out != null) && DataPump.inheritOutput(pb, out);
+		boolean inherit_err = DataPump.inheritError(pb, err);
+		// spawn the process!
+		Process p = pb.start();
+		if (!inherit_err) {
+			pumps.add(DataPump.dump(cmd, p.getErrorStream(), err));
+		}
+		if (out != null && !inherit_out) {
+			pumps.add(DataPump.dump(cmd, p.getInputStream(), out));
 		}
 
 		return p;
 	}
 
+	private static void awaitPumps(List<Future<?>> pumps) {
+		if (pumps != null) {
+			for (Future<?> pump : pumps) {
+				DataPump.await(pump);
+			}
+		}
+	}
+
 	@SuppressWarnings("UseOfSystemOutOrSystemErr")
 	public boolean jrtConsumeCommandInput(String cmd) throws IOException {
 		PartitioningReader pr = command_readers.get(cmd);
 		if (pr == null) {
 			try {
-				Process p = spawnProcess(cmd);
+				List<Future<?>> pumps = new ArrayList<Future<?>>(1);
+				// the command may read files we wrote to
+				outputFiles.flush();
+				Process p = spawnProcess(cmd, null, error, pumps);
 				// no input to this process!
 				p.getOutputStream().close();
-				DataPump.dump(cmd, p.getErrorStream(), System.err);
 				command_processes.put(cmd, p);
-				command_readers.put(cmd, pr = new PartitioningReader(new InputStreamReader(p.getInputStream()), vm.getRS().toString()));
+				process_pumps.put(p, pumps);
+				command_readers.put(cmd, pr = new PartitioningReader(newReader(p.getInputStream()), vm.getRS().toString()));
 				vm.setFILENAME("");
 			} catch (IOException ioe) {
 				LOG.warn("IO Exception", ioe);
@@ -869,17 +1427,20 @@ public class JRT {
 				Process p = command_processes.get(cmd);
 				command_processes.remove(cmd);
 				if (p != null) {
+					process_pumps.remove(p);
 					p.destroy();
 				}
 				throw ioe;
 			}
 		}
 
+		flushDollarZero();
 		inputLine = pr.readRecord();
 		if (inputLine == null) {
 			return false;
 		} else {
 			jrt_input_string = inputLine;
+			metrics.recordRead(inputLine);
 			vm.incNR();
 			return true;
 		}
@@ -887,8 +1448,9 @@ public class JRT {
 
 	/**
 	 * Retrieve the PrintStream which shuttles data to stdin for a process,
-	 * executing the process if necessary. Threads are created to shuttle the
-	 * data to/from the process.
+	 * executing the process if necessary. Pooled threads shuttle the
+	 * output of the process, unless it can write to our stdout/stderr
+	 * directly.
 	 *
 	 * @param cmd The command to execute.
 	 *
@@ -900,15 +1462,17 @@ public class JRT {
 		PrintStream ps = output_streams.get(cmd);
 		if (ps == null) {
 			Process p;
+			List<Future<?>> pumps = new ArrayList<Future<?>>(2);
+			// the command may read files we wrote to
+			outputFiles.flush();
 			try {
-				p = spawnProcess(cmd);
-				DataPump.dump(cmd, p.getErrorStream(), System.err);
-				DataPump.dump(cmd, p.getInputStream(), System.out);
+				p = spawnProcess(cmd, output, error, pumps);
 			} catch (IOException ioe) {
 				throw new AwkRuntimeException("Can't spawn " + cmd + ": " + ioe);
 			}
 			output_processes.put(cmd, p);
-			output_streams.put(cmd, ps = new PrintStream(p.getOutputStream(), true));	// true = auto-flush
+			process_pumps.put(p, pumps);
+			output_streams.put(cmd, ps = jrtNewPrintStream(p.getOutputStream()));
 		}
 		return ps;
 	}
@@ -947,24 +1511,34 @@ public class JRT {
 		for (String s : command_readers.keySet()) {
 			set.add(s);
 		}
-		for (String s : outputFiles.keySet()) {
-			set.add(s);
-		}
+		set.addAll(outputFiles.getFilenames());
 		for (String s : output_streams.keySet()) {
 			set.add(s);
 		}
 		for (String s : set) {
 			jrtClose(s);
 		}
+		closeInputFile();
 	}
 
-	private boolean jrtCloseOutputFile(String filename) {
-		PrintStream ps = outputFiles.get(filename);
-		if (ps != null) {
-			ps.close();
-			outputFiles.remove(filename);
+	/**
+	 * Closes the reader of the current input file from the
+	 * argument list, which also stops decompressing it.
+	 * The standard input is left open.
+	 */
+	private void closeInputFile() {
+		if (partitioningReader != null && partitioningReader.fromFilenameList()) {
+			try {
+				partitioningReader.close();
+			} catch (IOException ioe) {
+				LOG.warn("IO Exception", ioe);
+			}
 		}
-		return ps != null;
+		partitioningReader = null;
+	}
+
+	private boolean jrtCloseOutputFile(String filename) {
+		return outputFiles.close(filename);
 	}
 
 	private boolean jrtCloseOutputStream(String cmd) {
@@ -976,6 +1550,9 @@ public class JRT {
 		assert p != null;
 		output_processes.remove(cmd);
 		output_streams.remove(cmd);
+		List<Future<?>> pumps = process_pumps.remove(p);
+		// what we printed so far must precede the output of the process
+		output.flush();
 		ps.close();
 		// if windows, let the process kill itself eventually
 		if (!IS_WINDOWS) {
@@ -986,6 +1563,7 @@ public class JRT {
 			} catch (InterruptedException ie) {
 				throw new AwkRuntimeException("Caught exception while waiting for process exit: " + ie);
 			}
+			awaitPumps(pumps);
 		}
 		return true;
 	}
@@ -1013,6 +1591,7 @@ public class JRT {
 		assert p != null;
 		command_readers.remove(cmd);
 		command_processes.remove(cmd);
+		List<Future<?>> pumps = process_pumps.remove(p);
 		try {
 			pr.close();
 			// if windows, let the process kill itself eventually
@@ -1024,6 +1603,7 @@ public class JRT {
 				} catch (InterruptedException ie) {
 					throw new AwkRuntimeException("Caught exception while waiting for process exit: " + ie);
 				}
+				awaitPumps(pumps);
 			}
 			return true;
 		} catch (IOException ioe) {
@@ -1036,8 +1616,7 @@ public class JRT {
 	 * for termination, returning an Integer object
 	 * containing the return code.
 	 * stdin to this process is closed while
-	 * threads are created to shuttle stdout and
-	 * stderr of the command to stdout/stderr
+	 * stdout and stderr of the command go to stdout/stderr
 	 * of the calling process.
 	 *
 	 * @param cmd The command to execute.
@@ -1047,14 +1626,56 @@ public class JRT {
 	 */
 	@SuppressWarnings("UseOfSystemOutOrSystemErr")
 	public static Integer jrtSystem(String cmd) {
+		return jrtSystem(cmd, System.out, System.err);
+	}
+
+	/**
+	 * Executes the command specified by cmd and waits
+	 * for termination, returning an Integer object
+	 * containing the return code.
+	 * Same as {@link #jrtSystem(String, PrintStream, PrintStream)},
+	 * with the stderr of the command going to {@link System#err}.
+	 *
+	 * @param cmd The command to execute.
+	 * @param out Where to relay the standard output of the command to.
+	 *
+	 * @return Integer(return_code) of the created
+	 *   process. Integer(-1) is returned on an IO error.
+	 */
+	@SuppressWarnings("UseOfSystemOutOrSystemErr")
+	public static Integer jrtSystem(String cmd, PrintStream out) {
+		return jrtSystem(cmd, out, System.err);
+	}
+
+	/**
+	 * Executes the command specified by cmd and waits
+	 * for termination, returning an Integer object
+	 * containing the return code.
+	 * stdin to this process is closed while
+	 * stdout of the command goes to <code>out</code>,
+	 * and stderr to <code>err</code>;
+	 * directly where these are our own, otherwise relayed
+	 * by pooled threads.
+	 *
+	 * @param cmd The command to execute.
+	 * @param out Where to relay the standard output of the command to.
+	 * @param err Where to relay the standard error of the command to.
+	 *
+	 * @return Integer(return_code) of the created
+	 *   process. Integer(-1) is returned on an IO error.
+	 */
+	public static Integer jrtSystem(String cmd, PrintStream out, PrintStream err) {
+		// output printed so far must precede the output of the command
+		out.flush();
 		try {
-			Process p = spawnProcess(cmd);
+			List<Future<?>> pumps = new ArrayList<Future<?>>(2);
+			Process p = spawnProcess(cmd, out, err, pumps);
 			// no input to this process!
 			p.getOutputStream().close();
-			DataPump.dump(cmd, p.getErrorStream(), System.err);
-			DataPump.dump(cmd, p.getInputStream(), System.out);
 			try {
 				int retcode = p.waitFor();
+				// output of the command must precede output printed afterwards
+				awaitPumps(pumps);
 				return Integer.valueOf(retcode);
 			} catch (InterruptedException ie) {
 				return Integer.valueOf(p.exitValue());
@@ -1153,10 +1774,15 @@ public class JRT {
 		String orig_value = toAwkString(orig_value_obj, convfmt);
 		String repl = toAwkString(repl_obj, convfmt);
 		String ere = toAwkString(ere_obj, convfmt);
-		// remove special meaning for backslash and dollar signs
-		repl = Matcher.quoteReplacement(repl);
-		sb.setLength(0);
-		sb.append(orig_value.replaceFirst(ere, repl));
+		String literal = LiteralMatcher.toLiteral(ere);
+		if (literal != null) {
+			LiteralMatcher.replace(orig_value, literal, repl, false, sb);
+		} else {
+			// remove special meaning for backslash and dollar signs
+			repl = Matcher.quoteReplacement(repl);
+			sb.setLength(0);
+			sb.append(orig_value.replaceFirst(ere, repl));
+		}
 		if (sb.toString().equals(orig_value)) {
 			return ZERO;
 		} else {
@@ -1168,6 +1794,10 @@ public class JRT {
 		String orig_value = toAwkString(orig_value_obj, convfmt);
 		String repl = toAwkString(repl_obj, convfmt);
 		String ere = toAwkString(ere_obj, convfmt);
+		String literal = LiteralMatcher.toLiteral(ere);
+		if (literal != null) {
+			return Integer.valueOf(LiteralMatcher.replace(orig_value, literal, repl, true, sb));
+		}
 		// remove special meaning for backslash and dollar signs
 		repl = Matcher.quoteReplacement(repl);
 		sb.setLength(0);
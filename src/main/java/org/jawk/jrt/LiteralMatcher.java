@@ -0,0 +1,135 @@
+package org.jawk.jrt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plain string search for regular expressions which only match
+ * one literal string, like <code>,</code>, <code>GET</code>
+ * or <code>\.txt</code>.
+ * <p>
+ * Such expressions are common as arguments to
+ * <code>split</code>, <code>sub</code>, <code>gsub</code>,
+ * <code>match</code> and <code>~</code>.
+ * Searching them with <code>String.indexOf()</code> avoids
+ * compiling a <code>Pattern</code> (on each call),
+ * and the overhead of the regular expression engine.
+ * The results are those of <code>Pattern</code>,
+ * as a literal is matched character by character in both cases.
+ * </p>
+ */
+public final class LiteralMatcher {
+
+	/** characters with a special meaning in <code>Pattern</code> syntax */
+	private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+	private LiteralMatcher() {}
+
+	/**
+	 * Determine the literal string a regular expression matches,
+	 * if it does not use any regular expression features.
+	 * Metacharacters escaped by a backslash,
+	 * and <code>\t \n \r \f</code> are allowed.
+	 *
+	 * @param regexp A regular expression in <code>Pattern</code> syntax.
+	 *
+	 * @return The only string <code>regexp</code> matches,
+	 *   or <code>null</code> if it is not a (non-empty) literal.
+	 */
+	public static String toLiteral(String regexp) {
+		int len = regexp.length();
+		int i = 0;
+		while (i < len) {
+			char c = regexp.charAt(i);
+			if (METACHARACTERS.indexOf(c) >= 0 || isSurrogate(c)) {
+				break;
+			}
+			i++;
+		}
+		if (i == len) {
+			// the common case, no escapes
+			return len == 0 ? null : regexp;
+		}
+		StringBuilder literal = new StringBuilder(len);
+		literal.append(regexp, 0, i);
+		for (; i < len; i++) {
+			char c = regexp.charAt(i);
+			if (c == '\\') {
+				if (++i == len) {
+					return null;
+				}
+				c = regexp.charAt(i);
+				switch (c) {
+					case 't': c = '\t'; break;
+					case 'n': c = '\n'; break;
+					case 'r': c = '\r'; break;
+					case 'f': c = '\f'; break;
+					default:
+						if (Character.isLetterOrDigit(c) || isSurrogate(c)) {
+							// character classes, back references, \Q...\E, ...
+							return null;
+						}
+				}
+			} else if (METACHARACTERS.indexOf(c) >= 0 || isSurrogate(c)) {
+				return null;
+			}
+			literal.append(c);
+		}
+		return literal.length() == 0 ? null : literal.toString();
+	}
+
+	private static boolean isSurrogate(char c) {
+		return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+	}
+
+	/**
+	 * Split a string around a literal,
+	 * like <code>input.split(regexp, -1)</code>.
+	 *
+	 * @param input The string to split.
+	 * @param literal The (non-empty) delimiter.
+	 *
+	 * @return The substrings, including trailing empty ones.
+	 */
+	public static String[] split(String input, String literal) {
+		int next = input.indexOf(literal);
+		if (next < 0) {
+			return new String[] {input};
+		}
+		List<String> parts = new ArrayList<String>();
+		int start = 0;
+		while (next >= 0) {
+			parts.add(input.substring(start, next));
+			start = next + literal.length();
+			next = input.indexOf(literal, start);
+		}
+		parts.add(input.substring(start));
+		return parts.toArray(new String[parts.size()]);
+	}
+
+	/**
+	 * Replace the first or all occurrences of a literal.
+	 *
+	 * @param input The string to search.
+	 * @param literal The (non-empty) string to replace.
+	 * @param replacement The replacement, taken literally.
+	 * @param all Whether to replace all occurrences, or only the first.
+	 * @param sb Receives the resulting string.
+	 *
+	 * @return The number of replacements.
+	 */
+	public static int replace(String input, String literal, String replacement, boolean all, StringBuffer sb) {
+		sb.setLength(0);
+		int start = 0;
+		int count = 0;
+		int next = input.indexOf(literal);
+		while (next >= 0) {
+			sb.append(input, start, next).append(replacement);
+			count++;
+			start = next + literal.length();
+			next = all ? input.indexOf(literal, start) : -1;
+		}
+		sb.append(input, start, input.length());
+		return count;
+	}
+}
@@ -0,0 +1,185 @@
+package org.jawk.jrt;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Manages the files <code>print</code> and <code>printf</code> output
+ * is redirected to, keeping at most a given number of them open.
+ * <p>
+ * When one more file is needed, the least recently written one is closed,
+ * and transparently reopened when it is written to again.
+ * Per AWK rules, <code>print &gt; file</code> truncates the file only
+ * when it is opened for the first time, or again after an explicit
+ * <code>close()</code>; a file reopened after it was evicted is
+ * therefore always appended to.
+ * </p>
+ * <p>
+ * Each file is written through its own buffer,
+ * which is flushed when the file is closed or evicted,
+ * or by {@link #flush()}.
+ * Device files (under <code>/dev/</code>),
+ * like <code>/dev/stderr</code>, are not buffered.
+ * </p>
+ * <p>
+ * In write-behind mode (see {@link #WRITE_BEHIND_PROPERTY}),
+ * a background thread writes the buffers of the files
+ * (see {@link WriteBehindOutputStream}); closing or flushing
+ * a file waits until all of its output is written.
+ * </p>
+ */
+public final class OutputFileManager {
+
+	/**
+	 * System property setting the maximum number of output files
+	 * kept open at the same time; {@value #DEFAULT_MAX_OPEN_FILES} by default.
+	 */
+	public static final String MAX_OPEN_FILES_PROPERTY = "jawk.maxOpenFiles";
+	public static final int DEFAULT_MAX_OPEN_FILES = 256;
+
+	/**
+	 * System property which, when set to <code>true</code>,
+	 * makes the output to files be written by a background thread.
+	 */
+	public static final String WRITE_BEHIND_PROPERTY = "jawk.writeBehind";
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private final JRT jrt;
+	private final int max_open_files;
+	private final boolean write_behind;
+	/** the open files, least recently used first */
+	private final Map<String, PrintStream> open_files = new LinkedHashMap<String, PrintStream>(16, 0.75f, true);
+	/** files closed to stay within the limit, but not by the script */
+	private final Set<String> evicted_files = new HashSet<String>();
+
+	/**
+	 * @param jrt Creates the streams, according to its byte mode.
+	 */
+	OutputFileManager(JRT jrt) {
+		this(jrt, Integer.getInteger(MAX_OPEN_FILES_PROPERTY, DEFAULT_MAX_OPEN_FILES),
+				Boolean.getBoolean(WRITE_BEHIND_PROPERTY));
+	}
+
+	/**
+	 * @param jrt Creates the streams, according to its byte mode.
+	 * @param max_open_files The maximum number of files kept open.
+	 * @param write_behind Whether to write the files in the background.
+	 */
+	OutputFileManager(JRT jrt, int max_open_files, boolean write_behind) {
+		if (max_open_files < 1) {
+			throw new IllegalArgumentException("At least one output file has to be open, not " + max_open_files);
+		}
+		this.jrt = jrt;
+		this.max_open_files = max_open_files;
+		this.write_behind = write_behind;
+	}
+
+	/**
+	 * Retrieve the stream writing to a file,
+	 * opening (or reopening) the file if necessary.
+	 *
+	 * @param filename The file to write to.
+	 * @param append <code>true</code> for <code>&gt;&gt;</code>,
+	 *   <code>false</code> for <code>&gt;</code>;
+	 *   only relevant when the script opens the file.
+	 *
+	 * @return The stream to print to; valid until another file is retrieved.
+	 *
+	 * @throws IOException if the file can not be opened.
+	 */
+	public PrintStream get(String filename, boolean append) throws IOException {
+		PrintStream ps = open_files.get(filename);
+		if (ps == null) {
+			if (open_files.size() >= max_open_files) {
+				evictLeastRecentlyUsed();
+			}
+			boolean reopen = evicted_files.remove(filename);
+			ps = open(filename, append || reopen);
+			open_files.put(filename, ps);
+		}
+		return ps;
+	}
+
+	private PrintStream open(String filename, boolean append) throws IOException {
+		FileOutputStream out = new FileOutputStream(filename, append);
+		if (filename.startsWith("/dev/")) {
+			return jrt.jrtNewPrintStream(out);
+		}
+		if (write_behind) {
+			return jrt.jrtNewPrintStream(new WriteBehindOutputStream(out), false);
+		}
+		return jrt.jrtNewPrintStream(new BufferedOutputStream(out, BUFFER_SIZE), false);
+	}
+
+	private void evictLeastRecentlyUsed() {
+		Iterator<Map.Entry<String, PrintStream>> it = open_files.entrySet().iterator();
+		Map.Entry<String, PrintStream> eldest = it.next();
+		it.remove();
+		eldest.getValue().close();
+		evicted_files.add(eldest.getKey());
+	}
+
+	/**
+	 * Close a file, so the next <code>print &gt;</code> to it
+	 * truncates it again.
+	 *
+	 * @param filename The file to close.
+	 *
+	 * @return Whether the script had the file open.
+	 */
+	public boolean close(String filename) {
+		PrintStream ps = open_files.remove(filename);
+		if (ps != null) {
+			ps.close();
+			return true;
+		}
+		return evicted_files.remove(filename);
+	}
+
+	/**
+	 * Close all files.
+	 */
+	public void closeAll() {
+		for (PrintStream ps : open_files.values()) {
+			ps.close();
+		}
+		open_files.clear();
+		evicted_files.clear();
+	}
+
+	/**
+	 * Write the buffered output of all open files to them.
+	 */
+	public void flush() {
+		for (PrintStream ps : open_files.values()) {
+			ps.flush();
+		}
+	}
+
+	/**
+	 * @return The names of the files the script has open,
+	 *   including the ones temporarily closed.
+	 */
+	public List<String> getFilenames() {
+		List<String> filenames = new ArrayList<String>(open_files.keySet());
+		filenames.addAll(evicted_files);
+		return filenames;
+	}
+
+	/**
+	 * @return The number of files currently open.
+	 */
+	public int size() {
+		return open_files.size();
+	}
+}
@@ -44,7 +44,12 @@ public class PartitioningReader extends FilterReader {
 		String grs = System.getProperty("jawk.forceGreedyRS", "0").trim();
 		FORCE_GREEDY_RS = grs.equals("1") || grs.equalsIgnoreCase("yes") || grs.equalsIgnoreCase("true");
 	}
+	/** how many characters to read from the underlying reader at once */
+	private static final int READ_BUFFER_SIZE = 65536;
+
 	private Pattern rs;
+	/** the record separator, if it is a literal string; searched without <code>rs</code> */
+	private String literal;
 	private Matcher matcher;
 	private boolean fromFileNameList;
 
@@ -90,6 +95,9 @@ public class PartitioningReader extends FilterReader {
 				consumeAll = false;
 				rs = Pattern.compile(recordSeparator, Pattern.DOTALL | Pattern.MULTILINE);
 			}
+			literal = consumeAll ? null : LiteralMatcher.toLiteral(recordSeparator);
+			matcher = null;
+			searchFrom = start;
 			priorRecordSeparator = recordSeparator;
 		}
 	}
@@ -102,28 +110,73 @@ public class PartitioningReader extends FilterReader {
 		return fromFileNameList;
 	}
 
-	private StringBuffer remaining = new StringBuffer();
-	private char[] readBuffer = new char[4096];
+	/** read but not yet consumed input, starting at <code>start</code> */
+	private StringBuilder remaining = new StringBuilder();
+	/** where the next record starts within <code>remaining</code> */
+	private int start = 0;
+	/** where to continue looking for a literal separator */
+	private int searchFrom = 0;
+	private char[] readBuffer = new char[READ_BUFFER_SIZE];
 
 	@Override
-	public int read(char[] b, int start, int len) throws IOException {
-		int retVal = super.read(b, start, len);
+	public int read(char[] b, int off, int len) throws IOException {
+		int retVal = super.read(b, off, len);
 		if (retVal >= 0) {
-			remaining.append(b, start, retVal);
+			if (start > 0) {
+				// drop the consumed records before growing the buffer
+				remaining.delete(0, start);
+				searchFrom -= start;
+				start = 0;
+			}
+			remaining.append(b, off, retVal);
 		}
 		return retVal;
 	}
 
 	public boolean willBlock() {
+		return (consumeAll || eof || remaining.length() == start || !findSeparator());
+	}
+	private boolean eof = false;
+
+	/**
+	 * Look for the next record separator, and remember its position in
+	 * <code>separatorStart</code> and <code>separatorEnd</code>.
+	 * Like <code>Pattern.split()</code>, an empty match
+	 * at the start of the record is skipped.
+	 *
+	 * @return whether a record separator was found
+	 *   in the input read so far
+	 */
+	private boolean findSeparator() {
+		if (literal != null) {
+			int found = remaining.indexOf(literal, Math.max(start, searchFrom));
+			if (found < 0) {
+				// a separator may begin within the last few characters
+				searchFrom = Math.max(start, remaining.length() - literal.length() + 1);
+				return false;
+			}
+			separatorStart = found;
+			separatorEnd = found + literal.length();
+			return true;
+		}
 		if (matcher == null) {
 			matcher = rs.matcher(remaining);
 		} else {
 			matcher.reset(remaining);
 		}
-
-		return (consumeAll || eof || remaining.length() == 0 || !matcher.find());
+		matcher.region(start, remaining.length());
+		while (matcher.find()) {
+			if (matcher.end() == start) {
+				continue;
+			}
+			separatorStart = matcher.start();
+			separatorEnd = matcher.end();
+			return true;
+		}
+		return false;
 	}
-	private boolean eof = false;
+	private int separatorStart;
+	private int separatorEnd;
 
 	/**
 	 * Consume one record from the reader.
@@ -136,18 +189,14 @@ public class PartitioningReader extends FilterReader {
 	 */
 	public String readRecord() throws IOException {
 
-		if (matcher == null) {
-			matcher = rs.matcher(remaining);
-		} else {
-			matcher.reset(remaining);
-		}
-
-		while (consumeAll || eof || remaining.length() == 0 || !matcher.find()) {
+		while (consumeAll || eof || remaining.length() == start || !findSeparator()) {
 			int len = read(readBuffer, 0, readBuffer.length);
 			if (eof || (len < 0)) {
 				eof = true;
-				String retVal = remaining.toString();
+				String retVal = remaining.substring(start);
 				remaining.setLength(0);
+				start = 0;
+				searchFrom = 0;
 				if (retVal.length() == 0) {
 					return null;
 				} else {
@@ -156,21 +205,18 @@ public class PartitioningReader extends FilterReader {
 			} else if (len == 0) {
 				throw new RuntimeException("len == 0 ?!");
 			}
-			matcher = rs.matcher(remaining);
 		}
 
-		matcher.reset();
-
 		// if force greedy regex consumption:
-		if (FORCE_GREEDY_RS) {
+		if (FORCE_GREEDY_RS && literal == null) {
 			// attempt to move last match away from the end of the input
 			// so that buffer bounderies landing in the middle of
 			// regexp matches that *could* match the regexp if more chars
 			// were read
 			// (one char at a time!)
-			while (matcher.find() && matcher.end() == remaining.length() && matcher.requireEnd()) {
+			while (separatorEnd == remaining.length() && matcher.requireEnd()) {
 				if (read(readBuffer, 0, 1) >= 0) {
-					matcher = rs.matcher(remaining);
+					findSeparator();
 				} else {
 					break;
 				}
@@ -179,15 +225,9 @@ public class PartitioningReader extends FilterReader {
 
 		// we have a record separator!
 
-		String[] splitString = rs.split(remaining, 2);
-
-		String retVal = splitString[0];
-		remaining.setLength(0);
-		// append to remaining only if the split
-		// resulted in multiple parts
-		if (splitString.length > 1) {
-			remaining.append(splitString[1]);
-		}
+		String retVal = remaining.substring(start, separatorStart);
+		start = separatorEnd;
+		searchFrom = start;
 		return retVal;
 	}
 }
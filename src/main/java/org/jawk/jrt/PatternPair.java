@@ -19,11 +19,33 @@ public class PatternPair {
 
 	private Pattern p1;
 	private Pattern p2;
+	/** DFAs for p1 and p2, or <code>null</code> where not supported */
+	private DfaMatcher dfa1;
+	private DfaMatcher dfa2;
+	/** slots of p1 and p2 in the rule prefilter; negative if none */
+	private int slot1 = -1;
+	private int slot2 = -1;
 	private boolean within = false;
 
+	/**
+	 * @param s1 The first regex.
+	 * @param s2 The second regex.
+	 * @param slot1 The slot of the first regex in the {@link RulePrefilter}, or -1.
+	 * @param slot2 The slot of the second regex in the {@link RulePrefilter}, or -1.
+	 */
+	public PatternPair(String s1, String s2, int slot1, int slot2) {
+		this(s1, s2);
+		this.slot1 = slot1;
+		this.slot2 = slot2;
+	}
+
 	public PatternPair(String s1, String s2) {
 		p1 = Pattern.compile(s1);
 		p2 = Pattern.compile(s2);
+		if (JRT.USE_DFA) {
+			dfa1 = DfaMatcher.compile(p1);
+			dfa2 = DfaMatcher.compile(p2);
+		}
 	}
 
 	/**
@@ -40,16 +62,37 @@ public class PatternPair {
 	 * </p>
 	 */
 	public boolean matches(String str) {
-		if (p1.matcher(str).find()) {
+		return matches(str, null);
+	}
+
+	/**
+	 * Same as {@link #matches(String)}, but skips regexes which
+	 * the prefilter rules out.
+	 *
+	 * @param str Text to match against the first and second
+	 *   regular expressions.
+	 * @param prefilter The rule prefilter, or <code>null</code>.
+	 *
+	 * @return See {@link #matches(String)}.
+	 */
+	public boolean matches(String str, RulePrefilter prefilter) {
+		if (find(p1, dfa1, slot1, str, prefilter)) {
 			within = true;
 		}
-		if (within && p2.matcher(str).find()) {
+		if (within && find(p2, dfa2, slot2, str, prefilter)) {
 			within = false;
 			return true; // inclusive
 		}
 		return within;
 	}
 
+	private static boolean find(Pattern p, DfaMatcher dfa, int slot, String str, RulePrefilter prefilter) {
+		if (prefilter != null && !prefilter.mayMatch(slot, str)) {
+			return false;
+		}
+		return dfa == null ? p.matcher(str).find() : dfa.find(str);
+	}
+
 	@Override
 	public String toString() {
 		return p1 + "," + p2;
@@ -0,0 +1,249 @@
+package org.jawk.jrt;
+
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Formatter;
+import java.util.Set;
+import java.util.UnknownFormatConversionException;
+import java.util.WeakHashMap;
+
+/**
+ * Assembles the output of one <code>print</code> statement,
+ * and writes it to its stream in a single call.
+ * <p>
+ * Items are appended to a reusable character buffer:
+ * strings (like fields) as they are, and integral numbers
+ * without creating an intermediate <code>String</code>.
+ * At the end of the line, the buffer is encoded into a reusable
+ * byte buffer with the charset of this buffer,
+ * and handed to the stream, which is then only locked once.
+ * This is only done for streams known to encode characters
+ * with that charset (see {@link #addByteStream(PrintStream)});
+ * other streams are given the line as a <code>String</code>,
+ * to encode (or append, for {@link AppendablePrintStream}) it themselves.
+ * </p>
+ * <p>
+ * A print statement is executed as follows:
+ * <blockquote>
+ * <pre>
+ * buffer.begin(ps).append(item1, ofmt).append(ofs).append(item2, ofmt).endLine();
+ * </pre>
+ * </blockquote>
+ * </p>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public final class PrintBuffer {
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	/** PrintStream.charset(), as of Java 18; null before */
+	private static final Method CHARSET_METHOD = getCharsetMethod();
+
+	private final Charset charset;
+	/** whether ASCII characters are encoded as one byte of the same value */
+	private final boolean asciiCompatible;
+	/** the highest character which is encoded as one byte of the same value */
+	private final char maxDirect;
+	private final StringBuilder chars = new StringBuilder(256);
+	private final Formatter formatter = new Formatter(chars);
+	private byte[] bytes = new byte[256];
+	private PrintStream target = null;
+	/** whether the bytes are written to the target, rather than the String */
+	private boolean direct = false;
+	/** the last stream checked for whether it can be written bytes to */
+	private PrintStream last_target = null;
+	private boolean last_direct = false;
+	/** streams registered by addByteStream() */
+	private final Set<PrintStream> byte_streams = Collections.newSetFromMap(new WeakHashMap<PrintStream, Boolean>());
+
+	public PrintBuffer() {
+		this(Charset.defaultCharset());
+	}
+
+	/**
+	 * @param charset The charset to encode the output with.
+	 */
+	public PrintBuffer(Charset charset) {
+		this.charset = charset;
+		this.asciiCompatible = isAsciiCompatible(charset);
+		this.maxDirect = charset.name().equals("ISO-8859-1") ? (char) 255 : (char) 127;
+	}
+
+	private static Method getCharsetMethod() {
+		try {
+			return PrintStream.class.getMethod("charset");
+		} catch (NoSuchMethodException nsme) {
+			return null;
+		}
+	}
+
+	/**
+	 * Declares that the lines printed to a stream can be handed
+	 * to it as bytes, encoded with the charset of this buffer.
+	 * This is the case for streams which encode characters
+	 * with the same charset, and (in byte mode) for streams
+	 * meant to receive the bytes as they are.
+	 *
+	 * @param ps The stream.
+	 *
+	 * @return The stream.
+	 */
+	public PrintStream addByteStream(PrintStream ps) {
+		byte_streams.add(ps);
+		if (ps == last_target) {
+			last_direct = true;
+		}
+		return ps;
+	}
+
+	private boolean isByteStream(PrintStream ps) {
+		if (byte_streams.contains(ps)) {
+			return true;
+		}
+		// a plain PrintStream which tells its charset (ie. System.out)
+		if (CHARSET_METHOD != null && ps.getClass() == PrintStream.class) {
+			try {
+				return charset.equals(CHARSET_METHOD.invoke(ps));
+			} catch (Exception e) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isAsciiCompatible(Charset charset) {
+		char[] ascii = new char[128];
+		for (int i = 0; i < ascii.length; i++) {
+			ascii[i] = (char) i;
+		}
+		byte[] encoded = new String(ascii).getBytes(charset);
+		if (encoded.length != ascii.length) {
+			return false;
+		}
+		for (int i = 0; i < encoded.length; i++) {
+			if (encoded[i] != i) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Start a new line of output.
+	 *
+	 * @param ps The stream to write the line to.
+	 *
+	 * @return This buffer.
+	 */
+	public PrintBuffer begin(PrintStream ps) {
+		chars.setLength(0);
+		target = ps;
+		if (ps != last_target) {
+			last_target = ps;
+			last_direct = isByteStream(ps);
+		}
+		direct = last_direct;
+		return this;
+	}
+
+	/**
+	 * Forget the streams lines were written to,
+	 * when they are no longer used.
+	 */
+	public void reset() {
+		target = null;
+		last_target = null;
+		last_direct = false;
+		byte_streams.clear();
+	}
+
+	/**
+	 * Append a string verbatim, like the output field separator.
+	 *
+	 * @param s The string to append.
+	 *
+	 * @return This buffer.
+	 */
+	public PrintBuffer append(String s) {
+		chars.append(s);
+		return this;
+	}
+
+	/**
+	 * Append an item the way
+	 * {@link JRT#toAwkStringForOutput(Object, String)} converts it.
+	 *
+	 * @param o The item to append.
+	 * @param ofmt The contents of the OFMT variable.
+	 *
+	 * @return This buffer.
+	 */
+	public PrintBuffer append(Object o, String ofmt) {
+		if (o instanceof String) {
+			chars.append((String) o);
+		} else if (o instanceof Number) {
+			double d = ((Number) o).doubleValue();
+			if (d == (int) d) {
+				chars.append((int) d);
+			} else {
+				int length = chars.length();
+				try {
+					formatter.format(ofmt, d);
+				} catch (UnknownFormatConversionException ufce) {
+					chars.setLength(length);
+				}
+			}
+		} else {
+			chars.append(o.toString());
+		}
+		return this;
+	}
+
+	/**
+	 * Terminate the line, and write it to the stream
+	 * given to {@link #begin(PrintStream)}.
+	 */
+	public void endLine() {
+		chars.append(LINE_SEPARATOR);
+		end();
+	}
+
+	/**
+	 * Write the output to the stream given to {@link #begin(PrintStream)},
+	 * without terminating the line (as for <code>printf</code>).
+	 */
+	public void end() {
+		if (!direct) {
+			target.print(chars.toString());
+			target = null;
+			return;
+		}
+		int length = chars.length();
+		if (asciiCompatible) {
+			if (bytes.length < length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			int i = 0;
+			while (i < length) {
+				char c = chars.charAt(i);
+				if (c > maxDirect) {
+					break;
+				}
+				bytes[i++] = (byte) c;
+			}
+			if (i == length) {
+				target.write(bytes, 0, length);
+				target = null;
+				return;
+			}
+		}
+		// not plain ASCII (or Latin-1); encode like PrintStream does
+		byte[] encoded = chars.toString().getBytes(charset);
+		target.write(encoded, 0, encoded.length);
+		target = null;
+	}
+}
@@ -0,0 +1,17 @@
+package org.jawk.jrt;
+
+/**
+ * Receives the output of a script record by record,
+ * instead of as a stream of characters.
+ *
+ * @see RecordWriter
+ */
+public interface RecordConsumer {
+
+	/**
+	 * Called once for every line of output.
+	 *
+	 * @param record The line, without the terminating line separator.
+	 */
+	void consumeRecord(String record);
+}
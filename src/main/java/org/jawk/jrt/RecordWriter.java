@@ -0,0 +1,89 @@
+package org.jawk.jrt;
+
+import java.io.Writer;
+
+/**
+ * A <code>Writer</code> which splits the written characters into lines,
+ * and hands each of them to a {@link RecordConsumer}.
+ * <p>
+ * Line separators are <code>"\n"</code> and <code>"\r\n"</code>.
+ * An unterminated last line is handed over only by {@link #finish()}
+ * or {@link #close()}, as the runtime flushes its output in the middle
+ * of an execution as well (e.g. before <code>system()</code>).
+ * </p>
+ */
+public class RecordWriter extends Writer {
+
+	private final RecordConsumer consumer;
+	private final StringBuilder pending = new StringBuilder();
+
+	public RecordWriter(RecordConsumer consumer) {
+		this.consumer = consumer;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		int start = off;
+		int end = off + len;
+		for (int i = off; i < end; i++) {
+			if (cbuf[i] == '\n') {
+				pending.append(cbuf, start, i - start);
+				emit();
+				start = i + 1;
+			}
+		}
+		pending.append(cbuf, start, end - start);
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		int start = off;
+		int end = off + len;
+		int idx;
+		while ((idx = str.indexOf('\n', start)) >= 0 && idx < end) {
+			pending.append(str, start, idx);
+			emit();
+			start = idx + 1;
+		}
+		pending.append(str, start, end);
+	}
+
+	@Override
+	public void write(int c) {
+		if (c == '\n') {
+			emit();
+		} else {
+			pending.append((char) c);
+		}
+	}
+
+	private void emit() {
+		int len = pending.length();
+		if (len > 0 && pending.charAt(len - 1) == '\r') {
+			pending.setLength(len - 1);
+		}
+		String record = pending.toString();
+		pending.setLength(0);
+		consumer.consumeRecord(record);
+	}
+
+	@Override
+	public void flush() {
+		// lines are handed over as soon as they are complete
+	}
+
+	/**
+	 * Hands over the unterminated last line, if any.
+	 * To be called once the output is complete.
+	 */
+	public void finish() {
+		if (pending.length() > 0) {
+			emit();
+		}
+	}
+
+	@Override
+	public void close() {
+		finish();
+	}
+}
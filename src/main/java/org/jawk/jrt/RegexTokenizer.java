@@ -19,7 +19,12 @@ public class RegexTokenizer implements Enumeration<Object> {
 	 *   within the input string.
 	 */
 	public RegexTokenizer(String input, String delimitterRegexPattern) {
-		array = input.split(delimitterRegexPattern, -2);
+		String literal = LiteralMatcher.toLiteral(delimitterRegexPattern);
+		if (literal == null) {
+			array = input.split(delimitterRegexPattern, -2);
+		} else {
+			array = LiteralMatcher.split(input, literal);
+		}
 	}
 
 	@Override
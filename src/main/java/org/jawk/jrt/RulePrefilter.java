@@ -0,0 +1,103 @@
+package org.jawk.jrt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cheaply rules out regular expressions of rule conditions
+ * (<code>/regexp/ { ... }</code>) which cannot match the current record.
+ * <p>
+ * For each regular expression (identified by its slot),
+ * the literal strings are determined of which every match
+ * has to contain at least one.
+ * The record is then scanned once for all of these literals
+ * with an {@link AhoCorasick} automaton, and only regular expressions
+ * whose literals were found need to be evaluated.
+ * The scan is redone whenever the record (string instance) changes.
+ * </p>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public final class RulePrefilter {
+
+	/** literal indices per slot, <code>null</code> for slots without literals */
+	private final int[][] slotLiterals;
+	private final AhoCorasick automaton;
+	private final boolean[] found;
+	/** the record the <code>found</code> flags belong to */
+	private String scanned = null;
+
+	private RulePrefilter(int[][] slotLiterals, List<String> literals) {
+		this.slotLiterals = slotLiterals;
+		this.automaton = new AhoCorasick(literals);
+		this.found = new boolean[literals.size()];
+	}
+
+	/**
+	 * Analyze the regular expressions of rule conditions.
+	 *
+	 * @param regexps The regular expressions, indexed by slot.
+	 *
+	 * @return A prefilter, or <code>null</code> if fewer than two
+	 *   of the regular expressions have required literals,
+	 *   in which case a prefilter would not pay off.
+	 */
+	public static RulePrefilter create(List<String> regexps) {
+		int[][] slotLiterals = new int[regexps.size()][];
+		List<String> literals = new ArrayList<String>();
+		Map<String, Integer> literalIndices = new HashMap<String, Integer>();
+		int filtered = 0;
+		for (int slot = 0; slot < regexps.size(); slot++) {
+			Set<String> required = DfaMatcher.requiredLiterals(regexps.get(slot));
+			if (required == null) {
+				continue;
+			}
+			filtered++;
+			slotLiterals[slot] = new int[required.size()];
+			int i = 0;
+			for (String literal : required) {
+				Integer index = literalIndices.get(literal);
+				if (index == null) {
+					index = literals.size();
+					literals.add(literal);
+					literalIndices.put(literal, index);
+				}
+				slotLiterals[slot][i++] = index;
+			}
+		}
+		if (filtered < 2) {
+			return null;
+		}
+		return new RulePrefilter(slotLiterals, literals);
+	}
+
+	/**
+	 * @param slot The slot of the regular expression,
+	 *   or a negative value for none.
+	 * @param record The text to be matched.
+	 *
+	 * @return <code>false</code> if the regular expression
+	 *   cannot match anywhere within <code>record</code>.
+	 */
+	public boolean mayMatch(int slot, String record) {
+		if (slot < 0 || slotLiterals[slot] == null) {
+			return true;
+		}
+		if (record != scanned) {
+			Arrays.fill(found, false);
+			automaton.scan(record, found);
+			scanned = record;
+		}
+		for (int literal : slotLiterals[slot]) {
+			if (found[literal]) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,234 @@
+package org.jawk.jrt;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.jawk.util.LazyLogger;
+
+/**
+ * Counters describing the work performed by a single Jawk runtime.
+ * <p>
+ * Counters are plain (non-volatile, unsynchronized) fields
+ * incremented by the thread executing the script,
+ * so that collecting them costs no more than a field increment
+ * and they can be left enabled at all times.
+ * Values which are already maintained elsewhere
+ * (open files, stack depth, array sizes) are not copied,
+ * but computed upon request.
+ * </p>
+ * <p>
+ * If the system property <code>jawk.jmx</code> is set to
+ * <code>true</code>, the interpreter registers its metrics
+ * with the platform MBean server under the name
+ * <code>org.jawk:type=RuntimeMetrics,id=<i>N</i></code>
+ * for the duration of the script execution.
+ * </p>
+ *
+ * @see JRT#getMetrics()
+ */
+public class RuntimeMetrics implements RuntimeMetricsMBean {
+
+	private static final LazyLogger LOG = LazyLogger.getLogger(RuntimeMetrics.class);
+
+	/**
+	 * Whether runtimes are to register their metrics as an MBean.
+	 */
+	public static final boolean JMX_ENABLED = Boolean.getBoolean("jawk.jmx");
+
+	private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger();
+
+	/**
+	 * Provides values owned by the interpreter rather than by the JRT.
+	 */
+	public interface StateSource {
+
+		/**
+		 * @return Current depth of the operand stack.
+		 */
+		int getOperandStackDepth();
+
+		/**
+		 * @return The number of map entries of every global
+		 *   associative array, keyed by variable name.
+		 */
+		Map<String, Integer> getAssocArraySizes();
+	}
+
+	private final JRT jrt;
+	private StateSource stateSource = null;
+	private ObjectName objectName = null;
+
+	private long startTime = System.currentTimeMillis();
+	private long recordsRead = 0;
+	private long charactersRead = 0;
+	private long fieldSplits = 0;
+	private long regexCacheHits = 0;
+	private long regexCacheMisses = 0;
+	private long assocArraysAllocated = 0;
+	private long functionCalls = 0;
+
+	RuntimeMetrics(JRT jrt) {
+		this.jrt = jrt;
+	}
+
+	public void setStateSource(StateSource stateSource) {
+		this.stateSource = stateSource;
+	}
+
+	final void recordRead(String record) {
+		++recordsRead;
+		charactersRead += record.length();
+	}
+
+	final void fieldSplit() {
+		++fieldSplits;
+	}
+
+	public final void regexCacheHit() {
+		++regexCacheHits;
+	}
+
+	public final void regexCacheMiss() {
+		++regexCacheMisses;
+	}
+
+	public final void assocArrayAllocated() {
+		++assocArraysAllocated;
+	}
+
+	public final void functionCalled() {
+		++functionCalls;
+	}
+
+	@Override
+	public long getRecordsRead() {
+		return recordsRead;
+	}
+
+	@Override
+	public long getCharactersRead() {
+		return charactersRead;
+	}
+
+	@Override
+	public double getRecordsPerSecond() {
+		long elapsed = System.currentTimeMillis() - startTime;
+		if (elapsed <= 0) {
+			return 0;
+		}
+		return recordsRead * 1000.0 / elapsed;
+	}
+
+	@Override
+	public long getFieldSplits() {
+		return fieldSplits;
+	}
+
+	@Override
+	public long getRegexCacheHits() {
+		return regexCacheHits;
+	}
+
+	@Override
+	public long getRegexCacheMisses() {
+		return regexCacheMisses;
+	}
+
+	@Override
+	public int getOpenOutputFiles() {
+		return jrt.getNumOpenOutputFiles();
+	}
+
+	@Override
+	public int getOpenPipes() {
+		return jrt.getNumOpenPipes();
+	}
+
+	@Override
+	public int getOperandStackDepth() {
+		return stateSource == null ? 0 : stateSource.getOperandStackDepth();
+	}
+
+	@Override
+	public Map<String, Integer> getAssocArraySizes() {
+		if (stateSource == null) {
+			return Collections.emptyMap();
+		}
+		return stateSource.getAssocArraySizes();
+	}
+
+	@Override
+	public long getAssocArraysAllocated() {
+		return assocArraysAllocated;
+	}
+
+	@Override
+	public long getFunctionCalls() {
+		return functionCalls;
+	}
+
+	@Override
+	public void reset() {
+		startTime = System.currentTimeMillis();
+		recordsRead = 0;
+		charactersRead = 0;
+		fieldSplits = 0;
+		regexCacheHits = 0;
+		regexCacheMisses = 0;
+		assocArraysAllocated = 0;
+		functionCalls = 0;
+	}
+
+	/**
+	 * Register these metrics with the platform MBean server,
+	 * if enabled by the <code>jawk.jmx</code> system property.
+	 * Registration failures are logged, but otherwise ignored.
+	 */
+	public void registerMBean() {
+		if (!JMX_ENABLED || objectName != null) {
+			return;
+		}
+		try {
+			ObjectName name = new ObjectName("org.jawk:type=RuntimeMetrics,id=" + INSTANCE_COUNTER.incrementAndGet());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			objectName = name;
+		} catch (JMException jme) {
+			LOG.warn("Failed to register runtime metrics MBean", jme);
+		}
+	}
+
+	/**
+	 * Remove these metrics from the platform MBean server,
+	 * if they were registered.
+	 */
+	public void unregisterMBean() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.unregisterMBean(objectName);
+		} catch (JMException jme) {
+			LOG.warn("Failed to unregister runtime metrics MBean", jme);
+		}
+		objectName = null;
+	}
+
+	@Override
+	public String toString() {
+		return "records=" + recordsRead
+				+ " chars=" + charactersRead
+				+ " records/s=" + getRecordsPerSecond()
+				+ " field-splits=" + fieldSplits
+				+ " regex-cache-hits=" + regexCacheHits
+				+ " regex-cache-misses=" + regexCacheMisses
+				+ " open-files=" + getOpenOutputFiles()
+				+ " open-pipes=" + getOpenPipes()
+				+ " assoc-arrays=" + assocArraysAllocated
+				+ " function-calls=" + functionCalls;
+	}
+}
@@ -0,0 +1,87 @@
+package org.jawk.jrt;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of {@link RuntimeMetrics}.
+ * <p>
+ * All values are read without synchronization from the thread
+ * executing the script, and therefore represent a recent
+ * (not necessarily the latest) state of the runtime.
+ * </p>
+ */
+public interface RuntimeMetricsMBean {
+
+	/**
+	 * @return Number of input records consumed, including
+	 *   records consumed via getline.
+	 */
+	long getRecordsRead();
+
+	/**
+	 * @return Number of characters consumed as record contents
+	 *   (record separators are not counted).
+	 */
+	long getCharactersRead();
+
+	/**
+	 * @return Average number of records consumed per second
+	 *   since the runtime was created.
+	 */
+	double getRecordsPerSecond();
+
+	/**
+	 * @return Number of times $0 was split into fields.
+	 */
+	long getFieldSplits();
+
+	/**
+	 * @return Number of regular expression lookups served
+	 *   from the compiled pattern cache.
+	 */
+	long getRegexCacheHits();
+
+	/**
+	 * @return Number of regular expression lookups which required
+	 *   compiling a new pattern.
+	 */
+	long getRegexCacheMisses();
+
+	/**
+	 * @return Number of files currently open for output.
+	 */
+	int getOpenOutputFiles();
+
+	/**
+	 * @return Number of processes currently open for
+	 *   input or output.
+	 */
+	int getOpenPipes();
+
+	/**
+	 * @return Current depth of the operand stack of the interpreter,
+	 *   or 0 if unknown (i.e., for compiled scripts).
+	 */
+	int getOperandStackDepth();
+
+	/**
+	 * @return The number of map entries of every global
+	 *   associative array, keyed by variable name.
+	 */
+	Map<String, Integer> getAssocArraySizes();
+
+	/**
+	 * @return Number of associative arrays allocated by the runtime.
+	 */
+	long getAssocArraysAllocated();
+
+	/**
+	 * @return Number of calls to user-defined functions which were not inlined.
+	 */
+	long getFunctionCalls();
+
+	/**
+	 * Reset all counters to zero.
+	 */
+	void reset();
+}
@@ -0,0 +1,199 @@
+package org.jawk.jrt;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes to a file in the background, so the interpreter
+ * does not wait for the file system on every print.
+ * <p>
+ * Written bytes are collected in chunks. Full chunks are handed
+ * in batches to a writer thread shared by all files, which writes
+ * each batch with a single gathering write to the file's channel.
+ * As there is only one writer thread, batches are written in the order
+ * they were handed over, which preserves the order within each file.
+ * </p>
+ * <p>
+ * {@link #flush()} and {@link #close()} are barriers:
+ * they hand over the collected bytes and wait until all of them
+ * are written. Errors of the writer thread are thrown by the next
+ * write, flush or close.
+ * </p>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+final class WriteBehindOutputStream extends OutputStream {
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+	/** chunks handed over at once, in one gathering write */
+	private static final int BATCH_CHUNKS = 4;
+	/**
+	 * Chunks handed over but not yet written, of all files;
+	 * limits the memory used when the interpreter
+	 * produces output faster than it can be written.
+	 */
+	private static final Semaphore PENDING_CHUNKS = new Semaphore(64);
+
+	private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Jawk write-behind");
+			// barriers make sure all output is written before exiting
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final FileChannel channel;
+	private ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+	private List<ByteBuffer> batch = new ArrayList<ByteBuffer>(BATCH_CHUNKS);
+	/** the last batch handed over; all earlier ones are written when it is */
+	private Future<?> last_batch = null;
+	/** the first error of the writer thread */
+	private volatile IOException failure = null;
+	private boolean closed = false;
+
+	/**
+	 * @param out The file to write to.
+	 */
+	WriteBehindOutputStream(FileOutputStream out) {
+		this.channel = out.getChannel();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (!chunk.hasRemaining()) {
+			nextChunk();
+		}
+		chunk.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			if (!chunk.hasRemaining()) {
+				nextChunk();
+			}
+			int n = Math.min(len, chunk.remaining());
+			chunk.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void nextChunk() throws IOException {
+		chunk.flip();
+		batch.add(chunk);
+		chunk = ByteBuffer.allocate(CHUNK_SIZE);
+		if (batch.size() >= BATCH_CHUNKS) {
+			handOver();
+		}
+	}
+
+	/**
+	 * Hand the full chunks and the current one over to the writer thread.
+	 */
+	private void handOver() throws IOException {
+		if (chunk.position() > 0) {
+			chunk.flip();
+			batch.add(chunk);
+			chunk = ByteBuffer.allocate(CHUNK_SIZE);
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		final ByteBuffer[] buffers = batch.toArray(new ByteBuffer[batch.size()]);
+		batch = new ArrayList<ByteBuffer>(BATCH_CHUNKS);
+		try {
+			PENDING_CHUNKS.acquire(buffers.length);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the write-behind thread");
+		}
+		last_batch = WRITER.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				try {
+					// once broken, the file is left as it is
+					if (failure == null) {
+						ByteBuffer last = buffers[buffers.length - 1];
+						while (last.hasRemaining()) {
+							channel.write(buffers);
+						}
+					}
+				} catch (IOException ioe) {
+					failure = ioe;
+				} finally {
+					PENDING_CHUNKS.release(buffers.length);
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Wait until all bytes handed over are written.
+	 */
+	private void awaitWritten() throws IOException {
+		if (last_batch != null) {
+			try {
+				last_batch.get();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the write-behind thread");
+			} catch (ExecutionException ee) {
+				throw new IOException("Failed to write in the background: " + ee.getCause());
+			}
+			last_batch = null;
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (!closed) {
+			handOver();
+			awaitWritten();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			closed = true;
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package org.jawk.jsr223;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import org.jawk.jrt.AppendablePrintStream;
+import org.jawk.util.AwkSettings;
+
+/**
+ * JSR 223 view of a {@link org.jawk.CompiledScript}.
+ * Every evaluation runs independently, so instances
+ * may be evaluated concurrently with different contexts.
+ */
+class AwkCompiledScript extends CompiledScript {
+
+	private final AwkScriptEngine engine;
+	private final org.jawk.CompiledScript script;
+
+	AwkCompiledScript(AwkScriptEngine engine, org.jawk.CompiledScript script) {
+		this.engine = engine;
+		this.script = script;
+	}
+
+	@Override
+	public Object eval(ScriptContext context)
+			throws ScriptException
+	{
+		AwkSettings settings = script.createSettings();
+		if (context.getReader() != null) {
+			settings.setInput(context.getReader());
+		}
+		Writer writer = context.getWriter();
+		if (writer != null) {
+			settings.setOutputStream(new AppendablePrintStream(writer));
+		}
+		// global scope first, so engine scope bindings take precedence
+		assignVariables(settings, context.getBindings(ScriptContext.GLOBAL_SCOPE));
+		assignVariables(settings, context.getBindings(ScriptContext.ENGINE_SCOPE));
+
+		try {
+			return Integer.valueOf(script.execute(settings));
+		} catch (IOException ioe) {
+			throw AwkScriptEngineFactory.toScriptException(ioe);
+		} catch (RuntimeException re) {
+			throw AwkScriptEngineFactory.toScriptException(re);
+		}
+	}
+
+	private static void assignVariables(AwkSettings settings, Bindings bindings) {
+		if (bindings == null) {
+			return;
+		}
+		for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+			String name = binding.getKey();
+			Object value = binding.getValue();
+			if (name.equals(ScriptEngine.ARGV)) {
+				if (value instanceof String[]) {
+					List<String> operands = new ArrayList<String>(Arrays.asList((String[]) value));
+					settings.setNameValueOrFileNames(operands);
+				}
+			} else if (name.indexOf('.') >= 0) {
+				// reserved names, like javax.script.filename
+				continue;
+			} else if (value instanceof Integer || value instanceof Double || value instanceof String) {
+				settings.getVariables().put(name, value);
+			} else if (value instanceof Number) {
+				settings.getVariables().put(name, Double.valueOf(((Number) value).doubleValue()));
+			} else if (value instanceof CharSequence) {
+				settings.getVariables().put(name, value.toString());
+			}
+			// other values (e.g. host objects) have no AWK representation
+		}
+	}
+
+	@Override
+	public ScriptEngine getEngine() {
+		return engine;
+	}
+}
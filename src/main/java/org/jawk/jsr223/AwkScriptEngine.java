@@ -0,0 +1,95 @@
+package org.jawk.jsr223;
+
+import java.io.IOException;
+import java.io.Reader;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/**
+ * JSR 223 script engine for AWK.
+ * <p>
+ * Scripts read their main input from the reader of the
+ * <code>ScriptContext</code>, and <code>print</code>/<code>printf</code>
+ * without redirection write to its writer.
+ * Bindings with <code>String</code> or <code>Number</code> values
+ * are assigned to the AWK variables of the same name before execution
+ * (like <code>-v name=value</code>), and a <code>String[]</code>
+ * bound to <code>javax.script.argv</code> supplies the operands
+ * (file names and <code>name=value</code> assignments).
+ * The result of an evaluation is the exit code of the script.
+ * </p>
+ * <p>
+ * Source texts are compiled once and cached by the factory,
+ * so evaluating the same text repeatedly only pays for execution.
+ * </p>
+ *
+ * @see AwkScriptEngineFactory
+ */
+public class AwkScriptEngine extends AbstractScriptEngine implements Compilable {
+
+	private final AwkScriptEngineFactory factory;
+
+	AwkScriptEngine(AwkScriptEngineFactory factory) {
+		this.factory = factory;
+	}
+
+	@Override
+	public Object eval(String script, ScriptContext context)
+			throws ScriptException
+	{
+		return compile(script).eval(context);
+	}
+
+	@Override
+	public Object eval(Reader reader, ScriptContext context)
+			throws ScriptException
+	{
+		return compile(reader).eval(context);
+	}
+
+	@Override
+	public CompiledScript compile(String script)
+			throws ScriptException
+	{
+		return new AwkCompiledScript(this, factory.compile(script));
+	}
+
+	@Override
+	public CompiledScript compile(Reader script)
+			throws ScriptException
+	{
+		return compile(readFully(script));
+	}
+
+	@Override
+	public Bindings createBindings() {
+		return new SimpleBindings();
+	}
+
+	@Override
+	public ScriptEngineFactory getFactory() {
+		return factory;
+	}
+
+	private static String readFully(Reader reader)
+			throws ScriptException
+	{
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[4096];
+		int len;
+		try {
+			while ((len = reader.read(buf)) >= 0) {
+				sb.append(buf, 0, len);
+			}
+		} catch (IOException ioe) {
+			throw AwkScriptEngineFactory.toScriptException(ioe);
+		}
+		return sb.toString();
+	}
+}
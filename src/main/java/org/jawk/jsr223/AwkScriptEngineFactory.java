@@ -0,0 +1,203 @@
+package org.jawk.jsr223;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import org.jawk.Awk;
+import org.jawk.CompiledScript;
+import org.jawk.util.AwkSettings;
+import org.jawk.util.ScriptSource;
+
+/**
+ * JSR 223 entry point, which makes Jawk available through
+ * <code>javax.script.ScriptEngineManager</code>
+ * under the names <code>awk</code> and <code>jawk</code>.
+ * <p>
+ * All engines created by one factory share a bounded,
+ * least-recently-used cache of compiled scripts,
+ * keyed by the script source text.
+ * Its capacity is read from the system property
+ * <code>jawk.jsr223.cacheSize</code>
+ * (<code>64</code> by default; <code>0</code> disables caching).
+ * </p>
+ *
+ * @see AwkScriptEngine
+ */
+public class AwkScriptEngineFactory implements ScriptEngineFactory {
+
+	private static final List<String> NAMES = Collections.unmodifiableList(Arrays.asList("awk", "jawk", "AWK", "Jawk"));
+	private static final List<String> EXTENSIONS = Collections.unmodifiableList(Arrays.asList("awk"));
+	private static final List<String> MIME_TYPES = Collections.unmodifiableList(Arrays.asList("application/x-awk", "text/x-awk"));
+
+	private static final int DEFAULT_CACHE_SIZE = 64;
+
+	private final int cacheSize = Integer.getInteger("jawk.jsr223.cacheSize", DEFAULT_CACHE_SIZE);
+
+	/** key = script source text, value = the compiled script */
+	private final Map<String, CompiledScript> cache = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+			return size() > cacheSize;
+		}
+	};
+
+	@Override
+	public String getEngineName() {
+		return "Jawk";
+	}
+
+	@Override
+	public String getEngineVersion() {
+		String version = Awk.class.getPackage().getImplementationVersion();
+		return version == null ? "unknown" : version;
+	}
+
+	@Override
+	public List<String> getExtensions() {
+		return EXTENSIONS;
+	}
+
+	@Override
+	public List<String> getMimeTypes() {
+		return MIME_TYPES;
+	}
+
+	@Override
+	public List<String> getNames() {
+		return NAMES;
+	}
+
+	@Override
+	public String getLanguageName() {
+		return "AWK";
+	}
+
+	@Override
+	public String getLanguageVersion() {
+		return "POSIX";
+	}
+
+	@Override
+	public Object getParameter(String key) {
+		if (key.equals(ScriptEngine.ENGINE)) {
+			return getEngineName();
+		} else if (key.equals(ScriptEngine.ENGINE_VERSION)) {
+			return getEngineVersion();
+		} else if (key.equals(ScriptEngine.NAME)) {
+			return NAMES.get(0);
+		} else if (key.equals(ScriptEngine.LANGUAGE)) {
+			return getLanguageName();
+		} else if (key.equals(ScriptEngine.LANGUAGE_VERSION)) {
+			return getLanguageVersion();
+		} else if (key.equals("THREADING")) {
+			// compiled scripts are immutable, and each evaluation
+			// uses its own runtime and variables
+			return "STATELESS";
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public String getMethodCallSyntax(String obj, String m, String... args) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(m).append('(');
+		for (int i = 0; i < args.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(args[i]);
+		}
+		return sb.append(')').toString();
+	}
+
+	@Override
+	public String getOutputStatement(String toDisplay) {
+		StringBuilder sb = new StringBuilder("printf \"%s\", \"");
+		for (int i = 0; i < toDisplay.length(); i++) {
+			char c = toDisplay.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	@Override
+	public String getProgram(String... statements) {
+		StringBuilder sb = new StringBuilder("BEGIN {");
+		for (String statement : statements) {
+			sb.append(' ').append(statement).append(';');
+		}
+		return sb.append(" }").toString();
+	}
+
+	@Override
+	public ScriptEngine getScriptEngine() {
+		return new AwkScriptEngine(this);
+	}
+
+	/**
+	 * Retrieve the compiled form of <code>script</code>,
+	 * compiling it if it is not cached.
+	 *
+	 * @param script The AWK source text.
+	 *
+	 * @return The compiled script.
+	 *
+	 * @throws ScriptException if the script can not be compiled.
+	 */
+	CompiledScript compile(String script)
+			throws ScriptException
+	{
+		CompiledScript compiled;
+		synchronized (cache) {
+			compiled = cache.get(script);
+		}
+		if (compiled == null) {
+			// compile outside of the lock; concurrent misses
+			// on the same source merely compile twice
+			compiled = compileUncached(script);
+			if (cacheSize > 0) {
+				synchronized (cache) {
+					cache.put(script, compiled);
+				}
+			}
+		}
+		return compiled;
+	}
+
+	private static CompiledScript compileUncached(String script)
+			throws ScriptException
+	{
+		AwkSettings settings = new AwkSettings();
+		settings.addScriptSource(new ScriptSource(
+				ScriptSource.DESCRIPTION_COMMAND_LINE_SCRIPT,
+				new StringReader(script),
+				false));
+		try {
+			return new Awk().compile(settings);
+		} catch (IOException ioe) {
+			throw toScriptException(ioe);
+		} catch (ClassNotFoundException cnfe) {
+			throw toScriptException(cnfe);
+		} catch (RuntimeException re) {
+			// parser errors
+			throw toScriptException(re);
+		}
+	}
+
+	static ScriptException toScriptException(Exception ex) {
+		ScriptException se = new ScriptException(ex.getMessage());
+		se.initCause(ex);
+		return se;
+	}
+}
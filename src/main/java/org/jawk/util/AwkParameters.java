@@ -3,8 +3,6 @@ package org.jawk.util;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringReader;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Manages the command-line parameters accepted by Jawk.
@@ -68,7 +66,7 @@ import org.slf4j.LoggerFactory;
  */
 public class AwkParameters {
 
-	private static final Logger LOG = LoggerFactory.getLogger(AwkParameters.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(AwkParameters.class);
 
 	private Class mainClass;
 	private String extensionDescription;
@@ -152,6 +150,8 @@ public class AwkParameters {
 					settings.setAdditionalTypeFunctions(true);
 				} else if (args[argIdx].equals("-t")) {
 					settings.setUseSortedArrayKeys(true);
+				} else if (args[argIdx].equals("-b")) {
+					settings.setByteMode(true);
 				} else if (args[argIdx].equals("-r")) {
 					settings.setCatchIllegalFormatExceptions(false);
 				} else if (args[argIdx].equals("-F")) {
@@ -242,6 +242,7 @@ public class AwkParameters {
 				+ " [-ni]"
 				: "")
 				+ " [-t]"
+				+ " [-b]"
 				+ " [-v name=val]..."
 				+ (extensionDescription == null ? " [script]" : "")
 				+ " [name=val | input_filename]...");
@@ -253,6 +254,7 @@ public class AwkParameters {
 		dest.println(" -v name=val = Initial awk variable assignments.");
 		dest.println();
 		dest.println(" -t = (extension) Maintain array keys in sorted order.");
+		dest.println(" -b = (extension) Treat input and output as bytes, like LC_ALL=C.");
 		if (extensionDescription == null) {
 			dest.println(" -c = (extension) Compile to intermediate file. (default: a.ai)");
 			dest.println(" -o = (extension) Specify output file.");
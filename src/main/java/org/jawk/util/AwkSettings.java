@@ -1,10 +1,22 @@
 package org.jawk.util;
 
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import org.jawk.jrt.AppendablePrintStream;
+import org.jawk.jrt.JRT;
+import org.jawk.jrt.RecordConsumer;
+import org.jawk.jrt.RecordWriter;
 
 /**
  * A simple container for the parameters of a single AWK invocation.
@@ -20,6 +32,27 @@ public class AwkSettings {
 	 */
 	private InputStream input = System.in;
 
+	/**
+	 * Where input is read from, as characters.
+	 * By default (<code>null</code>), a reader
+	 * on top of <code>input</code> is created when first requested.
+	 */
+	private Reader inputReader = null;
+
+	/**
+	 * Where output of <code>print</code> and <code>printf</code>
+	 * without redirection is written to.
+	 * By default, this is {@link System#out}.
+	 */
+	private PrintStream outputStream = System.out;
+
+	/**
+	 * Where the standard error of commands run by the script
+	 * is written to.
+	 * By default, this is {@link System#err}.
+	 */
+	private PrintStream errorStream = System.err;
+
 	/**
 	 * Contains variable assignments which are applied prior to
 	 * executing the script (-v assignments).
@@ -93,6 +126,13 @@ public class AwkSettings {
 	 */
 	private boolean useSortedArrayKeys = false;
 
+	/**
+	 * Whether to treat input and output as bytes,
+	 * instead of characters in the platform default charset;
+	 * <code>false</code> by default.
+	 */
+	private boolean byteMode = false;
+
 	/**
 	 * Whether to trap <code>IllegalFormatExceptions</code>
 	 * for <code>[s]printf</code>;
@@ -162,6 +202,8 @@ public class AwkSettings {
 				.append(isAdditionalTypeFunctions()).append(newLine);
 		desc.append("useSortedArrayKeys = ")
 				.append(isUseSortedArrayKeys()).append(newLine);
+		desc.append("byteMode = ")
+				.append(isByteMode()).append(newLine);
 		desc.append("catchIllegalFormatExceptions = ")
 				.append(isCatchIllegalFormatExceptions()).append(newLine);
 		desc.append("writeIntermediateFile = ")
@@ -273,6 +315,140 @@ public class AwkSettings {
 	 */
 	public void setInput(InputStream input) {
 		this.input = input;
+		this.inputReader = null;
+	}
+
+	/**
+	 * Where input is read from, as characters.
+	 * Unless set explicitly, this is a reader on top of
+	 * {@link #getInput()}, created when first requested.
+	 * @return the input reader
+	 */
+	public Reader getInputReader() {
+		if (inputReader == null) {
+			if (byteMode) {
+				inputReader = new InputStreamReader(input, Charset.forName(JRT.BYTE_MODE_CHARSET));
+			} else {
+				inputReader = new InputStreamReader(input);
+			}
+		}
+		return inputReader;
+	}
+
+	/**
+	 * Where input is read from, as characters.
+	 * Takes precedence over {@link #getInput()}
+	 * for interpreted scripts.
+	 * @param inputReader the input reader to set
+	 */
+	public void setInput(Reader inputReader) {
+		this.inputReader = inputReader;
+	}
+
+	/**
+	 * Read input from a channel,
+	 * decoding it with the platform default charset.
+	 * @param channel the channel to read input from
+	 */
+	public void setInput(ReadableByteChannel channel) {
+		setInput(Channels.newReader(channel, Charset.defaultCharset().newDecoder(), -1));
+	}
+
+	/**
+	 * Read input from a sequence of lines,
+	 * each of which is terminated by <code>"\n"</code>.
+	 * Lines are requested lazily, as input is consumed.
+	 * @param lines the lines to read as input
+	 */
+	public void setInput(Iterator<? extends CharSequence> lines) {
+		setInput(new IteratorReader(lines));
+	}
+
+	/**
+	 * Where output of <code>print</code> and <code>printf</code>
+	 * without redirection is written to.
+	 * By default, this is {@link System#out}.
+	 * @return the output stream
+	 */
+	public PrintStream getOutputStream() {
+		return outputStream;
+	}
+
+	/**
+	 * Where output of <code>print</code> and <code>printf</code>
+	 * without redirection is written to.
+	 * By default, this is {@link System#out}.
+	 * @param outputStream the output stream to set
+	 */
+	public void setOutputStream(PrintStream outputStream) {
+		this.outputStream = outputStream;
+	}
+
+	/**
+	 * Where the standard error of commands run by the script
+	 * is written to.
+	 * By default, this is {@link System#err}.
+	 * @return the error stream
+	 */
+	public PrintStream getErrorStream() {
+		return errorStream;
+	}
+
+	/**
+	 * Where the standard error of commands run by the script
+	 * is written to.
+	 * By default, this is {@link System#err}.
+	 * @param errorStream the error stream to set
+	 */
+	public void setErrorStream(PrintStream errorStream) {
+		this.errorStream = errorStream;
+	}
+
+	/**
+	 * Same as {@link #setOutputStream(PrintStream)};
+	 * resolves the ambiguity between the other overloads.
+	 * @param output the stream to write output to
+	 */
+	public void setOutput(PrintStream output) {
+		setOutputStream(output);
+	}
+
+	/**
+	 * Write output of <code>print</code> and <code>printf</code>
+	 * without redirection to a byte stream.
+	 * @param output the stream to write output to
+	 */
+	public void setOutput(OutputStream output) {
+		if (output instanceof PrintStream) {
+			setOutputStream((PrintStream) output);
+		} else {
+			setOutputStream(new PrintStream(output));
+		}
+	}
+
+	/**
+	 * Write output of <code>print</code> and <code>printf</code>
+	 * without redirection to a character sink,
+	 * for example a <code>Writer</code> or a <code>StringBuilder</code>.
+	 * @param output where to append output to
+	 */
+	public void setOutput(Appendable output) {
+		if (output instanceof PrintStream) {
+			setOutputStream((PrintStream) output);
+		} else {
+			setOutputStream(new AppendablePrintStream(output));
+		}
+	}
+
+	/**
+	 * Hand output of <code>print</code> and <code>printf</code>
+	 * without redirection to a callback, one line at a time.
+	 * An unterminated last line is handed over
+	 * at the end of the execution.
+	 * @param consumer receives each line of output
+	 */
+	public void setOutput(RecordConsumer consumer) {
+		setOutputStream(new AppendablePrintStream(new RecordWriter(consumer)));
 	}
 
 	/**
@@ -473,6 +649,30 @@ public class AwkSettings {
 		this.useSortedArrayKeys = useSortedArrayKeys;
 	}
 
+	/**
+	 * Whether to treat input and output as bytes,
+	 * instead of characters in the platform default charset;
+	 * <code>false</code> by default.
+	 * @return the byteMode
+	 * @see org.jawk.jrt.JRT#setByteMode(boolean)
+	 */
+	public boolean isByteMode() {
+		return byteMode;
+	}
+
+	/**
+	 * Whether to treat input and output as bytes,
+	 * instead of characters in the platform default charset;
+	 * <code>false</code> by default.
+	 * This also applies to the reader returned by
+	 * {@link #getInputReader()}, unless it was created already.
+	 * @param byteMode the byteMode to set
+	 * @see org.jawk.jrt.JRT#setByteMode(boolean)
+	 */
+	public void setByteMode(boolean byteMode) {
+		this.byteMode = byteMode;
+	}
+
 	/**
 	 * Whether user extensions are enabled;
 	 * <code>false</code> by default.
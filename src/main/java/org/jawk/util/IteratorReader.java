@@ -0,0 +1,61 @@
+package org.jawk.util;
+
+import java.io.Reader;
+import java.util.Iterator;
+
+/**
+ * A <code>Reader</code> over a sequence of lines,
+ * each of which is followed by a <code>"\n"</code>.
+ * Elements are only requested from the iterator as input is consumed,
+ * so it may be lazy (or even unbounded).
+ */
+public class IteratorReader extends Reader {
+
+	private final Iterator<? extends CharSequence> lines;
+	private CharSequence current = null;
+	/** position within <code>current</code>; <code>current.length()</code> denotes the separator */
+	private int pos = 0;
+
+	public IteratorReader(Iterator<? extends CharSequence> lines) {
+		this.lines = lines;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		int count = 0;
+		while (count < len) {
+			if (current == null) {
+				if (!lines.hasNext()) {
+					break;
+				}
+				current = lines.next();
+				if (current == null) {
+					current = "";
+				}
+				pos = 0;
+			}
+			int remaining = current.length() - pos;
+			if (remaining > 0) {
+				int n = Math.min(remaining, len - count);
+				for (int i = 0; i < n; i++) {
+					cbuf[off + count + i] = current.charAt(pos + i);
+				}
+				pos += n;
+				count += n;
+			} else {
+				cbuf[off + count] = '\n';
+				count++;
+				current = null;
+			}
+		}
+		return count == 0 ? -1 : count;
+	}
+
+	@Override
+	public void close() {
+		current = null;
+	}
+}
@@ -0,0 +1,153 @@
+package org.jawk.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A logger which only initializes the logging framework
+ * once the first message is logged through it.
+ * <p>
+ * Most Jawk executions are short-lived and never log anything,
+ * yet initializing the logging framework (locating and parsing
+ * its configuration, starting the configuration scanner, ...)
+ * takes a noticeable share of the start-up time.
+ * </p>
+ * <p>
+ * Messages of the <i>trace</i> and <i>debug</i> levels are dropped
+ * without any call into the framework, unless the system property
+ * <code>jawk.verbose</code> is set to <code>true</code>.
+ * (The bundled configuration logs at <i>info</i> level anyway.)
+ * If it is set, whether these levels are enabled is asked from
+ * the underlying logger once, on the first message of the level.
+ * </p>
+ */
+public final class LazyLogger {
+
+	private static final int UNKNOWN = 0;
+	private static final int ENABLED = 1;
+	private static final int DISABLED = 2;
+
+	/**
+	 * Whether trace and debug messages are passed on
+	 * to the logging framework at all.
+	 */
+	private static final boolean VERBOSE = Boolean.getBoolean("jawk.verbose");
+
+	private final Class<?> cls;
+	private volatile Logger logger = null;
+	/** whether trace messages are logged, once known */
+	private volatile int traceLevel = VERBOSE ? UNKNOWN : DISABLED;
+	/** whether debug messages are logged, once known */
+	private volatile int debugLevel = VERBOSE ? UNKNOWN : DISABLED;
+
+	private LazyLogger(Class<?> cls) {
+		this.cls = cls;
+	}
+
+	/**
+	 * Returns a logger for the given class,
+	 * without initializing the logging framework.
+	 */
+	public static LazyLogger getLogger(Class<?> cls) {
+		return new LazyLogger(cls);
+	}
+
+	private Logger logger() {
+		Logger l = logger;
+		if (l == null) {
+			l = LoggerFactory.getLogger(cls);
+			logger = l;
+		}
+		return l;
+	}
+
+	public boolean isTraceEnabled() {
+		int level = traceLevel;
+		if (level == UNKNOWN) {
+			level = logger().isTraceEnabled() ? ENABLED : DISABLED;
+			traceLevel = level;
+		}
+		return level == ENABLED;
+	}
+
+	public boolean isDebugEnabled() {
+		int level = debugLevel;
+		if (level == UNKNOWN) {
+			level = logger().isDebugEnabled() ? ENABLED : DISABLED;
+			debugLevel = level;
+		}
+		return level == ENABLED;
+	}
+
+	public void trace(String msg) {
+		if (isTraceEnabled()) {
+			logger().trace(msg);
+		}
+	}
+
+	public void trace(String format, Object... arguments) {
+		if (isTraceEnabled()) {
+			logger().trace(format, arguments);
+		}
+	}
+
+	public void trace(String msg, Throwable t) {
+		if (isTraceEnabled()) {
+			logger().trace(msg, t);
+		}
+	}
+
+	public void debug(String msg) {
+		if (isDebugEnabled()) {
+			logger().debug(msg);
+		}
+	}
+
+	public void debug(String format, Object... arguments) {
+		if (isDebugEnabled()) {
+			logger().debug(format, arguments);
+		}
+	}
+
+	public void debug(String msg, Throwable t) {
+		if (isDebugEnabled()) {
+			logger().debug(msg, t);
+		}
+	}
+
+	public void info(String msg) {
+		logger().info(msg);
+	}
+
+	public void info(String format, Object... arguments) {
+		logger().info(format, arguments);
+	}
+
+	public void info(String msg, Throwable t) {
+		logger().info(msg, t);
+	}
+
+	public void warn(String msg) {
+		logger().warn(msg);
+	}
+
+	public void warn(String format, Object... arguments) {
+		logger().warn(format, arguments);
+	}
+
+	public void warn(String msg, Throwable t) {
+		logger().warn(msg, t);
+	}
+
+	public void error(String msg) {
+		logger().error(msg);
+	}
+
+	public void error(String format, Object... arguments) {
+		logger().error(format, arguments);
+	}
+
+	public void error(String msg, Throwable t) {
+		logger().error(msg, t);
+	}
+}
@@ -5,15 +5,13 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.InputStream;
 import java.io.Reader;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Represents one AWK-script file content source.
  */
 public class ScriptFileSource extends ScriptSource {
 
-	private static final Logger LOG = LoggerFactory.getLogger(ScriptFileSource.class);
+	private static final LazyLogger LOG = LazyLogger.getLogger(ScriptFileSource.class);
 
 	private String filePath;
 	private Reader fileReader;
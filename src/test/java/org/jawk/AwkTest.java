@@ -1,15 +1,53 @@
 package org.jawk;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+import javax.script.Compilable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.SimpleScriptContext;
 
+import org.jawk.backend.AVM;
+import org.jawk.ext.JawkExtension;
+import org.jawk.jrt.BlockObject;
+import org.jawk.jrt.OutputFileManager;
+import org.jawk.jrt.RecordConsumer;
+import org.jawk.jrt.RuntimeMetrics;
+import org.jawk.util.AwkSettings;
+import org.jawk.util.ScriptSource;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
@@ -159,6 +197,135 @@ public class AwkTest {
 				linesOutput());
 	}
 
+	@Test
+	public void testRegexRules() throws Exception {
+		awk("/^(Jan|Feb) +1[0-9]/ || /Dec/ { print $1 }"
+				+ " /^Mar/,/^May/ { print \"r\" $1 }"
+				+ " $1 ~ /^A(pr|ug)$/ { print \"m\" $1 }",
+				pathTo("inventory-shipped"));
+		assertArrayEquals(
+				array("Jan", "Feb", "rMar", "rApr", "mApr", "rMay", "mAug", "Dec",
+					"rMar", "rApr", "mApr"),
+				linesOutput());
+	}
+
+	@Test
+	public void testLiteralRulesAfterRecordChange() throws Exception {
+		awk("/Ju[nl]/ { print \"j\" $1 } /Sep/ { $0 = \"Oct x\" }"
+				+ " /Oct/ { print \"o\" $2 } /Nov|Dec/,/Jan/ { print \"r\" $1 }",
+				pathTo("inventory-shipped"));
+		assertArrayEquals(
+				array("jJun", "jJul", "ox", "o29", "rNov", "rDec", "r", "rJan"),
+				linesOutput());
+	}
+
+	@Test
+	public void testLiteralRegexps() throws Exception {
+		awk("BEGIN { s = \"a,b,,c,\"; n = gsub(/,/, \";\", s); print n, s;"
+				+ " t = \"x.y.z\"; n = sub(/\\./, \"-\", t); print n, t;"
+				+ " n = match(\"foo::bar\", \"::\"); print n, RSTART, RLENGTH;"
+				+ " n = match(\"foo\", \"::\"); print n, RSTART, RLENGTH;"
+				+ " n = split(\"a::b::\", arr, \"::\"); print n, arr[1], arr[2], arr[3];"
+				+ " if (\"GET /x\" ~ \"GET\") { print \"get\" } }");
+		assertArrayEquals(
+				array("4 a;b;;c;", "1 x-y.z", "4 4 2", "0 0 -1", "3 a b ", "get"),
+				linesOutput());
+	}
+
+	@Test
+	public void testFieldAssignments() throws Exception {
+		awk("NR < 3 { $2 = \"X\"; $4 = $4 + 1; sub(/5/, \"five\", $5) }"
+				+ " /^Jan X/ { print \"rule:\" $0 }"
+				+ " NR == 2 { $1 = \"y\"; OFS = \"-\"; print }",
+				pathTo("inventory-shipped"));
+		assertArrayEquals(
+				array("rule:Jan X 25 16 11five", "y X 32 25 226"),
+				linesOutput());
+	}
+
+	@Test
+	public void testPrintItems() throws Exception {
+		awk("BEGIN { OFMT = \"%.2f\"; OFS = \":\" }"
+				+ " NR == 1 { print $1, $3 / 4, $2 * 2, -$4; print }",
+				pathTo("inventory-shipped"));
+		assertArrayEquals(
+				array("Jan:6.25:26:-15", "Jan  13  25  15 115"),
+				linesOutput());
+	}
+
+	@Test
+	public void testRecordSeparators() throws Exception {
+		awk("BEGIN { RS = \"[0-9]+\\n\" } { n++ } NR <= 2 || /\\n/ { print NR \":\" $1 \",\" $4 }"
+				+ " END { print n; RS = \";\"; while ((getline line < FILENAME) > 0) { print length(line) } }",
+				pathTo("inventory-shipped"));
+		assertArrayEquals(
+				array("1:Jan,15", "2:Feb,24", "13:Jan,64", "16", "321"),
+				linesOutput());
+	}
+
+	@Test
+	public void testByteMode() throws Exception {
+		File file = File.createTempFile("jawk", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), new byte[] {'a', (byte) 0xc3, (byte) 0xa9, ' ', (byte) 0xff, '\n'});
+		awk("-b", "{ print length($0), length($1), length($2) }", file.getPath());
+		assertArrayEquals(array("5 3 1"), linesOutput());
+	}
+
+	@Test
+	public void testCompressedInput() throws Exception {
+		File file = File.createTempFile("jawk", ".gz");
+		file.deleteOnExit();
+		// two gzip members, like concatenated rotated logs
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			for (String member : array("a 1\nb 2\n", "c 3\n")) {
+				GZIPOutputStream gzip = new GZIPOutputStream(out);
+				gzip.write(member.getBytes("US-ASCII"));
+				gzip.finish();
+			}
+		} finally {
+			out.close();
+		}
+		awk("{ s = s $1 } END { while ((getline line < FILENAME) > 0) { split(line, f); n += f[2] } print s, n }", file.getPath());
+		assertArrayEquals(array("abc 6"), linesOutput());
+	}
+
+	@Test
+	public void testFunctionFrames() throws Exception {
+		awk("function fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2) }"
+				+ " function deep(n,  loc, unset) { loc[n] = n; if (n > 0) return deep(n - 1) + loc[n] + length(unset); return 0 }"
+				+ " function noret(x) { x = x + 1 }"
+				+ " BEGIN { print fib(15); print deep(100); v = noret(1); print \"[\" v \"]\"; print deep(3) }");
+		assertArrayEquals(array("610", "5050", "[]", "6"), linesOutput());
+	}
+
+	@Test
+	public void testInlinedFunctions() throws Exception {
+		awk("function max(a, b) { return a > b ? a : b }"
+				+ " function sign(x) { if (x < 0) return -1; if (x > 0) return 1 }"
+				+ " function fill(arr, n,  i) { for (i = 1; i <= n; i++) arr[i] = i * i }"
+				+ " function sumsq(n,  s, i) { fill(sq, n); for (i = 1; i <= n; i++) s += sq[i]; return s }"
+				+ " function even(n) { return n == 0 ? 1 : odd(n - 1) } function odd(n) { return n == 0 ? 0 : even(n - 1) }"
+				+ " BEGIN { print max(max(1, 5), max(4, 2)); print sign(-3) sign(3) \"[\" sign(0) \"]\"; print sumsq(3), sumsq(2); print sq[2]; print even(6) odd(6) }");
+		assertArrayEquals(array("5", "-11[]", "14 5", "4", "10"), linesOutput());
+	}
+
+	@Test
+	public void testInlinedCallChain() throws Exception {
+		StringBuilder script = new StringBuilder("function f0(x) { return x + 1 }");
+		for (int i = 1; i < 8; i++) {
+			script.append(" function f").append(i).append("(x) { return f").append(i - 1).append("(x)");
+			for (int j = 1; j < 8; j++) {
+				script.append(" + f").append(i - 1).append("(x)");
+			}
+			script.append(" }");
+		}
+		script.append(" BEGIN { print 1 } END { print f2(1) }");
+		awk(script.toString(), "f0:x=5", pathTo("inventory-shipped"));
+		assertArrayEquals(array("1", "128"), linesOutput());
+	}
+
 	@Test
 	public void testUninitializedVarible() throws Exception {
 		awk("//{ if (v == 0) {print \"uninitialize variable\"} else {print}}",
@@ -206,4 +373,516 @@ public class AwkTest {
 				pathTo("inventory-shipped"));
 		assertArrayEquals(monotoneArray("100100", 17), linesOutput());
 	}
+
+	static CompiledScript compile(String script) throws ClassNotFoundException, IOException {
+		final AwkSettings settings = new AwkSettings();
+		settings.addScriptSource(new ScriptSource(ScriptSource.DESCRIPTION_COMMAND_LINE_SCRIPT,
+				new StringReader(script), false));
+		return new Awk().compile(settings);
+	}
+
+	@Test
+	public void testCompiledScriptConcurrentRuns() throws Exception {
+		final CompiledScript script = compile("{ s += $1 } END { print prefix s }");
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final Future<?>[] results = new Future<?>[16];
+			for (int i = 0; i < results.length; i++) {
+				final int n = i;
+				results[i] = executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						final StringWriter out = new StringWriter();
+						script.run(new StringReader(n + LF + n + LF),
+								out,
+								Collections.<String, Object>singletonMap("prefix", "run" + n + ":"));
+						return out.toString();
+					}
+				});
+			}
+			for (int i = 0; i < results.length; i++) {
+				assertEquals("run" + i + ":" + (2 * i) + LF, results[i].get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testRuntimeMetrics() throws Exception {
+		if (IS_WINDOWS) {
+			return;
+		}
+		final File file = File.createTempFile("jawk", ".txt");
+		file.deleteOnExit();
+		final CompiledScript script = compile(
+				"function f(k) { return k > 0 ? f(k - 1) : 0 }"
+				+ " /b/ { n++ } { x[$1] = $2 }"
+				+ " END { f(2); print \"f\" > \"" + file.getPath() + "\"; print \"p\" | \"cat\"; print \"mark\" }");
+		final AwkSettings settings = script.createSettings();
+		settings.setInput(new StringReader("a 1" + LF + "b 2" + LF + "b 3" + LF));
+		final AVM[] avm = new AVM[1];
+		final int[] open = new int[2];
+		settings.setOutput(new RecordConsumer() {
+			@Override
+			public void consumeRecord(String record) {
+				if ("mark".equals(record)) {
+					open[0] = avm[0].getMetrics().getOpenOutputFiles();
+					open[1] = avm[0].getMetrics().getOpenPipes();
+				}
+			}
+		});
+		avm[0] = new AVM(settings, Collections.<String, JawkExtension>emptyMap());
+		try {
+			avm[0].interpret(script.getTuples());
+		} finally {
+			avm[0].waitForIO();
+		}
+		final RuntimeMetrics metrics = avm[0].getMetrics();
+		assertEquals(3, metrics.getRecordsRead());
+		assertEquals(9, metrics.getCharactersRead());
+		assertEquals(3, metrics.getFieldSplits());
+		assertEquals(1, metrics.getRegexCacheMisses());
+		assertEquals(2, metrics.getRegexCacheHits());
+		assertEquals(Integer.valueOf(2), metrics.getAssocArraySizes().get("x"));
+		assertEquals(3, metrics.getFunctionCalls());
+		assertEquals(1, open[0]);
+		assertEquals(1, open[1]);
+		assertEquals(0, metrics.getOpenOutputFiles());
+		assertEquals(0, metrics.getOpenPipes());
+	}
+
+	@Test
+	public void testMainStreams() throws Exception {
+		if (IS_WINDOWS) {
+			return;
+		}
+		final PrintStream stderr = System.err;
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ByteArrayOutputStream err = new ByteArrayOutputStream();
+		new Main(array("BEGIN { print \"out\"; system(\"ls /jawk-nonexistent-dir\") }"),
+				new ByteArrayInputStream(new byte[0]), new PrintStream(out, true), new PrintStream(err, true));
+		assertEquals("out" + LF, out.toString());
+		assertTrue(err.toString().contains("jawk-nonexistent-dir"));
+		assertSame(stderr, System.err);
+	}
+
+	@Test(timeout = 30000)
+	public void testTrivialRunLeavesLoggingUninitialized() throws Exception {
+		final File input = File.createTempFile("jawk", ".txt");
+		input.deleteOnExit();
+		final Process process = new ProcessBuilder(
+				System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+				"-verbose:class",
+				"-cp", System.getProperty("java.class.path"),
+				"org.jawk.Main", "1", input.getAbsolutePath())
+				.redirectErrorStream(true).start();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		boolean loaded = false;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			loaded |= line.contains("org.slf4j.LoggerFactory");
+		}
+		assertEquals(0, process.waitFor());
+		assertFalse(loaded);
+	}
+
+	@Test
+	public void testScriptEngine() throws Exception {
+		final ScriptEngine engine = new ScriptEngineManager().getEngineByName("awk");
+		final ScriptContext context = new SimpleScriptContext();
+		final StringWriter out = new StringWriter();
+		context.setReader(new StringReader("a b" + LF + "c d" + LF));
+		context.setWriter(out);
+		context.setAttribute("sep", "-", ScriptContext.ENGINE_SCOPE);
+		final Object exitCode = ((Compilable) engine).compile("{ print $2 sep $1 }").eval(context);
+		assertEquals(0, exitCode);
+		assertEquals("b-a" + LF + "d-c" + LF, out.toString());
+	}
+
+	@Test
+	public void testCompiledScriptReuse() throws Exception {
+		final CompiledScript script = compile(
+				"{ n++ } END { d = 0; if (ENVIRON[\"PATH\"] == \"dirty\") d = 1; print NR, x, d;"
+				+ " x = \"dirty\"; ENVIRON[\"PATH\"] = \"dirty\" }");
+		for (int i = 0; i < 3; i++) {
+			final StringWriter out = new StringWriter();
+			script.run(new StringReader("a" + LF + "b" + LF), out, null);
+			assertEquals("2  0" + LF, out.toString());
+		}
+	}
+
+	@Test
+	public void testRecordOutputPartialLines() throws Exception {
+		if (IS_WINDOWS) {
+			return;
+		}
+		final AwkSettings settings = new AwkSettings();
+		settings.addScriptSource(new ScriptSource(ScriptSource.DESCRIPTION_COMMAND_LINE_SCRIPT,
+				new StringReader("BEGIN { printf \"abc\"; system(\"true\"); print \"def\";"
+				+ " printf \"x\"; print \"y\" | \"cat\"; close(\"cat\"); print \"z\"; printf \"end\" }"), false));
+		final List<String> records = new ArrayList<String>();
+		settings.setOutput(new RecordConsumer() {
+			@Override
+			public void consumeRecord(String record) {
+				records.add(record);
+			}
+		});
+		new Awk().invoke(settings);
+		assertEquals(Arrays.asList("abcdef", "xy", "z", "end"), records);
+
+		records.clear();
+		final CompiledScript script = compile("BEGIN { printf \"a\"; system(\"true\"); printf \"b\" }");
+		final AwkSettings runSettings = script.createSettings();
+		runSettings.setOutput(new RecordConsumer() {
+			@Override
+			public void consumeRecord(String record) {
+				records.add(record);
+			}
+		});
+		script.execute(runSettings);
+		assertEquals(Arrays.asList("ab"), records);
+	}
+
+	@Test
+	public void testEnviron() throws Exception {
+		awk("BEGIN { print (\"PATH\" in ENVIRON), (\"JAWK_UNSET_VAR\" in ENVIRON); print ENVIRON[\"PATH\"] }");
+		assertArrayEquals(array("1 0", System.getenv("PATH")), linesOutput());
+	}
+
+	@Test
+	public void testIteratorInputRecordOutput() throws Exception {
+		final AwkSettings settings = new AwkSettings();
+		settings.addScriptSource(new ScriptSource(ScriptSource.DESCRIPTION_COMMAND_LINE_SCRIPT,
+				new StringReader("{ printf \"%s:\", $2; print $1 } END { printf \"end\" }"), false));
+		settings.setInput(Arrays.asList("a b", "c d").iterator());
+		final List<String> records = new ArrayList<String>();
+		settings.setOutput(new RecordConsumer() {
+			@Override
+			public void consumeRecord(String record) {
+				records.add(record);
+			}
+		});
+		new Awk().invoke(settings);
+		assertEquals(Arrays.asList("b:a", "d:c", "end"), records);
+	}
+
+	@Test(timeout = 10000)
+	public void testNioSocketClient() throws Exception {
+		final ServerSocket server = new ServerSocket(0);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		System.setProperty("jawk.socket.ioStyle", "nio");
+		try {
+			final Future<String> peer = executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					final Socket socket = server.accept();
+					final String line = new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+					socket.getOutputStream().write(("echo " + line + "\n").getBytes());
+					socket.close();
+					return line;
+				}
+			});
+			awk("-ext", "BEGIN { cs = CSocket(\"localhost\", " + server.getLocalPort() + ");"
+					+ " SocketWrite(cs, \"hello\"); SocketFlush(cs);"
+					+ " $0 = SocketInputBlock(cs); ok = $2 == cs; print $1, ok;"
+					+ " print SocketRead(cs); print SocketReadAll(cs, lines); SocketClose(cs) }");
+			assertEquals("hello", peer.get());
+		} finally {
+			System.clearProperty("jawk.socket.ioStyle");
+			executor.shutdown();
+			server.close();
+		}
+		assertArrayEquals(array("SocketInput 1", "echo hello", "0"), linesOutput());
+	}
+
+	@Test(timeout = 10000)
+	public void testNioSocketServer() throws Exception {
+		final ServerSocket probe = new ServerSocket(0);
+		final int port = probe.getLocalPort();
+		probe.close();
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		System.setProperty("jawk.socket.ioStyle", "nio");
+		try {
+			final Future<String> client = executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					Socket socket = null;
+					// until the script listens
+					while (socket == null) {
+						try {
+							socket = new Socket("localhost", port);
+						} catch (ConnectException ce) {
+							Thread.sleep(50);
+						}
+					}
+					socket.getOutputStream().write("ping\n".getBytes());
+					final String line = new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+					socket.close();
+					return line;
+				}
+			});
+			awk("-ext", "BEGIN { css = CServerSocket(" + port + "); $0 = SocketAcceptBlock(css); print $1;"
+					+ " cs = SocketAccept($2); line = SocketRead(cs); SocketWrite(cs, \"got \" line); SocketFlush(cs);"
+					+ " $0 = SocketCloseBlock(cs); ok = $2 == cs; print $1, ok; SocketClose(cs); SocketClose(css) }");
+			assertEquals("got ping", client.get());
+		} finally {
+			System.clearProperty("jawk.socket.ioStyle");
+			executor.shutdown();
+		}
+		assertArrayEquals(array("SocketAccept", "SocketClose 1"), linesOutput());
+	}
+
+	private static CompiledScript compileWithExtensions(String script) throws ClassNotFoundException, IOException {
+		final AwkSettings settings = new AwkSettings();
+		settings.setUserExtensions(true);
+		settings.addScriptSource(new ScriptSource(ScriptSource.DESCRIPTION_COMMAND_LINE_SCRIPT,
+				new StringReader(script), false));
+		return new Awk().compile(settings);
+	}
+
+	private static List<Thread> threadsNamed(String name) {
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals(name) && thread.isAlive()) {
+				threads.add(thread);
+			}
+		}
+		return threads;
+	}
+
+	@Test(timeout = 10000)
+	public void testSocketExtensionStop() throws Exception {
+		final CompiledScript script = compileWithExtensions("BEGIN { ss = ServerSocket(47123); if (ss != \"\") print \"bound\" }");
+		for (String ioStyle : array("nio", "threaded")) {
+			System.setProperty("jawk.socket.ioStyle", ioStyle);
+			try {
+				for (int i = 0; i < 3; i++) {
+					final StringWriter out = new StringWriter();
+					script.run(new StringReader(""), out, null);
+					assertEquals(ioStyle, "bound" + LF, out.toString());
+					assertEquals(ioStyle, Collections.<Thread>emptyList(), threadsNamed("Jawk socket selector"));
+					// the port is free again
+					new ServerSocket(47123).close();
+				}
+			} finally {
+				System.clearProperty("jawk.socket.ioStyle");
+			}
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testUnusedStdinExtension() throws Exception {
+		final List<Thread> before = threadsNamed("getLineInputThread");
+		final CompiledScript script = compileWithExtensions("BEGIN { print Timeout(1) }");
+		final StringWriter out = new StringWriter();
+		script.run(new StringReader("x" + LF), out, null);
+		assertEquals("Timeout" + LF, out.toString());
+		assertEquals(before, threadsNamed("getLineInputThread"));
+	}
+
+	@Test(timeout = 10000)
+	public void testPollingBlockObjects() throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new Main(array("-ext", "BEGIN { $0 = Timeout(20); print; $0 = StdinBlock(Timeout(5000)); print; StdinGetline(); print }"),
+				new ByteArrayInputStream("x\n".getBytes()), new PrintStream(out, true), System.err);
+		assertEquals("Timeout" + LF + "Stdin" + LF + "x" + LF, out.toString());
+		final BlockObject withoutPolling = new BlockObject() {
+			@Override
+			public String getNotifierTag() {
+				return "None";
+			}
+
+			@Override
+			public void block() throws InterruptedException {
+				Thread.sleep(Long.MAX_VALUE);
+			}
+		};
+		assertFalse(withoutPolling.supportsPolling());
+		assertFalse(withoutPolling.poll());
+	}
+
+	@Test(timeout = 10000)
+	public void testSocketReadAllAfterPeerClose() throws Exception {
+		final ServerSocket server = new ServerSocket(0);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<Void> peer = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					final Socket socket = server.accept();
+					final OutputStream out = socket.getOutputStream();
+					out.write("a\nb\n".getBytes());
+					out.flush();
+					// the script is waiting for more when the peer closes
+					Thread.sleep(200);
+					out.write("c\n".getBytes());
+					socket.close();
+					return null;
+				}
+			});
+			awk("-ext", "BEGIN { cs = CSocket(\"localhost\", " + server.getLocalPort() + ");"
+					+ " while ((n = SocketReadAll(cs, lines)) > 0) for (i = 1; i <= n; i++) print lines[i];"
+					+ " print n \"[\" SocketRead(cs) \"]\"; SocketClose(cs) }");
+			peer.get();
+		} finally {
+			executor.shutdown();
+			server.close();
+		}
+		assertArrayEquals(array("a", "b", "c", "0[]"), linesOutput());
+	}
+
+	@Test
+	public void testPrintEncodedByStream() throws Exception {
+		final String script = "BEGIN { s = \"\u00e9t\u00e9\"; print s, 1; printf \"%s|\\n\", s }";
+		final String expected = "\u00e9t\u00e9 1" + LF + "\u00e9t\u00e9|\n";
+		final StringWriter writer = new StringWriter();
+		compile(script).run(new StringReader(""), writer, null);
+		assertEquals(expected, writer.toString());
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new Main(array(script), new ByteArrayInputStream(new byte[0]),
+				new PrintStream(out, true, "UTF-16BE"), System.err);
+		assertEquals(expected, out.toString("UTF-16BE"));
+	}
+
+	@Test
+	public void testByteModeOutput() throws Exception {
+		if (IS_WINDOWS) {
+			return;
+		}
+		final byte[] input = {'a', (byte) 0xc3, (byte) 0xa9, ' ', (byte) 0xff, '\n'};
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new Main(array("-b", "{ print $1; printf \"%s|\", $2 }"), new ByteArrayInputStream(input),
+				new PrintStream(out, true, "UTF-16BE"), System.err);
+		assertArrayEquals(new byte[] {'a', (byte) 0xc3, (byte) 0xa9, '\n', (byte) 0xff, '|'}, out.toByteArray());
+	}
+
+	@Test
+	public void testCompressedInputClosedOnExit() throws Exception {
+		File file = File.createTempFile("jawk", ".gz");
+		file.deleteOnExit();
+		// more than the decompressing thread may run ahead
+		GZIPOutputStream gzip = new GZIPOutputStream(new FileOutputStream(file));
+		try {
+			for (int i = 0; i < 200000; i++) {
+				gzip.write("0123456789\n".getBytes("US-ASCII"));
+			}
+		} finally {
+			gzip.close();
+		}
+		awk("{ print NR; exit }", file.getPath());
+		assertArrayEquals(array("1"), linesOutput());
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			assertFalse(thread.getName(), thread.getName().startsWith("Decompress "));
+		}
+	}
+
+	@Test
+	public void testCommandOutputCaptured() throws Exception {
+		if (IS_WINDOWS) {
+			return;
+		}
+		// System.out is replaced by the rule, so the commands must not inherit stdout
+		awk("BEGIN { printf \"a|\"; system(\"echo b\"); print \"c\" | \"cat\"; close(\"cat\"); print \"d\" }");
+		assertArrayEquals(array("a|b", "c", "d"), linesOutput());
+	}
+
+	@Test
+	public void testManyOutputFiles() throws Exception {
+		File dir = Files.createTempDirectory("jawk").toFile();
+		String prefix = dir.getPath() + File.separator + "f";
+		System.setProperty(OutputFileManager.MAX_OPEN_FILES_PROPERTY, "3");
+		try {
+			awk("BEGIN { for (i = 0; i < 40; i++) print i > (\"" + prefix + "\" (i % 10));"
+					+ " close(\"" + prefix + "1\"); print \"again\" > \"" + prefix + "1\"; print \"more\" >> \"" + prefix + "2\";"
+					+ " for (j = 0; j < 3; j++) { f = \"" + prefix + "\" j; close(f); s = \"\"; while ((getline line < f) > 0) s = s line \" \"; print s } }");
+		} finally {
+			System.clearProperty(OutputFileManager.MAX_OPEN_FILES_PROPERTY);
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+		assertArrayEquals(array("0 10 20 30 ", "again ", "2 12 22 32 more "), linesOutput());
+	}
+
+	@Test
+	public void testWriteBehindOutput() throws Exception {
+		File file = File.createTempFile("jawk", ".txt");
+		file.deleteOnExit();
+		String name = file.getPath();
+		System.setProperty(OutputFileManager.WRITE_BEHIND_PROPERTY, "true");
+		try {
+			awk("BEGIN { for (i = 0; i < 100000; i++) print i > \"" + name + "\"; close(\"" + name + "\");"
+					+ " while ((getline line < \"" + name + "\") > 0) { n++; last = line } print n, last }");
+		} finally {
+			System.clearProperty(OutputFileManager.WRITE_BEHIND_PROPERTY);
+		}
+		assertArrayEquals(array("100000 99999"), linesOutput());
+	}
+
+	@Test
+	public void testGetlineFromFile() throws Exception {
+		File file = File.createTempFile("jawk", ".txt");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write("k1 10\nk2 20\nk3\n".getBytes("US-ASCII"));
+		} finally {
+			out.close();
+		}
+		String name = file.getPath();
+		awk("-ext", "BEGIN { $0 = \"a b\"; while ((getline line < \"" + name + "\") > 0) { n++; last = line }"
+				+ " print n, last, NR, $2; c = LoadRecords(d, \"" + name + "\"); print c, d[\"k2\"]; c = LoadRecords(e, \"" + name + "\", 2); print c, e[10], NR }");
+		assertArrayEquals(array("3 k3 0 b", "3 k2 20", "2 k1 10 0"), linesOutput());
+	}
+
+	@Test
+	public void testLoadMap() throws Exception {
+		File file = File.createTempFile("jawk", ".txt");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write("a 1\nb 2\n3 c\n".getBytes("US-ASCII"));
+		} finally {
+			out.close();
+		}
+		String name = file.getPath();
+		awk("-ext", "BEGIN { c = LoadMap(m, \"" + name + "\"); Compact(m); print c, m[\"b\"], m[3], (\"3\" in m);"
+				+ " m[\"d\"] = 4; delete m[\"a\"]; for (k in m) n++; print n, (\"a\" in m);"
+				+ " c = LoadMap(r, \"" + name + "\", 2, 0); print c, r[1], r[\"c\"] }");
+		assertArrayEquals(array("3 2 c 1", "3 0", "3 a 1 3 c"), linesOutput());
+	}
+
+	@Test
+	public void testLoadMapDuplicateKeys() throws Exception {
+		File file = File.createTempFile("jawk", ".txt");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			// more records than sampled for presizing, but only 3 keys
+			for (int i = 0; i < 5000; i++) {
+				out.write(("k" + (i % 3) + " " + i + "\n").getBytes("US-ASCII"));
+			}
+		} finally {
+			out.close();
+		}
+		awk("-ext", "BEGIN { c = LoadMap(m, \"" + file.getPath() + "\"); for (k in m) n++; print c, n, m[\"k1\"] }");
+		assertArrayEquals(array("5000 3 4999"), linesOutput());
+	}
+
+	@Test
+	public void testIntegerArrayKeys() throws Exception {
+		awk("BEGIN { a[\"5\"] = 1; a[5] = 2; a[\"05\"] = 3; for (k in a) n++; print n, a[\"5\"];"
+				+ " delete a[\"5\"]; print (5 in a); split(\"x y\", s); print (\"2\" in s) }");
+		assertArrayEquals(array("2 2", "0", "1"), linesOutput());
+	}
+
+	@Test
+	public void testSortedArrayKeys() throws Exception {
+		awk("-t", "BEGIN { a[9]; a[10]; a[\"5x\"]; a[\"b\"]; a[7]; a[\"-3\"];"
+				+ " for (k in a) printf \"%s \", k; print \"\";"
+				+ " delete a[10]; delete a[\"5x\"]; print (10 in a), (\"5x\" in a), (9 in a), (\"b\" in a) }");
+		assertArrayEquals(array("-3 7 9 10 5x b ", "0 0 1 1"), linesOutput());
+	}
 }
@@ -0,0 +1,117 @@
+package org.jawk.benchmark;
+
+import java.util.concurrent.SynchronousQueue;
+import org.jawk.jrt.BlockManager;
+import org.jawk.jrt.BlockObject;
+
+/**
+ * Measures the latency of {@link BlockManager#block(BlockObject)},
+ * once for a block object which supports polling,
+ * and once for the same block object without polling support,
+ * which makes the BlockManager spawn a thread per block operation.
+ * Each round trip hands one item from a producer thread
+ * to the blocking thread.
+ * <p>
+ * Usage:
+ * <blockquote>
+ * <pre>
+ * java -cp ... org.jawk.benchmark.BlockLatencyBenchmark [iterations]
+ * </pre>
+ * </blockquote>
+ * </p>
+ */
+public final class BlockLatencyBenchmark {
+
+	private BlockLatencyBenchmark() {}
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+		// warm-up
+		run(true, iterations / 4);
+		run(false, iterations / 4);
+
+		long polling = run(true, iterations);
+		long threaded = run(false, iterations);
+		System.out.printf("polling block:  %8.2f us/round trip%n", polling / 1000.0 / iterations);
+		System.out.printf("threaded block: %8.2f us/round trip%n", threaded / 1000.0 / iterations);
+	}
+
+	private static long run(boolean polling, int iterations) throws Exception {
+		final HandOff handOff = new HandOff(polling);
+		final SynchronousQueue<Object> requests = new SynchronousQueue<Object>();
+		Thread producer = new Thread("producer") {
+			@Override
+			public void run() {
+				try {
+					while (requests.take() != this) {
+						handOff.offer();
+					}
+				} catch (InterruptedException ie) {
+					// done
+				}
+			}
+		};
+		producer.start();
+
+		BlockManager blockManager = new BlockManager();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			requests.put(handOff);
+			blockManager.block(handOff);
+			handOff.take();
+		}
+		long duration = System.nanoTime() - start;
+		requests.put(producer);
+		producer.join();
+		return duration;
+	}
+
+	/**
+	 * Holds at most one item, and blocks while empty.
+	 */
+	private static final class HandOff extends BlockObject {
+
+		private final boolean polling;
+		private volatile boolean full = false;
+
+		private HandOff(boolean polling) {
+			this.polling = polling;
+		}
+
+		void offer() {
+			full = true;
+			signalReady();
+		}
+
+		void take() {
+			full = false;
+		}
+
+		@Override
+		public String getNotifierTag() {
+			return "HandOff";
+		}
+
+		@Override
+		public void block()
+				throws InterruptedException
+		{
+			synchronized (this) {
+				while (!full) {
+					wait();
+				}
+			}
+		}
+
+		@Override
+		public boolean supportsPolling() {
+			return polling;
+		}
+
+		@Override
+		public boolean poll() {
+			return full;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package org.jawk.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.jawk.jrt.DfaMatcher;
+
+/**
+ * Compares {@link DfaMatcher#find(String)} with
+ * <code>Pattern.matcher(String).find()</code>
+ * for typical AWK filter expressions over log-like lines,
+ * plus one expression that makes the backtracking engine
+ * take exponential time.
+ * <p>
+ * Usage:
+ * <blockquote>
+ * <pre>
+ * java -cp ... org.jawk.benchmark.RegexBenchmark [lines]
+ * </pre>
+ * </blockquote>
+ * </p>
+ */
+public final class RegexBenchmark {
+
+	private static final String[] FILTERS = {
+		"ERROR",
+		"^[0-9]+ (GET|POST) ",
+		"\\.(jpg|png|gif) HTTP",
+		"(timeout|refused|reset) after [0-9]+ms$",
+		"user=[a-z]+[0-9]* .*status=5[0-9][0-9]",
+	};
+
+	private static final String[] WORDS = {
+		"GET", "POST", "/index.html", "/img/logo.png", "HTTP/1.1", "user=alice", "user=bob7",
+		"status=200", "status=503", "INFO", "ERROR", "timeout", "after", "15ms", "connection"
+	};
+
+	private RegexBenchmark() {}
+
+	public static void main(String[] args) {
+		int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		List<String> lines = generateLines(lineCount);
+
+		for (String filter : FILTERS) {
+			Pattern pattern = Pattern.compile(filter);
+			DfaMatcher dfa = DfaMatcher.compile(pattern);
+			// warm-up
+			runPattern(pattern, lines);
+			runDfa(dfa, lines);
+
+			long patternStart = System.nanoTime();
+			int patternMatches = runPattern(pattern, lines);
+			long patternTime = System.nanoTime() - patternStart;
+			long dfaStart = System.nanoTime();
+			int dfaMatches = runDfa(dfa, lines);
+			long dfaTime = System.nanoTime() - dfaStart;
+			if (patternMatches != dfaMatches) {
+				throw new IllegalStateException("Different results for /" + filter + "/: "
+						+ patternMatches + " vs. " + dfaMatches);
+			}
+			System.out.printf("%-45s Pattern: %7.1f ns/line   DFA: %7.1f ns/line   (%d matches)%n",
+					"/" + filter + "/", (double) patternTime / lineCount, (double) dfaTime / lineCount, dfaMatches);
+		}
+
+		// exponential backtracking for the Pattern engine
+		String pathological = "(x+x+)+y";
+		String input = "xxxxxxxxxxxxxxxxxxxxxxxxxxx";
+		Pattern pattern = Pattern.compile(pathological);
+		long patternStart = System.nanoTime();
+		pattern.matcher(input).find();
+		long patternTime = System.nanoTime() - patternStart;
+		long dfaStart = System.nanoTime();
+		DfaMatcher.compile(pattern).find(input);
+		long dfaTime = System.nanoTime() - dfaStart;
+		System.out.printf("%-45s Pattern: %10.3f ms     DFA: %10.3f ms (including construction)%n",
+				"/" + pathological + "/ on " + input.length() + " x",
+				patternTime / 1e6, dfaTime / 1e6);
+	}
+
+	private static int runPattern(Pattern pattern, List<String> lines) {
+		int matches = 0;
+		for (String line : lines) {
+			if (pattern.matcher(line).find()) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	private static int runDfa(DfaMatcher dfa, List<String> lines) {
+		int matches = 0;
+		for (String line : lines) {
+			if (dfa.find(line)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	private static List<String> generateLines(int count) {
+		Random random = new Random(1);
+		List<String> lines = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			StringBuilder line = new StringBuilder();
+			line.append(random.nextInt(100000));
+			int words = 4 + random.nextInt(8);
+			for (int w = 0; w < words; w++) {
+				line.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			lines.add(line.toString());
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,104 @@
+package org.jawk.benchmark;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
+import org.jawk.ExitException;
+import org.jawk.backend.AVM;
+import org.jawk.backend.AVMPool;
+import org.jawk.ext.JawkExtension;
+import org.jawk.frontend.AwkParser;
+import org.jawk.frontend.AwkSyntaxTree;
+import org.jawk.intermediate.AwkTuples;
+import org.jawk.jrt.AppendablePrintStream;
+import org.jawk.util.AwkSettings;
+import org.jawk.util.ScriptSource;
+
+/**
+ * Measures the per-execution cost of running a small script
+ * on a tiny input, once with a newly constructed interpreter
+ * per execution, and once with interpreters reset and reused
+ * through an {@link AVMPool}.
+ * <p>
+ * Usage:
+ * <blockquote>
+ * <pre>
+ * java -cp ... org.jawk.benchmark.SetupCostBenchmark [iterations]
+ * </pre>
+ * </blockquote>
+ * </p>
+ */
+public final class SetupCostBenchmark {
+
+	private static final String SCRIPT = "{ n += NF } END { print n, length(ENVIRON[\"HOME\"]) }";
+	private static final String INPUT = "a b c\nd e\n";
+
+	private SetupCostBenchmark() {}
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		AwkTuples tuples = compile(SCRIPT);
+
+		// warm-up
+		runFresh(tuples, iterations / 4);
+		runPooled(tuples, iterations / 4);
+
+		long fresh = runFresh(tuples, iterations);
+		long pooled = runPooled(tuples, iterations);
+		System.out.printf("fresh AVM per execution:  %8.2f us/execution%n", fresh / 1000.0 / iterations);
+		System.out.printf("pooled AVM per execution: %8.2f us/execution%n", pooled / 1000.0 / iterations);
+	}
+
+	private static long runFresh(AwkTuples tuples, int iterations) throws Exception {
+		Map<String, JawkExtension> noExtensions = Collections.emptyMap();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			AVM avm = new AVM(newSettings(), noExtensions);
+			execute(avm, tuples);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long runPooled(AwkTuples tuples, int iterations) throws Exception {
+		AVMPool pool = new AVMPool(1);
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			AVM avm = pool.acquire(newSettings());
+			execute(avm, tuples);
+			pool.release(avm);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void execute(AVM avm, AwkTuples tuples) {
+		try {
+			avm.interpret(tuples);
+		} catch (ExitException ee) {
+			// not used by the benchmark script
+		} finally {
+			avm.waitForIO();
+		}
+	}
+
+	private static AwkSettings newSettings() {
+		AwkSettings settings = new AwkSettings();
+		settings.setInput(new StringReader(INPUT));
+		settings.setOutputStream(new AppendablePrintStream(new StringWriter()));
+		return settings;
+	}
+
+	private static AwkTuples compile(String script) throws Exception {
+		Map<String, JawkExtension> noExtensions = Collections.emptyMap();
+		AwkParser parser = new AwkParser(false, false, false, noExtensions);
+		AwkSyntaxTree ast = parser.parse(Collections.singletonList(new ScriptSource(
+				ScriptSource.DESCRIPTION_COMMAND_LINE_SCRIPT, new StringReader(script), false)));
+		ast.semanticAnalysis();
+		ast.semanticAnalysis();
+		AwkTuples tuples = new AwkTuples();
+		ast.populateTuples(tuples);
+		tuples.postProcess();
+		parser.populateGlobalVariableNameToOffsetMappings(tuples);
+		return tuples;
+	}
+}
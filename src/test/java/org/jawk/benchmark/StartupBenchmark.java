@@ -0,0 +1,87 @@
+package org.jawk.benchmark;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the wall-clock time of complete Jawk launches,
+ * each in a new JVM, of the trivial invocation
+ * <code>awk 1 /dev/null</code>,
+ * which is dominated by JVM and Jawk start-up.
+ * <p>
+ * Jawk is launched from the given stand-alone jar,
+ * the same way the <code>startupArchive</code> profile does
+ * when recording its class data sharing archive,
+ * as the archive is only used with a matching class path.
+ * Any arguments after the number of launches are passed to the launched
+ * JVMs, which allows to compare, for example, launches with and without
+ * that archive:
+ * <blockquote>
+ * <pre>
+ * java -cp ... org.jawk.benchmark.StartupBenchmark stand-alone-jar [launches [JVM-option...]]
+ * java -cp ... org.jawk.benchmark.StartupBenchmark target/jawk-1.03-SNAPSHOT-stand-alone.jar 20 -XX:SharedArchiveFile=target/jawk.jsa
+ * </pre>
+ * </blockquote>
+ * </p>
+ */
+public final class StartupBenchmark {
+
+	private StartupBenchmark() {}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage: StartupBenchmark stand-alone-jar [launches [JVM-option...]]");
+			System.exit(1);
+		}
+		File jar = new File(args[0]);
+		int launches = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		List<String> jvmOptions = args.length > 2
+				? Arrays.asList(args).subList(2, args.length)
+				: new ArrayList<String>();
+
+		File emptyInput = File.createTempFile("jawk-startup", ".txt");
+		emptyInput.deleteOnExit();
+
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(jvmOptions);
+		command.add("-cp");
+		command.add(jar.getAbsolutePath());
+		command.add("org.jawk.Main");
+		command.add("1");
+		command.add(emptyInput.getAbsolutePath());
+
+		// warm-up (file system caches)
+		launch(command);
+
+		long total = 0;
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < launches; i++) {
+			long time = launch(command);
+			total += time;
+			min = Math.min(min, time);
+		}
+		System.out.printf("average launch: %8.2f ms%n", total / 1e6 / launches);
+		System.out.printf("fastest launch: %8.2f ms%n", min / 1e6);
+	}
+
+	private static long launch(List<String> command) throws Exception {
+		long start = System.nanoTime();
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		InputStream output = process.getInputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = output.read(buffer)) >= 0) {
+			System.out.write(buffer, 0, read);
+		}
+		int exitCode = process.waitFor();
+		long time = System.nanoTime() - start;
+		if (exitCode != 0) {
+			throw new IllegalStateException("Jawk exited with code " + exitCode);
+		}
+		return time;
+	}
+}